@@ -0,0 +1,44 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs the benchmarks with the gc profiler and stores the results as JSON in results/, one file per run,
+ * so that runs can be compared, e.g. with JMH Visualizer. Accepts the usual JMH command line options;
+ * a benchmark regex given there narrows the run, and -rff overrides the result file.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        File results = new File("results");
+        if (!results.isDirectory() && !results.mkdirs())
+            throw new IllegalStateException("Cannot create " + results.getAbsolutePath());
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(results, "callgraph-" + timestamp + ".json").getPath())
+                .jvmArgsPrepend("-D" + Programs.HOME_PROPERTY + "=" + Programs.home().getAbsolutePath());
+        if (commandLine.getIncludes().isEmpty())
+            options.include(CallGraphBenchmark.class.getSimpleName());
+        if (commandLine.getResult().hasValue())
+            options.result(commandLine.getResult().get());
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import analysis.CallGraph;
+import analysis.CallGraphAlgorithm;
+import analysis.exercise1.CHAAlgorithm;
+import analysis.exercise2.RTAAlgorithm;
+import analysis.exercise3.VTAAlgorithm;
+import analysis.exercise4.SparkLikeAlgorithm;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import soot.SootMethod;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures constructCallGraph of each algorithm on each program. Every invocation uses a new algorithm instance,
+ * so dispatch results are not cached across invocations; the entry points are indexed once per trial.
+ * Besides throughput, the edges counter reports call graph edges built per second.
+ * The default programs are the fixtures and synthetic-1000; larger synthetic programs are passed with -p, see the README.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class CallGraphBenchmark {
+    public enum Algorithm {
+        CHA(CHAAlgorithm::new),
+        RTA(RTAAlgorithm::new),
+        VTA(VTAAlgorithm::new),
+        SPARK_LIKE(SparkLikeAlgorithm::new),
+        // the propagation strategies SPARK_LIKE's default, WAVE, is compared against
+        SPARK_LIKE_WORKLIST(() -> new SparkLikeAlgorithm(SparkLikeAlgorithm.Propagation.WORKLIST)),
+        SPARK_LIKE_LCD(() -> new SparkLikeAlgorithm(SparkLikeAlgorithm.Propagation.LAZY_CYCLE_DETECTION));
+
+        private final Supplier<CallGraphAlgorithm> factory;
+
+        Algorithm(Supplier<CallGraphAlgorithm> factory) {
+            this.factory = factory;
+        }
+    }
+
+    @Param({"CHA", "RTA", "VTA", "SPARK_LIKE", "SPARK_LIKE_WORKLIST", "SPARK_LIKE_LCD"})
+    public Algorithm algorithm;
+
+    @Param({"exercise1", "exercise2", "exercise3", "exercise4", "synthetic-1000"})
+    public String program;
+
+    private Programs.Program loaded;
+
+    @Setup(Level.Trial)
+    public void loadProgram() {
+        loaded = Programs.load(program);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Edges {
+        public long edges;
+    }
+
+    @Benchmark
+    public CallGraph constructCallGraph(Edges counter) {
+        CallGraphAlgorithm instance = algorithm.factory.get();
+        instance.setEntryPointIndex(loaded.entryPoints);
+        CallGraph cg = instance.constructCallGraph(loaded.scene);
+        for (SootMethod node : cg.nodes())
+            counter.edges += cg.edgesOutOf(node).size();
+        return cg;
+    }
+}
@@ -0,0 +1,116 @@
+package bench;
+
+import analysis.EntryPointIndex;
+import analysis.ProgramGenerator;
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.options.Options;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Loads the programs the benchmarks run on into a fresh Soot scene.
+ * A program is either the name of a fixture package under target in DECALab2-Soot's test classes, e.g. exercise2,
+ * whose main methods become the entry points, or synthetic-N for a program of about N methods from
+ * {@link ProgramGenerator}. Synthetic programs are generated and compiled once into target/synthetic.
+ * The DECALab2-Soot directory is taken from the decalab2.home system property and defaults to the sibling
+ * directory; it must contain target/test-classes and lib/rt.jar.
+ */
+public final class Programs {
+    public static final String HOME_PROPERTY = "decalab2.home";
+    private static final String SYNTHETIC_PREFIX = "synthetic-";
+    private static final long SYNTHETIC_SEED = 2020;
+
+    private Programs() {
+    }
+
+    public static File home() {
+        return new File(System.getProperty(HOME_PROPERTY, ".." + File.separator + "DECALab2-Soot"));
+    }
+
+    /**
+     * Resets Soot and loads the classes of program, returning the scene and the program's entry points.
+     */
+    public static Program load(String program) {
+        if (program.startsWith(SYNTHETIC_PREFIX))
+            return loadScene(synthetic(Integer.parseInt(program.substring(SYNTHETIC_PREFIX.length()))), "synthetic");
+
+        File testClasses = new File(home(), "target" + File.separator + "test-classes");
+        File packageDir = new File(testClasses, "target" + File.separator + program);
+        if (!packageDir.isDirectory())
+            throw new IllegalArgumentException("No compiled fixture package " + packageDir + ", run mvn test-compile in DECALab2-Soot first");
+        return loadScene(testClasses.getPath(), "target." + program);
+    }
+
+    private static String synthetic(int methodCount) {
+        Path dir = Paths.get("target", "synthetic", String.valueOf(methodCount));
+        Path classes = dir.resolve("classes");
+        if (Files.isDirectory(classes))
+            return classes.toString();
+        try {
+            ProgramGenerator generator = new ProgramGenerator(SYNTHETIC_SEED);
+            generator.setMethodCount(methodCount);
+            generator.setRecursionRate(0.05);
+            generator.setOverrideRate(0.5);
+            generator.setTaintPaths(10);
+            Path sources = dir.resolve("sources");
+            generator.writeSources(sources);
+            // compile next to the final directory so an interrupted run is not mistaken for a finished one
+            Path compiling = dir.resolve("compiling");
+            ProgramGenerator.compile(sources, compiling);
+            Files.move(compiling, classes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot generate synthetic program of " + methodCount + " methods", e);
+        }
+        return classes.toString();
+    }
+
+    private static Program loadScene(String processDir, String packageName) {
+        G.reset();
+        String rtJar = new File(home(), "lib" + File.separator + "rt.jar").getPath();
+        Options.v().set_whole_program(true);
+        Options.v().set_soot_classpath(processDir + File.pathSeparator + rtJar);
+        Options.v().set_no_bodies_for_excluded(true);
+        Options.v().set_full_resolver(true);
+        Options.v().set_process_dir(Collections.singletonList(processDir));
+        Options.v().set_exclude(Collections.singletonList("exercises.*"));
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().setPhaseOption("jb", "use-original-names:true");
+        Options.v().set_prepend_classpath(false);
+        Options.v().set_output_format(Options.output_format_none);
+        Scene scene = Scene.v();
+        scene.loadNecessaryClasses();
+        // bodies are part of loading, not of call graph construction
+        for (SootClass cls : new ArrayList<>(scene.getApplicationClasses())) {
+            for (SootMethod method : new ArrayList<>(cls.getMethods())) {
+                if (method.isConcrete())
+                    method.retrieveActiveBody();
+            }
+        }
+
+        EntryPointIndex entryPoints = new EntryPointIndex(scene, Collections.singletonMap("main",
+                EntryPointIndex.MAIN_METHOD.and(m -> m.getDeclaringClass().getPackageName().equals(packageName))));
+        if (entryPoints.allEntryPoints().isEmpty())
+            throw new IllegalArgumentException("No main method in package " + packageName);
+        return new Program(scene, entryPoints);
+    }
+
+    public static final class Program {
+        public final Scene scene;
+        public final EntryPointIndex entryPoints;
+
+        Program(Scene scene, EntryPointIndex entryPoints) {
+            this.scene = scene;
+            this.entryPoints = entryPoints;
+        }
+    }
+}
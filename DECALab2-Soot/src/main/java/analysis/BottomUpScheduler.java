@@ -0,0 +1,203 @@
+package analysis;
+
+import soot.SootMethod;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs a task per call graph SCC, callees first. A component is submitted as soon as all of its callee
+ * components are done, so independent parts of the call graph are processed concurrently.
+ * The task for a component may read anything its callee tasks wrote.
+ */
+public class BottomUpScheduler {
+    private final int parallelism;
+
+    public BottomUpScheduler(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs task on the members of every component of condensation. With parallelism 1 the components run
+     * on the calling thread in component order. If a task throws, no further tasks are started and the first
+     * failure is rethrown as IllegalStateException.
+     */
+    public Report run(CallGraphCondensation condensation, Consumer<List<SootMethod>> task) {
+        int componentCount = condensation.componentCount();
+        long[] durations = new long[componentCount];
+        long start = System.nanoTime();
+
+        if (parallelism == 1) {
+            for (int c = 0; c < componentCount; c++) {
+                long taskStart = System.nanoTime();
+                task.accept(condensation.members(c));
+                durations[c] = System.nanoTime() - taskStart;
+            }
+            return new Report(condensation, durations, System.nanoTime() - start, componentCount == 0 ? 0 : 1);
+        }
+
+        Run run = new Run(condensation, task, durations);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int c = 0; c < componentCount; c++) {
+                if (condensation.calleeCount(c) == 0) {
+                    int component = c;
+                    pool.execute(() -> run.execute(pool, component));
+                }
+            }
+            run.await();
+        } finally {
+            pool.shutdown();
+        }
+
+        if (run.failure.get() != null)
+            throw new IllegalStateException("Bottom-up task failed", run.failure.get());
+        return new Report(condensation, durations, System.nanoTime() - start, run.maxConcurrency.get());
+    }
+
+    private static class Run {
+        final CallGraphCondensation condensation;
+        final Consumer<List<SootMethod>> task;
+        final long[] durations;
+        final AtomicIntegerArray pendingCallees;
+        final CountDownLatch done;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxConcurrency = new AtomicInteger();
+
+        Run(CallGraphCondensation condensation, Consumer<List<SootMethod>> task, long[] durations) {
+            this.condensation = condensation;
+            this.task = task;
+            this.durations = durations;
+            int componentCount = condensation.componentCount();
+            pendingCallees = new AtomicIntegerArray(componentCount);
+            for (int c = 0; c < componentCount; c++)
+                pendingCallees.set(c, condensation.calleeCount(c));
+            done = new CountDownLatch(componentCount);
+        }
+
+        void execute(ForkJoinPool pool, int component) {
+            // after a failure the remaining components are only counted down
+            if (failure.get() == null) {
+                maxConcurrency.accumulateAndGet(running.incrementAndGet(), Math::max);
+                long taskStart = System.nanoTime();
+                try {
+                    task.accept(condensation.members(component));
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    durations[component] = System.nanoTime() - taskStart;
+                    running.decrementAndGet();
+                }
+            }
+
+            for (int i = 0; i < condensation.callerCount(component); i++) {
+                int caller = condensation.caller(component, i);
+                if (pendingCallees.decrementAndGet(caller) == 0)
+                    pool.execute(() -> execute(pool, caller));
+            }
+            done.countDown();
+        }
+
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for bottom-up tasks", e);
+            }
+        }
+    }
+
+    /**
+     * Timing of one run. Durations are wall-clock nanoseconds.
+     */
+    public static class Report {
+        private final int componentCount;
+        private final int criticalPathLength;
+        private final long criticalPathNanos;
+        private final long totalTaskNanos;
+        private final long wallNanos;
+        private final int maxConcurrency;
+
+        Report(CallGraphCondensation condensation, long[] durations, long wallNanos, int maxConcurrency) {
+            this.componentCount = condensation.componentCount();
+            this.criticalPathLength = condensation.criticalPathLength();
+            this.wallNanos = wallNanos;
+            this.maxConcurrency = maxConcurrency;
+
+            // callee components have smaller numbers, so one forward pass finds the longest weighted chain
+            long[] finish = new long[componentCount];
+            long longest = 0;
+            long total = 0;
+            for (int c = 0; c < componentCount; c++) {
+                long calleesDone = 0;
+                for (int i = 0; i < condensation.calleeCount(c); i++)
+                    calleesDone = Math.max(calleesDone, finish[condensation.callee(c, i)]);
+                finish[c] = calleesDone + durations[c];
+                longest = Math.max(longest, finish[c]);
+                total += durations[c];
+            }
+            this.criticalPathNanos = longest;
+            this.totalTaskNanos = total;
+        }
+
+        public int componentCount() {
+            return componentCount;
+        }
+
+        /**
+         * Returns the number of components on the longest callee chain.
+         */
+        public int criticalPathLength() {
+            return criticalPathLength;
+        }
+
+        /**
+         * Returns the summed task time along the slowest callee chain, a lower bound for the wall time.
+         */
+        public long criticalPathNanos() {
+            return criticalPathNanos;
+        }
+
+        public long totalTaskNanos() {
+            return totalTaskNanos;
+        }
+
+        public long wallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the average number of tasks running at once, i.e. total task time over wall time.
+         */
+        public double achievedParallelism() {
+            return wallNanos == 0 ? 0 : (double) totalTaskNanos / wallNanos;
+        }
+
+        /**
+         * Returns the best parallelism the DAG allows with these task times, total task time over critical path time.
+         */
+        public double availableParallelism() {
+            return criticalPathNanos == 0 ? 0 : (double) totalTaskNanos / criticalPathNanos;
+        }
+
+        public int maxConcurrency() {
+            return maxConcurrency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d components, critical path %d components / %.1f ms, %.1f ms of tasks in %.1f ms (parallelism %.2f of %.2f available, at most %d at once)",
+                    componentCount, criticalPathLength, criticalPathNanos / 1e6, totalTaskNanos / 1e6, wallNanos / 1e6,
+                    achievedParallelism(), availableParallelism(), maxConcurrency);
+        }
+    }
+}
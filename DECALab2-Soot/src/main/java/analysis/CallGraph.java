@@ -1,30 +1,47 @@
 package analysis;
 
 import soot.SootMethod;
+import soot.Unit;
 
-import java.util.Collection;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 public class CallGraph {
     public final String algorithm;
     private final Set<SootMethod> nodes;
-    private final Set<Edge<SootMethod, SootMethod>> edges;
+    // Forward and reverse adjacency, kept in sync by addEdge
+    private final Map<SootMethod, Set<SootMethod>> successors;
+    private final Map<SootMethod, Set<SootMethod>> predecessors;
+    // Call-site granular edges: targets per call site, call sites per caller and per callee
+    private final Map<Unit, Set<SootMethod>> callSiteTargets;
+    private final Map<SootMethod, Set<Unit>> callSitesOf;
+    private final Map<SootMethod, Set<Unit>> callSitesInto;
 
     public CallGraph(String algorithm) {
         this.algorithm = algorithm;
 
         nodes = new HashSet<SootMethod>();
-        edges = new HashSet<Edge<SootMethod, SootMethod>>();
+        successors = new HashMap<SootMethod, Set<SootMethod>>();
+        predecessors = new HashMap<SootMethod, Set<SootMethod>>();
+        callSiteTargets = new HashMap<Unit, Set<SootMethod>>();
+        callSitesOf = new HashMap<SootMethod, Set<Unit>>();
+        callSitesInto = new HashMap<SootMethod, Set<Unit>>();
     }
 
     public CallGraph(String algorithm, CallGraph cg) {
         this(algorithm);
 
         nodes.addAll(cg.nodes);
-        edges.addAll(cg.edges);
+        cg.successors.forEach((source, targets) -> successors.put(source, new HashSet<>(targets)));
+        cg.predecessors.forEach((target, sources) -> predecessors.put(target, new HashSet<>(sources)));
+        cg.callSiteTargets.forEach((callSite, targets) -> callSiteTargets.put(callSite, new HashSet<>(targets)));
+        cg.callSitesOf.forEach((source, callSites) -> callSitesOf.put(source, new HashSet<>(callSites)));
+        cg.callSitesInto.forEach((target, callSites) -> callSitesInto.put(target, new HashSet<>(callSites)));
     }
 
     public void addNode(SootMethod method) {
@@ -39,31 +56,189 @@ public class CallGraph {
         if (!nodes.contains(target))
             throw new IllegalArgumentException("Call graph does not contain target node. Please add target node first. " + target.toString());
 
-        Edge<SootMethod, SootMethod> edge = new Edge<>(source, target);
-        if (edges.contains(edge))
-            throw new IllegalArgumentException("Call graph already contains edge: " + edge.toString());
+        Set<SootMethod> targets = successors.computeIfAbsent(source, m -> new HashSet<>());
+        if (!targets.add(target))
+            throw new IllegalArgumentException("Call graph already contains edge: " + new Edge<>(source, target).toString());
 
-        edges.add(edge);
+        predecessors.computeIfAbsent(target, m -> new HashSet<>()).add(source);
+    }
+
+    /**
+     * Adds an edge from the call site in source to target. The method-level edge is added as well
+     * unless another call site already created it.
+     */
+    public void addEdge(SootMethod source, Unit callSite, SootMethod target) {
+        if (!nodes.contains(source))
+            throw new IllegalArgumentException("Call graph does not contain source node. Please add source node first. " + source.toString());
+        if (!nodes.contains(target))
+            throw new IllegalArgumentException("Call graph does not contain target node. Please add target node first. " + target.toString());
+
+        Set<SootMethod> siteTargets = callSiteTargets.computeIfAbsent(callSite, u -> new HashSet<>());
+        if (!siteTargets.add(target))
+            throw new IllegalArgumentException("Call graph already contains edge: " + new CallSiteEdge(source, callSite, target).toString());
+
+        callSitesOf.computeIfAbsent(source, m -> new HashSet<>()).add(callSite);
+        callSitesInto.computeIfAbsent(target, m -> new HashSet<>()).add(callSite);
+        if (!hasEdge(source, target))
+            addEdge(source, target);
+    }
+
+    /**
+     * Removes all method-level and call-site edges out of source. The node itself stays in the graph.
+     */
+    public void removeEdgesOutOf(SootMethod source) {
+        Set<SootMethod> targets = successors.remove(source);
+        if (targets != null) {
+            for (SootMethod target : targets)
+                predecessors.get(target).remove(source);
+        }
+
+        Set<Unit> callSites = callSitesOf.remove(source);
+        if (callSites != null) {
+            for (Unit callSite : callSites) {
+                for (SootMethod target : callSiteTargets.remove(callSite))
+                    callSitesInto.get(target).remove(callSite);
+            }
+        }
+    }
+
+    /**
+     * Removes method and every edge into and out of it.
+     */
+    public void removeNode(SootMethod method) {
+        if (!nodes.contains(method))
+            throw new IllegalArgumentException("Call graph does not contain method: " + method.toString());
+        removeEdgesOutOf(method);
+
+        Set<SootMethod> sources = predecessors.remove(method);
+        Set<Unit> callSites = callSitesInto.remove(method);
+        if (callSites != null) {
+            for (Unit callSite : callSites) {
+                Set<SootMethod> siteTargets = callSiteTargets.get(callSite);
+                siteTargets.remove(method);
+                if (siteTargets.isEmpty()) {
+                    callSiteTargets.remove(callSite);
+                    // a call site edge always comes with its method-level edge, so the caller is among sources
+                    for (SootMethod source : sources) {
+                        Set<Unit> sourceCallSites = callSitesOf.get(source);
+                        if (sourceCallSites != null)
+                            sourceCallSites.remove(callSite);
+                    }
+                }
+            }
+        }
+        if (sources != null) {
+            for (SootMethod source : sources)
+                successors.get(source).remove(method);
+        }
+        nodes.remove(method);
     }
 
     public boolean hasNode(SootMethod m) {
         return nodes.contains(m);
     }
-    public boolean hasEdge(SootMethod source, SootMethod target) { return edges.contains(new Edge<>(source, target));}
+    public boolean hasEdge(SootMethod source, SootMethod target) { return successors.getOrDefault(source, Collections.emptySet()).contains(target);}
+    public boolean hasEdge(SootMethod source, Unit callSite, SootMethod target) { return callSitesOf.getOrDefault(source, Collections.emptySet()).contains(callSite) && callSiteTargets.getOrDefault(callSite, Collections.emptySet()).contains(target);}
+
+    /**
+     * Returns a read-only live view of all methods in the graph. The view reflects later changes to the graph: copy it before
+     * modifying the graph while iterating.
+     */
+    public Set<SootMethod> nodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
 
+    /**
+     * Returns a read-only live view of the methods called from origin. The view reflects later changes to the graph: copy it before
+     * modifying the graph while iterating.
+     */
     public Set<SootMethod> edgesOutOf(SootMethod origin) {
-        if (!nodes.contains(origin)) return Collections.emptySet();
+        Set<SootMethod> targets = successors.get(origin);
+        if (targets == null) return Collections.emptySet();
 
-        return edges.stream().filter(edge -> edge.source.equals(origin))
-                      .map(edge -> edge.target)
-                      .collect(Collectors.toSet());
+        return Collections.unmodifiableSet(targets);
     }
 
+    /**
+     * Returns a read-only live view of the methods calling target. The view reflects later changes to the graph: copy it before
+     * modifying the graph while iterating.
+     */
     public Set<SootMethod> edgesInto(SootMethod target) {
-        if (!nodes.contains(target)) return Collections.emptySet();
+        Set<SootMethod> sources = predecessors.get(target);
+        if (sources == null) return Collections.emptySet();
+
+        return Collections.unmodifiableSet(sources);
+    }
+
+    /**
+     * Returns a read-only live view of the methods called at callSite. The view reflects later changes to the graph: copy it before
+     * modifying the graph while iterating.
+     */
+    public Set<SootMethod> edgesOutOf(Unit callSite) {
+        Set<SootMethod> targets = callSiteTargets.get(callSite);
+        if (targets == null) return Collections.emptySet();
+
+        return Collections.unmodifiableSet(targets);
+    }
+
+    /**
+     * Returns a read-only live view of the call sites in method that have at least one edge. The view reflects later changes to the graph: copy it before
+     * modifying the graph while iterating.
+     */
+    public Set<Unit> callSitesIn(SootMethod method) {
+        Set<Unit> callSites = callSitesOf.get(method);
+        if (callSites == null) return Collections.emptySet();
+
+        return Collections.unmodifiableSet(callSites);
+    }
+
+    /**
+     * Returns a read-only live view of the call sites that have an edge to target. The view reflects later changes to the graph: copy it before
+     * modifying the graph while iterating.
+     */
+    public Set<Unit> callSitesInto(SootMethod target) {
+        Set<Unit> callSites = callSitesInto.get(target);
+        if (callSites == null) return Collections.emptySet();
+
+        return Collections.unmodifiableSet(callSites);
+    }
+
+    /**
+     * Streams the methods accepted by filter and the edges between them to writer, identified by signature.
+     */
+    public void export(GraphWriter writer, Predicate<SootMethod> filter) throws IOException {
+        for (SootMethod method : nodes) {
+            if (filter.test(method))
+                writer.node(method.getSignature(), method.getSignature());
+        }
+        for (Map.Entry<SootMethod, Set<SootMethod>> entry : successors.entrySet()) {
+            if (!filter.test(entry.getKey()))
+                continue;
+            for (SootMethod target : entry.getValue()) {
+                if (filter.test(target))
+                    writer.edge(entry.getKey().getSignature(), target.getSignature());
+            }
+        }
+    }
+
+    /**
+     * Accepts methods declared in one of the given packages or their subpackages.
+     */
+    public static Predicate<SootMethod> inPackages(String... packages) {
+        return method -> {
+            String packageName = method.getDeclaringClass().getPackageName();
+            for (String prefix : packages) {
+                if (packageName.equals(prefix) || packageName.startsWith(prefix) && packageName.charAt(prefix.length()) == '.')
+                    return true;
+            }
+            return false;
+        };
+    }
 
-        return edges.stream().filter(edge -> edge.target.equals(target))
-                .map(edge -> edge.source)
-                .collect(Collectors.toSet());
+    /**
+     * Freezes the current state into a {@link CompactCallGraph}. Later changes to this graph are not reflected.
+     */
+    public CompactCallGraph compact() {
+        return new CompactCallGraph(algorithm, nodes, successors);
     }
 }
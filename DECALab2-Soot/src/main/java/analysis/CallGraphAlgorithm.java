@@ -1,19 +1,113 @@
 package analysis;
 
 import soot.Scene;
+import soot.SootClass;
 import soot.SootMethod;
 
+import java.util.Collection;
+import java.util.Set;
 import java.util.stream.Stream;
 
 public abstract class CallGraphAlgorithm {
+    private DispatchCache dispatchCache;
+    private EntryPointIndex entryPointIndex;
+    private LibrarySummaries librarySummaries;
+    private int parallelism = 1;
+
     public CallGraph constructCallGraph(Scene scene) {
         CallGraph cg = new CallGraph(getAlgorithm());
         populateCallGraph(scene, cg);
         return cg;
     }
 
+    /**
+     * Brings cg, built by this algorithm for scene, up to date after changedClasses were added to, removed from
+     * or modified in the scene. Returns the updated graph, which may be cg itself.
+     * The default rebuilds the whole graph; algorithms that can confine the work to the affected methods override it.
+     */
+    public CallGraph updateCallGraph(Scene scene, CallGraph cg, Collection<SootClass> changedClasses) {
+        invalidateChangedClasses(scene, changedClasses);
+        return constructCallGraph(scene);
+    }
+
+    /**
+     * Releases the scene's hierarchies, re-indexes the entry points of changedClasses and drops the dispatch results
+     * they may affect. Returns the names of the types whose call sites may dispatch differently,
+     * see {@link DispatchCache#invalidate}.
+     */
+    protected Set<String> invalidateChangedClasses(Scene scene, Collection<SootClass> changedClasses) {
+        scene.releaseActiveHierarchy();
+        scene.releaseFastHierarchy();
+        getEntryPointIndex(scene).update(changedClasses);
+        return getDispatchCache(scene).invalidate(scene, changedClasses);
+    }
+
     protected Stream<SootMethod> getEntryPoints(Scene scene) {
-        return scene.getApplicationClasses().stream().flatMap(c -> c.getMethods().stream()).filter(m -> m.getName().contains("main") && m.hasActiveBody());
+        return getEntryPointIndex(scene).allEntryPoints().stream();
+    }
+
+    /**
+     * Returns the entry point index used by this algorithm, indexing the scene's main methods on first use.
+     */
+    protected EntryPointIndex getEntryPointIndex(Scene scene) {
+        if (entryPointIndex == null)
+            entryPointIndex = EntryPointIndex.mainMethods(scene);
+        return entryPointIndex;
+    }
+
+    /**
+     * Replaces the default main method entry points, e.g. with servlet handlers or test methods,
+     * or shares one index between algorithms.
+     */
+    public void setEntryPointIndex(EntryPointIndex entryPointIndex) {
+        this.entryPointIndex = entryPointIndex;
+    }
+
+    /**
+     * Returns the dispatch cache used by this algorithm, created for the scene's hierarchy on first use.
+     */
+    protected DispatchCache getDispatchCache(Scene scene) {
+        if (dispatchCache == null)
+            dispatchCache = new DispatchCache(new TypeHierarchy(scene));
+        return dispatchCache;
+    }
+
+    /**
+     * Lets this algorithm reuse dispatch results already computed by another algorithm on the same scene.
+     */
+    public void setDispatchCache(DispatchCache dispatchCache) {
+        this.dispatchCache = dispatchCache;
+    }
+
+    /**
+     * Makes algorithms that support it treat the summarized library methods as leaves: their bodies are not
+     * traversed, their callbacks and returned types are taken from the summaries instead. null, the default,
+     * traverses every body.
+     */
+    public void setLibrarySummaries(LibrarySummaries librarySummaries) {
+        this.librarySummaries = librarySummaries;
+    }
+
+    public LibrarySummaries getLibrarySummaries() {
+        return librarySummaries;
+    }
+
+    // Returns true if method is a library method whose body is replaced by its summary
+    protected boolean isSummarized(SootMethod method) {
+        return librarySummaries != null && librarySummaries.isSummarized(method);
+    }
+
+    /**
+     * Sets the number of worker threads algorithms with a parallel mode may use. 1, the default, runs sequentially.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    protected int getParallelism() {
+        return parallelism;
     }
 
     protected abstract void populateCallGraph(Scene scene, CallGraph cg);
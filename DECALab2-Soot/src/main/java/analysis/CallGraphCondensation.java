@@ -0,0 +1,204 @@
+package analysis;
+
+import soot.SootMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The strongly connected components of a call graph and the DAG between them.
+ * Components are numbered in reverse topological order: every callee component has a smaller number than its
+ * callers, so iterating from 0 upwards visits callees before callers. The DAG is stored in CSR form like
+ * {@link CompactCallGraph}.
+ */
+public class CallGraphCondensation {
+    private final CompactCallGraph graph;
+    private final int[] componentOf;
+    private final int[] memberOffsets;
+    private final int[] members;
+    private final int[] calleeOffsets;
+    private final int[] callees;
+    private final int[] callerOffsets;
+    private final int[] callers;
+    private final boolean[] recursive;
+    private final int criticalPathLength;
+
+    public CallGraphCondensation(CallGraph cg) {
+        this(cg.compact());
+    }
+
+    public CallGraphCondensation(CompactCallGraph graph) {
+        this.graph = graph;
+        int nodeCount = graph.nodeCount();
+        componentOf = new int[nodeCount];
+        int componentCount = findComponents();
+
+        memberOffsets = new int[componentCount + 1];
+        members = new int[nodeCount];
+        int[] componentEdgeSources = new int[graph.edgeCount()];
+        int[] componentEdgeTargets = new int[graph.edgeCount()];
+        recursive = new boolean[componentCount];
+        int edgeCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            memberOffsets[componentOf[node] + 1]++;
+            for (int i = 0; i < graph.outDegree(node); i++) {
+                int callee = graph.successor(node, i);
+                if (componentOf[callee] == componentOf[node]) {
+                    recursive[componentOf[node]] = true;
+                    continue;
+                }
+                componentEdgeSources[edgeCount] = componentOf[node];
+                componentEdgeTargets[edgeCount++] = componentOf[callee];
+            }
+        }
+        for (int c = 1; c <= componentCount; c++)
+            memberOffsets[c] += memberOffsets[c - 1];
+        int[] next = Arrays.copyOf(memberOffsets, componentCount);
+        for (int node = 0; node < nodeCount; node++)
+            members[next[componentOf[node]]++] = node;
+
+        calleeOffsets = new int[componentCount + 1];
+        callees = fillRows(componentEdgeSources, componentEdgeTargets, edgeCount, calleeOffsets);
+        callerOffsets = new int[componentCount + 1];
+        callers = fillRows(componentEdgeTargets, componentEdgeSources, edgeCount, callerOffsets);
+
+        int[] depth = new int[componentCount];
+        int longest = 0;
+        for (int c = 0; c < componentCount; c++) {
+            depth[c] = 1;
+            for (int i = calleeOffsets[c]; i < calleeOffsets[c + 1]; i++)
+                depth[c] = Math.max(depth[c], depth[callees[i]] + 1);
+            longest = Math.max(longest, depth[c]);
+        }
+        criticalPathLength = longest;
+    }
+
+    // Iterative Tarjan over the compact graph; fills componentOf and returns the number of components
+    private int findComponents() {
+        int nodeCount = graph.nodeCount();
+        int[] index = new int[nodeCount];
+        int[] lowLink = new int[nodeCount];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[nodeCount];
+        int[] stack = new int[nodeCount];
+        int stackSize = 0;
+        int[] callStack = new int[nodeCount];
+        int[] nextEdge = new int[nodeCount];
+        int nextIndex = 0;
+        int componentCount = 0;
+
+        for (int root = 0; root < nodeCount; root++) {
+            if (index[root] != -1)
+                continue;
+
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth > 0) {
+                int node = callStack[depth - 1];
+                if (nextEdge[node] < graph.outDegree(node)) {
+                    int callee = graph.successor(node, nextEdge[node]++);
+                    if (index[callee] == -1) {
+                        index[callee] = lowLink[callee] = nextIndex++;
+                        stack[stackSize++] = callee;
+                        onStack[callee] = true;
+                        callStack[depth++] = callee;
+                    } else if (onStack[callee]) {
+                        lowLink[node] = Math.min(lowLink[node], index[callee]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (lowLink[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        componentOf[member] = componentCount;
+                    } while (member != node);
+                    componentCount++;
+                }
+                if (depth > 0) {
+                    int caller = callStack[depth - 1];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+                }
+            }
+        }
+        return componentCount;
+    }
+
+    // Deduplicated CSR rows of the given (row, column) pairs
+    private static int[] fillRows(int[] rows, int[] columns, int count, int[] offsets) {
+        long[] pairs = new long[count];
+        for (int i = 0; i < count; i++)
+            pairs[i] = ((long) rows[i] << 32) | columns[i];
+        Arrays.sort(pairs);
+
+        int[] values = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && pairs[i] == pairs[i - 1])
+                continue;
+            offsets[(int) (pairs[i] >>> 32) + 1]++;
+            values[size++] = (int) pairs[i];
+        }
+        for (int i = 1; i < offsets.length; i++)
+            offsets[i] += offsets[i - 1];
+        return Arrays.copyOf(values, size);
+    }
+
+    public int componentCount() {
+        return memberOffsets.length - 1;
+    }
+
+    /**
+     * Returns the component of method, or -1 if it is not part of the call graph.
+     */
+    public int componentOf(SootMethod method) {
+        int id = graph.idOf(method);
+        return id == -1 ? -1 : componentOf[id];
+    }
+
+    public List<SootMethod> members(int component) {
+        List<SootMethod> result = new ArrayList<>(memberOffsets[component + 1] - memberOffsets[component]);
+        for (int i = memberOffsets[component]; i < memberOffsets[component + 1]; i++)
+            result.add(graph.methodAt(members[i]));
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns true if the component contains a call cycle, i.e. more than one method or a self call.
+     */
+    public boolean isRecursive(int component) {
+        return recursive[component];
+    }
+
+    public int calleeCount(int component) {
+        return calleeOffsets[component + 1] - calleeOffsets[component];
+    }
+
+    public int callee(int component, int index) {
+        return callees[calleeOffsets[component] + index];
+    }
+
+    public int callerCount(int component) {
+        return callerOffsets[component + 1] - callerOffsets[component];
+    }
+
+    public int caller(int component, int index) {
+        return callers[callerOffsets[component] + index];
+    }
+
+    /**
+     * Returns the number of components on the longest caller-to-callee chain of the DAG.
+     */
+    public int criticalPathLength() {
+        return criticalPathLength;
+    }
+}
@@ -0,0 +1,152 @@
+package analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Binary on-disk format for method-level call graphs.
+ * <p>
+ * Layout, all ints big-endian:
+ * <pre>
+ * magic, version, algorithm (length + UTF-8), classpath hash (length + bytes), nodeCount, edgeCount,
+ * signature blob length, padding to a multiple of 4,
+ * signature offsets [nodeCount + 1], out offsets [nodeCount + 1], out targets [edgeCount],
+ * in offsets [nodeCount + 1], in sources [edgeCount], signature blob
+ * </pre>
+ * Nodes are numbered in signature order and every CSR row is sorted, so a mapped file answers lookups
+ * by binary search without building anything on load.
+ */
+public final class CallGraphFile {
+    static final int MAGIC = 0x44434731; // "DCG1"
+    static final int VERSION = 1;
+
+    private CallGraphFile() {
+    }
+
+    public static void write(CallGraph cg, Path file, byte[] classpathHash) throws IOException {
+        write(cg.compact(), file, classpathHash);
+    }
+
+    public static void write(CompactCallGraph cg, Path file, byte[] classpathHash) throws IOException {
+        // the compact graph already numbers its nodes in signature order and sorts every row
+        int nodeCount = cg.nodeCount();
+        byte[][] signatures = new byte[nodeCount][];
+        int blobLength = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            signatures[i] = cg.methodAt(i).getSignature().getBytes(StandardCharsets.UTF_8);
+            blobLength += signatures[i].length;
+        }
+        byte[] algorithm = cg.algorithm.getBytes(StandardCharsets.UTF_8);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(algorithm.length);
+            out.write(algorithm);
+            out.writeInt(classpathHash.length);
+            out.write(classpathHash);
+            out.writeInt(nodeCount);
+            out.writeInt(cg.edgeCount());
+            out.writeInt(blobLength);
+            while (out.size() % 4 != 0)
+                out.writeByte(0);
+
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] signature : signatures) {
+                offset += signature.length;
+                out.writeInt(offset);
+            }
+            writeRows(out, cg, true);
+            writeRows(out, cg, false);
+            for (byte[] signature : signatures)
+                out.write(signature);
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, CompactCallGraph cg, boolean outgoing) throws IOException {
+        int offset = 0;
+        out.writeInt(offset);
+        for (int id = 0; id < cg.nodeCount(); id++) {
+            offset += outgoing ? cg.outDegree(id) : cg.inDegree(id);
+            out.writeInt(offset);
+        }
+        for (int id = 0; id < cg.nodeCount(); id++) {
+            int degree = outgoing ? cg.outDegree(id) : cg.inDegree(id);
+            for (int i = 0; i < degree; i++)
+                out.writeInt(outgoing ? cg.successor(id, i) : cg.predecessor(id, i));
+        }
+    }
+
+    /**
+     * Maps file into memory. Only the header is read; rows and signatures are read from the mapping on access.
+     */
+    public static MappedCallGraph load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+                throw new IOException(file + " is not a call graph file");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has version " + version + ", expected " + VERSION);
+            return new MappedCallGraph(buffer);
+        }
+    }
+
+    /**
+     * Returns a SHA-256 hash over the contents of every entry of a classpath string. Directories are hashed
+     * file by file in path order, so the hash changes whenever a class file is added, removed or modified.
+     */
+    public static byte[] hashClasspath(String classpath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        byte[] chunk = new byte[1 << 16];
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (entry.isEmpty())
+                continue;
+            Path root = Paths.get(entry);
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            if (!Files.exists(root))
+                continue;
+
+            List<Path> files;
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> walk = Files.walk(root)) {
+                    files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+            } else {
+                files = new ArrayList<>();
+                files.add(root);
+            }
+            for (Path path : files) {
+                digest.update(root.relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = Files.newInputStream(path)) {
+                    for (int read = in.read(chunk); read != -1; read = in.read(chunk))
+                        digest.update(chunk, 0, read);
+                }
+            }
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,51 @@
+package analysis;
+
+import soot.SootMethod;
+import soot.Unit;
+
+import java.util.Objects;
+
+/**
+ * An edge from a call site in caller to callee. callSite is null for edges that have no statement of their own,
+ * such as the callbacks of a summarized library method.
+ */
+public class CallSiteEdge {
+    public final SootMethod caller;
+    public final Unit callSite;
+    public final SootMethod callee;
+
+    public CallSiteEdge(SootMethod caller, Unit callSite, SootMethod callee) {
+        this.caller = caller;
+        this.callSite = callSite;
+        this.callee = callee;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CallSiteEdge edge = (CallSiteEdge) o;
+
+        if (!caller.equals(edge.caller)) return false;
+        if (!Objects.equals(callSite, edge.callSite)) return false;
+        return callee.equals(edge.callee);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = caller.hashCode();
+        result = 31 * result + Objects.hashCode(callSite);
+        result = 31 * result + callee.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "(" +
+                caller +
+                " @ " + callSite +
+                " --> " + callee +
+                ')';
+    }
+}
@@ -0,0 +1,206 @@
+package analysis;
+
+import soot.SootMethod;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only call graph in compressed-sparse-row form.
+ * Every method is numbered with a dense int; the successors of method i are
+ * stored in successorTargets[successorOffsets[i] .. successorOffsets[i + 1]), sorted ascending,
+ * and the predecessors likewise in the predecessor arrays. Methods are numbered in signature order, so the
+ * numbering and everything derived from it is the same in every run. Looking up the id of a method is a binary
+ * search over the methods' identity hash codes, kept sorted with their ids, that neither allocates nor unboxes.
+ * Obtain an instance through {@link CallGraph#compact()}.
+ */
+public class CompactCallGraph {
+    public final String algorithm;
+    private final SootMethod[] methods;
+    // identity hash codes in ascending order, and the id of the method each belongs to
+    private final int[] hashes;
+    private final int[] hashIds;
+    private final int[] successorOffsets;
+    private final int[] successorTargets;
+    private final int[] predecessorOffsets;
+    private final int[] predecessorSources;
+
+    CompactCallGraph(String algorithm, Collection<SootMethod> nodes, Map<SootMethod, Set<SootMethod>> successors) {
+        this.algorithm = algorithm;
+
+        this.methods = nodes.toArray(new SootMethod[0]);
+        Arrays.sort(methods, Comparator.comparing(SootMethod::getSignature));
+
+        // sort by identity hash, carrying the id in the low half
+        long[] order = new long[methods.length];
+        for (int id = 0; id < methods.length; id++)
+            order[id] = ((long) System.identityHashCode(methods[id]) << 32) | id;
+        Arrays.sort(order);
+        this.hashes = new int[methods.length];
+        this.hashIds = new int[methods.length];
+        for (int i = 0; i < order.length; i++) {
+            hashes[i] = (int) (order[i] >> 32);
+            hashIds[i] = (int) order[i];
+        }
+
+        int edgeCount = 0;
+        for (Set<SootMethod> targets : successors.values())
+            edgeCount += targets.size();
+        int[] edgeSources = new int[edgeCount];
+        int[] edgeTargets = new int[edgeCount];
+        int edge = 0;
+        for (Map.Entry<SootMethod, Set<SootMethod>> entry : successors.entrySet()) {
+            int source = idOf(entry.getKey());
+            for (SootMethod target : entry.getValue()) {
+                edgeSources[edge] = source;
+                edgeTargets[edge++] = idOf(target);
+            }
+        }
+
+        this.successorOffsets = new int[methods.length + 1];
+        this.successorTargets = new int[edgeSources.length];
+        fillRows(edgeSources, edgeTargets, successorOffsets, successorTargets);
+
+        this.predecessorOffsets = new int[methods.length + 1];
+        this.predecessorSources = new int[edgeSources.length];
+        fillRows(edgeTargets, edgeSources, predecessorOffsets, predecessorSources);
+    }
+
+    // Counting sort of (row, column) pairs into CSR arrays, each row sorted for binary search
+    private static void fillRows(int[] rows, int[] columns, int[] offsets, int[] values) {
+        for (int row : rows)
+            offsets[row + 1]++;
+        for (int i = 1; i < offsets.length; i++)
+            offsets[i] += offsets[i - 1];
+
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < rows.length; i++)
+            values[next[rows[i]]++] = columns[i];
+        for (int i = 0; i < offsets.length - 1; i++)
+            Arrays.sort(values, offsets[i], offsets[i + 1]);
+    }
+
+    public int nodeCount() {
+        return methods.length;
+    }
+
+    public int edgeCount() {
+        return successorTargets.length;
+    }
+
+    /**
+     * Returns the dense number of the method, or -1 if it is not part of the graph.
+     */
+    public int idOf(SootMethod method) {
+        int hash = System.identityHashCode(method);
+        int i = Arrays.binarySearch(hashes, hash);
+        if (i < 0)
+            return -1;
+        // identity hashes may collide, scan the run of equal hashes
+        while (i > 0 && hashes[i - 1] == hash)
+            i--;
+        for (; i < hashes.length && hashes[i] == hash; i++) {
+            if (methods[hashIds[i]] == method)
+                return hashIds[i];
+        }
+        return -1;
+    }
+
+    public SootMethod methodAt(int id) {
+        return methods[id];
+    }
+
+    public int outDegree(int id) {
+        return successorOffsets[id + 1] - successorOffsets[id];
+    }
+
+    public int successor(int id, int index) {
+        return successorTargets[successorOffsets[id] + index];
+    }
+
+    public int inDegree(int id) {
+        return predecessorOffsets[id + 1] - predecessorOffsets[id];
+    }
+
+    public int predecessor(int id, int index) {
+        return predecessorSources[predecessorOffsets[id] + index];
+    }
+
+    public boolean hasNode(SootMethod m) {
+        return idOf(m) >= 0;
+    }
+
+    public boolean hasEdge(SootMethod source, SootMethod target) {
+        int s = idOf(source);
+        int t = idOf(target);
+        return s >= 0 && t >= 0 && hasEdge(s, t);
+    }
+
+    public boolean hasEdge(int source, int target) {
+        return Arrays.binarySearch(successorTargets, successorOffsets[source], successorOffsets[source + 1], target) >= 0;
+    }
+
+    public Set<SootMethod> edgesOutOf(SootMethod origin) {
+        int id = idOf(origin);
+        if (id < 0) return Collections.emptySet();
+        return new RowView(successorOffsets[id], successorOffsets[id + 1], successorTargets);
+    }
+
+    public Set<SootMethod> edgesInto(SootMethod target) {
+        int id = idOf(target);
+        if (id < 0) return Collections.emptySet();
+        return new RowView(predecessorOffsets[id], predecessorOffsets[id + 1], predecessorSources);
+    }
+
+    /**
+     * Set view over one sorted CSR row, so queries do not copy the adjacency.
+     */
+    private class RowView extends AbstractSet<SootMethod> {
+        private final int from;
+        private final int to;
+        private final int[] values;
+
+        RowView(int from, int to, int[] values) {
+            this.from = from;
+            this.to = to;
+            this.values = values;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof SootMethod)) return false;
+            int id = idOf((SootMethod) o);
+            return id >= 0 && Arrays.binarySearch(values, from, to, id) >= 0;
+        }
+
+        @Override
+        public Iterator<SootMethod> iterator() {
+            return new Iterator<SootMethod>() {
+                private int next = from;
+
+                @Override
+                public boolean hasNext() {
+                    return next < to;
+                }
+
+                @Override
+                public SootMethod next() {
+                    if (next >= to) throw new NoSuchElementException();
+                    return methods[values[next++]];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package analysis;
+
+import soot.SootMethod;
+import soot.Unit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects call graph nodes and call-site edges from many threads without locking.
+ * Insertion only touches concurrent sets; the CallGraph itself is filled afterwards by {@link #buildInto},
+ * in an order that depends only on method signatures and statement positions, never on thread scheduling.
+ */
+public class ConcurrentCallGraphBuilder {
+    private final Set<SootMethod> nodes = ConcurrentHashMap.newKeySet();
+    private final Set<CallSiteEdge> edges = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Adds method and returns false if it was already present.
+     */
+    public boolean addNode(SootMethod method) {
+        return nodes.add(method);
+    }
+
+    /**
+     * Adds the edge and returns false if it was already present. Both methods are added as nodes.
+     * A null callSite adds a method-level edge only.
+     */
+    public boolean addEdge(SootMethod caller, Unit callSite, SootMethod callee) {
+        nodes.add(caller);
+        nodes.add(callee);
+        return edges.add(new CallSiteEdge(caller, callSite, callee));
+    }
+
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    public int edgeCount() {
+        return edges.size();
+    }
+
+    /**
+     * Adds all collected nodes and edges to cg, sorted by caller signature, call site position and callee signature.
+     * Must not run concurrently with insertions.
+     */
+    public void buildInto(CallGraph cg) {
+        List<SootMethod> sortedNodes = new ArrayList<>(nodes);
+        sortedNodes.sort(Comparator.comparing(SootMethod::getSignature));
+        for (SootMethod method : sortedNodes) {
+            if (!cg.hasNode(method))
+                cg.addNode(method);
+        }
+
+        Map<Unit, Integer> positions = new HashMap<>();
+        List<CallSiteEdge> sortedEdges = new ArrayList<>(edges);
+        sortedEdges.sort(Comparator.comparing((CallSiteEdge e) -> e.caller.getSignature())
+                .thenComparingInt(e -> position(e.caller, e.callSite, positions))
+                .thenComparing(e -> e.callee.getSignature()));
+        for (CallSiteEdge edge : sortedEdges) {
+            if (edge.callSite == null) {
+                if (!cg.hasEdge(edge.caller, edge.callee))
+                    cg.addEdge(edge.caller, edge.callee);
+            } else if (!cg.hasEdge(edge.caller, edge.callSite, edge.callee))
+                cg.addEdge(edge.caller, edge.callSite, edge.callee);
+        }
+    }
+
+    // Index of callSite in the body of caller, numbering a whole body on its first lookup
+    private static int position(SootMethod caller, Unit callSite, Map<Unit, Integer> positions) {
+        if (callSite == null)
+            return -1;
+        Integer position = positions.get(callSite);
+        if (position == null && caller.hasActiveBody()) {
+            int i = 0;
+            for (Unit unit : caller.getActiveBody().getUnits())
+                positions.put(unit, i++);
+            position = positions.get(callSite);
+        }
+        return position == null ? -1 : position;
+    }
+}
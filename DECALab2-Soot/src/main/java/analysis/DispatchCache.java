@@ -0,0 +1,258 @@
+package analysis;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.SpecialInvokeExpr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoizes virtual dispatch over the class hierarchy of one scene.
+ * Call targets are resolved once per (declared class, subsignature) pair, so algorithms
+ * visiting many call sites with the same declared target only pay for the hierarchy walk once.
+ * Subtype queries go to a frozen {@link TypeHierarchy}, which the algorithms share through this cache.
+ * The cache is safe to share between threads: lookups go through concurrent maps, and method resolution,
+ * which may mutate the scene, is serialized.
+ */
+public class DispatchCache {
+    private static final BitSet EMPTY = new BitSet();
+
+    private volatile TypeHierarchy hierarchy;
+    private final Map<SootClass, Set<SootClass>> concreteSubtypes = new ConcurrentHashMap<>();
+    private final Map<SootClass, Map<String, Set<SootMethod>>> virtualTargets = new ConcurrentHashMap<>();
+    // receivers without an implementation are cached as empty
+    private final Map<SootClass, Map<String, Optional<SootMethod>>> dispatchTargets = new ConcurrentHashMap<>();
+    private final Object resolutionLock = new Object();
+
+    public DispatchCache(TypeHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    public TypeHierarchy typeHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Drops every cached result that a change to changedClasses may affect and rebuilds the type hierarchy from
+     * the scene. Call after the classes were added to, removed from or modified in the scene.
+     * Must not run concurrently with lookups.
+     * <p>
+     * Returns the names of the affected types: the changed classes, their subtypes and all supertypes of those.
+     * These are exactly the declared classes whose call sites may dispatch differently now. Supertype links that
+     * were removed from a modified class are recovered from the cached subtype sets.
+     */
+    public Set<String> invalidate(Scene scene, Collection<SootClass> changedClasses) {
+        Set<String> changed = new HashSet<>();
+        for (SootClass cls : changedClasses)
+            changed.add(cls.getName());
+
+        Map<SootClass, Boolean> belowChanged = new HashMap<>();
+        Set<String> subtypes = new HashSet<>(changed);
+        List<SootClass> roots = new ArrayList<>(changedClasses);
+        for (SootClass cls : scene.getClasses()) {
+            if (isBelow(cls, changed, belowChanged)) {
+                subtypes.add(cls.getName());
+                roots.add(cls);
+            }
+        }
+
+        Set<String> affected = new HashSet<>(subtypes);
+        for (SootClass cls : roots)
+            addSupertypes(cls, affected);
+        concreteSubtypes.forEach((declaredClass, cached) -> {
+            for (SootClass subtype : cached) {
+                if (subtypes.contains(subtype.getName())) {
+                    affected.add(declaredClass.getName());
+                    break;
+                }
+            }
+        });
+
+        concreteSubtypes.keySet().removeIf(cls -> affected.contains(cls.getName()));
+        virtualTargets.keySet().removeIf(cls -> affected.contains(cls.getName()));
+        dispatchTargets.keySet().removeIf(cls -> affected.contains(cls.getName()));
+        hierarchy = new TypeHierarchy(scene);
+        return affected;
+    }
+
+    // Whether cls or one of its supertypes is named in changed, memoized per class
+    private static boolean isBelow(SootClass cls, Set<String> changed, Map<SootClass, Boolean> memo) {
+        Boolean below = memo.get(cls);
+        if (below != null)
+            return below;
+
+        below = changed.contains(cls.getName());
+        if (!below && cls.hasSuperclass())
+            below = isBelow(cls.getSuperclass(), changed, memo);
+        if (!below) {
+            for (SootClass iface : cls.getInterfaces()) {
+                if (isBelow(iface, changed, memo)) {
+                    below = true;
+                    break;
+                }
+            }
+        }
+        memo.put(cls, below);
+        return below;
+    }
+
+    private static void addSupertypes(SootClass cls, Set<String> result) {
+        Queue<SootClass> queue = new ArrayDeque<>();
+        Set<SootClass> visited = new HashSet<>();
+        queue.add(cls);
+        while (!queue.isEmpty()) {
+            SootClass current = queue.poll();
+            if (!visited.add(current))
+                continue;
+            result.add(current.getName());
+            if (current.hasSuperclass())
+                queue.add(current.getSuperclass());
+            queue.addAll(current.getInterfaces());
+        }
+    }
+
+    public static boolean isVirtualCall(InvokeExpr invokeExpr) {
+        return invokeExpr instanceof InstanceInvokeExpr && !(invokeExpr instanceof SpecialInvokeExpr);
+    }
+
+    /**
+     * Returns the CHA targets of a call: the invoked method itself and, for virtual and interface calls,
+     * every concrete implementation reachable through the subclass and implementer hierarchy.
+     */
+    public Set<SootMethod> targetsOf(InvokeExpr invokeExpr) {
+        SootMethod invokedMethod;
+        // resolving a method ref may add phantom methods to the scene
+        synchronized (resolutionLock) {
+            invokedMethod = invokeExpr.getMethod();
+        }
+        if (!isVirtualCall(invokeExpr))
+            return Collections.singleton(invokedMethod);
+
+        Set<SootMethod> targets = virtualTargets(invokeExpr.getMethodRef().getDeclaringClass(), invokedMethod.getSubSignature());
+        if (targets.contains(invokedMethod))
+            return targets;
+
+        Set<SootMethod> result = new HashSet<>(targets);
+        result.add(invokedMethod);
+        return result;
+    }
+
+    /**
+     * Returns the method declared for subSignature in declaredClass or its supertypes, together with
+     * all concrete implementations in subtypes of declaredClass.
+     */
+    public Set<SootMethod> virtualTargets(SootClass declaredClass, String subSignature) {
+        Map<String, Set<SootMethod>> bySignature = virtualTargets.computeIfAbsent(declaredClass, c -> new ConcurrentHashMap<>());
+        Set<SootMethod> targets = bySignature.get(subSignature);
+        if (targets != null)
+            return targets;
+
+        targets = new LinkedHashSet<>();
+        SootMethod declaredMethod = resolve(declaredClass, subSignature);
+        if (declaredMethod != null)
+            targets.add(declaredMethod);
+        for (SootClass subtype : concreteSubtypes(declaredClass)) {
+            SootMethod target = dispatch(subtype, subSignature);
+            if (target != null)
+                targets.add(target);
+        }
+
+        targets = Collections.unmodifiableSet(targets);
+        Set<SootMethod> raced = bySignature.putIfAbsent(subSignature, targets);
+        return raced != null ? raced : targets;
+    }
+
+    /**
+     * Returns all concrete classes that are declaredClass itself, a subclass of it or an implementer of it.
+     * {@link #concreteSubtypeIds} gives the same set as a bitset.
+     */
+    public Set<SootClass> concreteSubtypes(SootClass declaredClass) {
+        Set<SootClass> subtypes = concreteSubtypes.get(declaredClass);
+        if (subtypes != null)
+            return subtypes;
+
+        subtypes = hierarchy.typesOf(concreteSubtypeIds(declaredClass));
+        subtypes = Collections.unmodifiableSet(subtypes);
+        Set<SootClass> raced = concreteSubtypes.putIfAbsent(declaredClass, subtypes);
+        return raced != null ? raced : subtypes;
+    }
+
+    /**
+     * Returns the ids of {@link #concreteSubtypes} in the type hierarchy. The bitset is shared and must not be modified.
+     */
+    public BitSet concreteSubtypeIds(SootClass declaredClass) {
+        // phantom classes have no known subtypes
+        return declaredClass.isPhantom() ? EMPTY : hierarchy.concreteSubtypeIds(declaredClass);
+    }
+
+    /**
+     * Returns the method that a receiver of the concrete type receiverClass runs for subSignature,
+     * or null if no concrete implementation exists.
+     */
+    public SootMethod dispatch(SootClass receiverClass, String subSignature) {
+        Map<String, Optional<SootMethod>> bySignature = dispatchTargets.computeIfAbsent(receiverClass, c -> new ConcurrentHashMap<>());
+        Optional<SootMethod> cached = bySignature.get(subSignature);
+        if (cached != null)
+            return cached.orElse(null);
+
+        SootMethod target = null;
+        for (SootClass cls = receiverClass; cls != null; cls = cls.hasSuperclass() ? cls.getSuperclass() : null) {
+            SootMethod method = cls.getMethodUnsafe(subSignature);
+            if (method != null) {
+                target = method.isAbstract() ? null : method;
+                break;
+            }
+        }
+        if (target == null)
+            target = findInInterfaces(receiverClass, subSignature, true);
+
+        bySignature.put(subSignature, Optional.ofNullable(target));
+        return target;
+    }
+
+    // Resolves the method a call on declaredClass refers to, searching superclasses first and interfaces second
+    private SootMethod resolve(SootClass declaredClass, String subSignature) {
+        for (SootClass cls = declaredClass; cls != null; cls = cls.hasSuperclass() ? cls.getSuperclass() : null) {
+            SootMethod method = cls.getMethodUnsafe(subSignature);
+            if (method != null)
+                return method;
+        }
+        return findInInterfaces(declaredClass, subSignature, false);
+    }
+
+    private SootMethod findInInterfaces(SootClass cls, String subSignature, boolean concreteOnly) {
+        Queue<SootClass> queue = new ArrayDeque<>();
+        Set<SootClass> visited = new HashSet<>();
+        for (SootClass c = cls; c != null; c = c.hasSuperclass() ? c.getSuperclass() : null)
+            queue.addAll(c.getInterfaces());
+        if (cls.isInterface())
+            queue.add(cls);
+
+        while (!queue.isEmpty()) {
+            SootClass iface = queue.poll();
+            if (!visited.add(iface))
+                continue;
+            SootMethod method = iface.getMethodUnsafe(subSignature);
+            if (method != null && (!concreteOnly || !method.isAbstract()))
+                return method;
+            queue.addAll(iface.getInterfaces());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,136 @@
+package analysis;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.tagkit.AnnotationTag;
+import soot.tagkit.Tag;
+import soot.tagkit.VisibilityAnnotationTag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Entry points of the application classes of a scene, grouped by named patterns. All patterns are matched
+ * in a single pass over the application methods; only methods with an active body are indexed.
+ * <p>
+ * DECALab2-Soot, DECALab3 and DECALab4 are separate builds on different Soot versions, so each has its own copy
+ * of this class. The copies differ only in indentation: change all three together.
+ */
+public class EntryPointIndex {
+    /** public static void main(String[]) */
+    public static final Predicate<SootMethod> MAIN_METHOD = m -> m.isPublic() && m.isStatic()
+            && m.getSubSignature().equals("void main(java.lang.String[])");
+
+    /** doGet and doPost handlers of servlets, static ones included like the original doGet seeds. */
+    public static final Predicate<SootMethod> SERVLET_HANDLERS = m -> m.getName().equals("doGet") || m.getName().equals("doPost");
+
+    /** JUnit 4 and JUnit 5 test methods. */
+    public static final Predicate<SootMethod> TEST_METHODS = annotatedWith("org.junit.Test")
+            .or(annotatedWith("org.junit.jupiter.api.Test"));
+
+    private final Map<String, Predicate<SootMethod>> patterns;
+    private final Map<String, Set<SootMethod>> entryPoints = new LinkedHashMap<>();
+
+    /**
+     * Indexes the application classes of scene. patterns maps pattern names to the methods they accept.
+     */
+    public EntryPointIndex(Scene scene, Map<String, Predicate<SootMethod>> patterns) {
+        if (patterns.isEmpty())
+            throw new IllegalArgumentException("At least one entry point pattern is required");
+        this.patterns = new LinkedHashMap<>(patterns);
+        for (String name : patterns.keySet())
+            entryPoints.put(name, new LinkedHashSet<>());
+        for (SootClass cls : scene.getApplicationClasses())
+            index(cls);
+    }
+
+    /**
+     * Indexes the main methods of scene, the default entry points of call graph construction.
+     */
+    public static EntryPointIndex mainMethods(Scene scene) {
+        return new EntryPointIndex(scene, Collections.singletonMap("main", MAIN_METHOD));
+    }
+
+    public static Predicate<SootMethod> methodNamed(String... names) {
+        Set<String> nameSet = new HashSet<>(Arrays.asList(names));
+        return m -> nameSet.contains(m.getName());
+    }
+
+    /**
+     * Accepts methods carrying a runtime or class-retention annotation of the given fully qualified type.
+     */
+    public static Predicate<SootMethod> annotatedWith(String annotationType) {
+        String descriptor = "L" + annotationType.replace('.', '/') + ";";
+        return m -> {
+            for (Tag tag : m.getTags()) {
+                if (!(tag instanceof VisibilityAnnotationTag))
+                    continue;
+                List<AnnotationTag> annotations = ((VisibilityAnnotationTag) tag).getAnnotations();
+                if (annotations == null)
+                    continue;
+                for (AnnotationTag annotation : annotations) {
+                    if (annotation.getType().equals(descriptor))
+                        return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private void index(SootClass cls) {
+        for (SootMethod method : cls.getMethods()) {
+            if (!method.hasActiveBody())
+                continue;
+            for (Map.Entry<String, Predicate<SootMethod>> pattern : patterns.entrySet()) {
+                if (pattern.getValue().test(method))
+                    entryPoints.get(pattern.getKey()).add(method);
+            }
+        }
+    }
+
+    /**
+     * Re-indexes changedClasses after they were added to, removed from or modified in the scene.
+     */
+    public void update(Collection<SootClass> changedClasses) {
+        Set<String> changed = new HashSet<>();
+        for (SootClass cls : changedClasses)
+            changed.add(cls.getName());
+        for (Set<SootMethod> methods : entryPoints.values())
+            methods.removeIf(m -> !m.isDeclared() || changed.contains(m.getDeclaringClass().getName()));
+
+        for (SootClass cls : changedClasses) {
+            if (cls.isInScene() && cls.isApplicationClass())
+                index(cls);
+        }
+    }
+
+    /**
+     * Returns the methods matched by the named pattern, in scene order.
+     */
+    public Set<SootMethod> entryPoints(String pattern) {
+        Set<SootMethod> methods = entryPoints.get(pattern);
+        if (methods == null)
+            throw new IllegalArgumentException("Unknown entry point pattern: " + pattern);
+        return Collections.unmodifiableSet(methods);
+    }
+
+    /**
+     * Returns the methods matched by any pattern, each once.
+     */
+    public List<SootMethod> allEntryPoints() {
+        Set<SootMethod> all = new LinkedHashSet<>();
+        for (Set<SootMethod> methods : entryPoints.values())
+            all.addAll(methods);
+        return new ArrayList<>(all);
+    }
+}
@@ -0,0 +1,281 @@
+package analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams a directed graph to a channel as DOT, GraphML or an edge-list CSV.
+ * Characters are UTF-8 encoded and escaped straight into a fixed-size buffer, so memory use does not depend on
+ * the size of the graph. Nodes are identified by a character sequence or an int; CSV output lists edges only.
+ * {@link #finish()} writes the footer and flushes, the channel itself stays open.
+ */
+public class GraphWriter {
+    public enum Format {DOT, GRAPHML, CSV}
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] digits = new byte[10];
+    private int edgeCount;
+
+    public GraphWriter(WritableByteChannel channel, Format format, String graphName) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        switch (format) {
+            case DOT:
+                ascii("digraph \"");
+                quoted(graphName);
+                ascii("\" {\n");
+                break;
+            case GRAPHML:
+                ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                ascii("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+                ascii("  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n");
+                ascii("  <graph id=\"");
+                quoted(graphName);
+                ascii("\" edgedefault=\"directed\">\n");
+                break;
+            case CSV:
+                ascii("source,target\n");
+                break;
+        }
+    }
+
+    public void node(CharSequence id, CharSequence label) throws IOException {
+        switch (format) {
+            case DOT:
+                ascii("  \"");
+                quoted(id);
+                ascii("\" [label=\"");
+                quoted(label);
+                ascii("\"];\n");
+                break;
+            case GRAPHML:
+                ascii("    <node id=\"");
+                quoted(id);
+                ascii("\"><data key=\"label\">");
+                quoted(label);
+                ascii("</data></node>\n");
+                break;
+            case CSV:
+                break;
+        }
+    }
+
+    public void node(int id, CharSequence label) throws IOException {
+        switch (format) {
+            case DOT:
+                ascii("  ");
+                number(id);
+                ascii(" [label=\"");
+                quoted(label);
+                ascii("\"];\n");
+                break;
+            case GRAPHML:
+                ascii("    <node id=\"n");
+                number(id);
+                ascii("\"><data key=\"label\">");
+                quoted(label);
+                ascii("</data></node>\n");
+                break;
+            case CSV:
+                break;
+        }
+    }
+
+    public void edge(CharSequence source, CharSequence target) throws IOException {
+        switch (format) {
+            case DOT:
+                ascii("  \"");
+                quoted(source);
+                ascii("\" -> \"");
+                quoted(target);
+                ascii("\";\n");
+                break;
+            case GRAPHML:
+                ascii("    <edge id=\"e");
+                number(edgeCount);
+                ascii("\" source=\"");
+                quoted(source);
+                ascii("\" target=\"");
+                quoted(target);
+                ascii("\"/>\n");
+                break;
+            case CSV:
+                ascii("\"");
+                quoted(source);
+                ascii("\",\"");
+                quoted(target);
+                ascii("\"\n");
+                break;
+        }
+        edgeCount++;
+    }
+
+    public void edge(int source, int target) throws IOException {
+        switch (format) {
+            case DOT:
+                ascii("  ");
+                number(source);
+                ascii(" -> ");
+                number(target);
+                ascii(";\n");
+                break;
+            case GRAPHML:
+                ascii("    <edge id=\"e");
+                number(edgeCount);
+                ascii("\" source=\"n");
+                number(source);
+                ascii("\" target=\"n");
+                number(target);
+                ascii("\"/>\n");
+                break;
+            case CSV:
+                number(source);
+                ascii(",");
+                number(target);
+                ascii("\n");
+                break;
+        }
+        edgeCount++;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Writes the footer and flushes the buffer to the channel.
+     */
+    public void finish() throws IOException {
+        switch (format) {
+            case DOT:
+                ascii("}\n");
+                break;
+            case GRAPHML:
+                ascii("  </graph>\n</graphml>\n");
+                break;
+            case CSV:
+                break;
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+    }
+
+    // Markup, written unescaped
+    private void ascii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            ensure(1);
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private void number(int number) throws IOException {
+        ensure(digits.length + 1);
+        // widened so that negating Integer.MIN_VALUE does not overflow
+        long value = number;
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0)
+            buffer.put(digits[--length]);
+    }
+
+    // Text inside a quoted DOT string, an XML attribute or a quoted CSV field.
+    // Control characters XML does not allow are replaced by '?', line breaks are escaped in DOT.
+    private void quoted(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (format) {
+                case DOT:
+                    if (c == '"' || c == '\\') {
+                        ensure(1);
+                        buffer.put((byte) '\\');
+                    } else if (c == '\n') {
+                        ascii("\\n");
+                        continue;
+                    } else if (c == '\r') {
+                        ascii("\\r");
+                        continue;
+                    } else if (c < 0x20 && c != '\t') {
+                        ascii("?");
+                        continue;
+                    }
+                    break;
+                case GRAPHML:
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                        ascii("?");
+                        continue;
+                    } else if (c == '\t' || c == '\n' || c == '\r') {
+                        // attribute value normalization would turn them into spaces
+                        ascii("&#" + (int) c + ";");
+                        continue;
+                    } else if (c == '&') {
+                        ascii("&amp;");
+                        continue;
+                    } else if (c == '<') {
+                        ascii("&lt;");
+                        continue;
+                    } else if (c == '>') {
+                        ascii("&gt;");
+                        continue;
+                    } else if (c == '"') {
+                        ascii("&quot;");
+                        continue;
+                    }
+                    break;
+                case CSV:
+                    if (c == '"') {
+                        ensure(1);
+                        buffer.put((byte) '"');
+                    }
+                    break;
+            }
+
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                utf8(Character.toCodePoint(c, text.charAt(++i)));
+            } else {
+                utf8(Character.isSurrogate(c) ? '?' : c);
+            }
+        }
+    }
+
+    private void utf8(int codePoint) throws IOException {
+        ensure(4);
+        if (codePoint < 0x80) {
+            buffer.put((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            buffer.put((byte) (0xC0 | (codePoint >> 6)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (codePoint < 0x10000) {
+            buffer.put((byte) (0xE0 | (codePoint >> 12)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            buffer.put((byte) (0xF0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        }
+    }
+}
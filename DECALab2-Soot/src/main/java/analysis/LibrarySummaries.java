@@ -0,0 +1,569 @@
+package analysis;
+
+import soot.Body;
+import soot.G;
+import soot.Local;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.CastExpr;
+import soot.jimple.Constant;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.ThisRef;
+import soot.options.Options;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Summaries of library methods that call graph algorithms use instead of traversing the library bodies.
+ * <p>
+ * A summary lists the classes a method may return, whether it may also return values of unknown origin, which
+ * of its parameters flow to the return value, and the callbacks it may make: virtual calls on one of its
+ * parameters or on its receiver, which may dispatch back into application code. Summaries are transitive over
+ * calls within the library, resolved by their declared target. They are computed once from the library bodies,
+ * e.g. by running this class on rt.jar, and stored as a text table keyed by the library classpath hash.
+ * <p>
+ * Summaries are flow-insensitive and do not track values through fields or arrays: such values count as
+ * unknown, and calls on them are not reported as callbacks.
+ */
+public class LibrarySummaries {
+    private static final String HEADER = "# library summaries v1 ";
+
+    private final Map<String, Summary> summaries;
+    private final byte[] classpathHash;
+
+    private LibrarySummaries(Map<String, Summary> summaries, byte[] classpathHash) {
+        this.summaries = summaries;
+        this.classpathHash = classpathHash;
+    }
+
+    /**
+     * Returns the summary of method, or null if the method is not a summarized library method.
+     */
+    public Summary summaryOf(SootMethod method) {
+        return summaries.get(method.getSignature());
+    }
+
+    public boolean isSummarized(SootMethod method) {
+        return summaries.containsKey(method.getSignature());
+    }
+
+    public int size() {
+        return summaries.size();
+    }
+
+    public byte[] classpathHash() {
+        return classpathHash.clone();
+    }
+
+    /**
+     * Returns true if the summaries were computed for a library classpath with a different hash.
+     */
+    public boolean isStale(byte[] currentClasspathHash) {
+        return !Arrays.equals(classpathHash, currentClasspathHash);
+    }
+
+    /**
+     * Returns the CHA targets of the callbacks of a summarized method, dispatched on the declared classes of the
+     * callback calls.
+     */
+    public Set<SootMethod> callbackTargets(SootMethod method, Scene scene, DispatchCache dispatchCache) {
+        Summary summary = summaryOf(method);
+        if (summary == null)
+            return Collections.emptySet();
+        Set<SootMethod> targets = new LinkedHashSet<>();
+        for (Callback callback : summary.callbacks) {
+            SootClass declaredClass = scene.getSootClassUnsafe(callback.declaringClass, false);
+            if (declaredClass != null)
+                targets.addAll(dispatchCache.virtualTargets(declaredClass, callback.subSignature));
+        }
+        return targets;
+    }
+
+    /**
+     * Returns the classes a summarized method may return, adding its declared return class when it may also return
+     * a value of unknown origin or one of its parameters.
+     */
+    public Set<SootClass> returnedClasses(SootMethod method, Scene scene) {
+        Summary summary = summaryOf(method);
+        Set<SootClass> result = new HashSet<>();
+        if (summary == null)
+            return result;
+        for (String type : summary.returnedTypes) {
+            SootClass cls = scene.getSootClassUnsafe(type, false);
+            if (cls != null)
+                result.add(cls);
+        }
+        if ((summary.returnsUnknown || !summary.flowsToReturn.isEmpty()) && method.getReturnType() instanceof RefType)
+            result.add(((RefType) method.getReturnType()).getSootClass());
+        return result;
+    }
+
+    /**
+     * Summarizes every concrete method of the classes of scene accepted by isLibrary.
+     * Bodies that were not loaded before are released again once the method is summarized.
+     */
+    public static LibrarySummaries compute(Scene scene, Predicate<SootClass> isLibrary, byte[] classpathHash) {
+        Map<String, MethodFacts> facts = new HashMap<>();
+        for (SootClass cls : new ArrayList<>(scene.getClasses())) {
+            if (cls.isPhantom() || !isLibrary.test(cls))
+                continue;
+            for (SootMethod method : new ArrayList<>(cls.getMethods())) {
+                if (!method.isConcrete())
+                    continue;
+                boolean loaded = method.hasActiveBody();
+                Body body;
+                try {
+                    body = method.retrieveActiveBody();
+                } catch (RuntimeException e) {
+                    // bodies Soot cannot build are not summarized and stay opaque to the algorithms
+                    continue;
+                }
+                facts.put(method.getSignature(), new MethodFacts(body));
+                if (!loaded)
+                    method.releaseActiveBody();
+            }
+        }
+
+        // propagate callee summaries to their callers until nothing changes
+        Map<String, List<String>> callers = new HashMap<>();
+        for (Map.Entry<String, MethodFacts> entry : facts.entrySet()) {
+            for (CallFacts call : entry.getValue().calls) {
+                if (call.target != null)
+                    callers.computeIfAbsent(call.target, t -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        Queue<String> worklist = new ArrayDeque<>(facts.keySet());
+        Set<String> queued = new HashSet<>(facts.keySet());
+        while (!worklist.isEmpty()) {
+            String signature = worklist.poll();
+            queued.remove(signature);
+            if (facts.get(signature).applyCallees(facts)) {
+                for (String caller : callers.getOrDefault(signature, Collections.emptyList())) {
+                    if (queued.add(caller))
+                        worklist.add(caller);
+                }
+            }
+        }
+
+        Map<String, Summary> summaries = new HashMap<>(facts.size() * 2);
+        facts.forEach((signature, methodFacts) -> summaries.put(signature, methodFacts.summary));
+        return new LibrarySummaries(summaries, classpathHash.clone());
+    }
+
+    /**
+     * Loads the summaries cached in cacheFile if they were computed for libraryClasspath, otherwise computes
+     * them from scene and replaces the cache.
+     */
+    public static LibrarySummaries loadOrCompute(Path cacheFile, Scene scene, Predicate<SootClass> isLibrary,
+                                                 String libraryClasspath) throws IOException {
+        byte[] hash = CallGraphFile.hashClasspath(libraryClasspath);
+        if (Files.exists(cacheFile)) {
+            LibrarySummaries cached = load(cacheFile);
+            if (!cached.isStale(hash))
+                return cached;
+        }
+        LibrarySummaries computed = compute(scene, isLibrary, hash);
+        computed.write(cacheFile);
+        return computed;
+    }
+
+    /**
+     * Writes one tab-separated line per method, sorted by signature: signature, returned types, whether unknown
+     * values are returned, parameters flowing to the return value (-1 is the receiver) and callbacks as
+     * parameter|declaring class|subsignature.
+     */
+    public void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            for (byte b : classpathHash)
+                writer.write(String.format("%02x", b));
+            writer.newLine();
+            for (Map.Entry<String, Summary> entry : new TreeMap<>(summaries).entrySet()) {
+                Summary summary = entry.getValue();
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(String.join(";", new TreeSet<>(summary.returnedTypes)));
+                writer.write('\t');
+                writer.write(summary.returnsUnknown ? '1' : '0');
+                writer.write('\t');
+                List<String> flows = new ArrayList<>();
+                for (int slot = summary.flowsToReturn.nextSetBit(0); slot >= 0; slot = summary.flowsToReturn.nextSetBit(slot + 1))
+                    flows.add(Integer.toString(slot - 1));
+                writer.write(String.join(";", flows));
+                writer.write('\t');
+                List<String> callbacks = new ArrayList<>();
+                for (Callback callback : summary.callbacks)
+                    callbacks.add(callback.receiver + "|" + callback.declaringClass + "|" + callback.subSignature);
+                Collections.sort(callbacks);
+                writer.write(String.join(";", callbacks));
+                writer.newLine();
+            }
+        }
+    }
+
+    public static LibrarySummaries load(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(HEADER))
+                throw new IOException("Not a library summary file: " + file);
+            String hex = header.substring(HEADER.length());
+            byte[] hash = new byte[hex.length() / 2];
+            for (int i = 0; i < hash.length; i++)
+                hash[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+
+            Map<String, Summary> summaries = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5)
+                    throw new IOException("Malformed library summary: " + line);
+                Summary summary = new Summary();
+                for (String type : split(fields[1]))
+                    summary.returnedTypes.add(type);
+                summary.returnsUnknown = fields[2].equals("1");
+                for (String parameter : split(fields[3]))
+                    summary.flowsToReturn.set(Integer.parseInt(parameter) + 1);
+                for (String callback : split(fields[4])) {
+                    String[] parts = callback.split("\\|", -1);
+                    if (parts.length != 3)
+                        throw new IOException("Malformed callback: " + callback);
+                    summary.callbacks.add(new Callback(Integer.parseInt(parts[0]), parts[1], parts[2]));
+                }
+                summaries.put(fields[0], summary);
+            }
+            return new LibrarySummaries(summaries, hash);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IOException("Malformed library summary file: " + file, e);
+        }
+    }
+
+    private static List<String> split(String field) {
+        return field.isEmpty() ? Collections.emptyList() : Arrays.asList(field.split(";"));
+    }
+
+    /**
+     * Precomputes the summaries of a library once: LibrarySummaries &lt;library classpath&gt; &lt;output file&gt;,
+     * e.g. LibrarySummaries lib/rt.jar target/rt-summaries.tsv.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: LibrarySummaries <library classpath> <output file>");
+            System.exit(2);
+        }
+        String classpath = args[0];
+        G.reset();
+        Options.v().set_soot_classpath(classpath);
+        Options.v().set_process_dir(Arrays.asList(classpath.split(File.pathSeparator)));
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().set_prepend_classpath(false);
+        Options.v().set_output_format(Options.output_format_none);
+        Scene.v().loadNecessaryClasses();
+
+        long start = System.nanoTime();
+        LibrarySummaries summaries = compute(Scene.v(), cls -> true, CallGraphFile.hashClasspath(classpath));
+        summaries.write(Paths.get(args[1]));
+        System.out.printf("Summarized %d methods in %.1f s%n", summaries.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * A virtual call a library method makes on its receiver (-1) or one of its parameters.
+     */
+    public static final class Callback {
+        private final int receiver;
+        private final String declaringClass;
+        private final String subSignature;
+
+        public Callback(int receiver, String declaringClass, String subSignature) {
+            this.receiver = receiver;
+            this.declaringClass = declaringClass;
+            this.subSignature = subSignature;
+        }
+
+        /**
+         * Returns the index of the parameter the call is made on, or -1 for the receiver.
+         */
+        public int receiver() {
+            return receiver;
+        }
+
+        public String declaringClass() {
+            return declaringClass;
+        }
+
+        public String subSignature() {
+            return subSignature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Callback))
+                return false;
+            Callback other = (Callback) o;
+            return receiver == other.receiver && declaringClass.equals(other.declaringClass) && subSignature.equals(other.subSignature);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(receiver, declaringClass, subSignature);
+        }
+
+        @Override
+        public String toString() {
+            return (receiver == -1 ? "this" : "p" + receiver) + "." + declaringClass + ": " + subSignature;
+        }
+    }
+
+    /**
+     * The effects of one library method.
+     */
+    public static final class Summary {
+        private final Set<String> returnedTypes = new HashSet<>();
+        private boolean returnsUnknown;
+        // slot 0 is the receiver, slot i + 1 parameter i
+        private final BitSet flowsToReturn = new BitSet();
+        private final Set<Callback> callbacks = new HashSet<>();
+
+        /**
+         * Returns the names of the classes allocated in the library that the method may return.
+         */
+        public Set<String> returnedTypes() {
+            return Collections.unmodifiableSet(returnedTypes);
+        }
+
+        /**
+         * Returns true if the method may return a value read from a field, an array or an unsummarized call.
+         */
+        public boolean returnsUnknown() {
+            return returnsUnknown;
+        }
+
+        /**
+         * Returns true if the given parameter, or the receiver for -1, may be returned.
+         */
+        public boolean flowsToReturn(int parameter) {
+            return flowsToReturn.get(parameter + 1);
+        }
+
+        /**
+         * Returns the parameters that may be returned, -1 standing for the receiver.
+         */
+        public List<Integer> parametersFlowingToReturn() {
+            List<Integer> result = new ArrayList<>();
+            for (int slot = flowsToReturn.nextSetBit(0); slot >= 0; slot = flowsToReturn.nextSetBit(slot + 1))
+                result.add(slot - 1);
+            return result;
+        }
+
+        public Set<Callback> callbacks() {
+            return Collections.unmodifiableSet(callbacks);
+        }
+    }
+
+    // The intraprocedural facts of a method: its direct effects and the calls whose summaries it depends on
+    private static class MethodFacts {
+        final Summary summary = new Summary();
+        final List<CallFacts> calls = new ArrayList<>();
+
+        MethodFacts(Body body) {
+            Map<Local, Origins> origins = computeOrigins(body);
+            Map<Unit, Integer> callIndex = new HashMap<>();
+            for (Unit unit : body.getUnits()) {
+                Stmt stmt = (Stmt) unit;
+                if (!stmt.containsInvokeExpr())
+                    continue;
+                InvokeExpr invokeExpr = stmt.getInvokeExpr();
+                CallFacts call = new CallFacts(invokeExpr, origins);
+                callIndex.put(unit, calls.size());
+                calls.add(call);
+
+                if (DispatchCache.isVirtualCall(invokeExpr)) {
+                    BitSet receivers = call.argumentSlots[0];
+                    for (int slot = receivers.nextSetBit(0); slot >= 0; slot = receivers.nextSetBit(slot + 1))
+                        summary.callbacks.add(new Callback(slot - 1, invokeExpr.getMethodRef().getDeclaringClass().getName(),
+                                invokeExpr.getMethodRef().getSubSignature().getString()));
+                }
+            }
+
+            for (Unit unit : body.getUnits()) {
+                if (!(unit instanceof ReturnStmt))
+                    continue;
+                Value op = ((ReturnStmt) unit).getOp();
+                if (op instanceof StringConstant) {
+                    summary.returnedTypes.add("java.lang.String");
+                } else if (op instanceof Local) {
+                    Origins returned = origins.get(op);
+                    if (returned == null)
+                        continue;
+                    summary.returnedTypes.addAll(returned.allocated);
+                    summary.flowsToReturn.or(returned.slots);
+                    summary.returnsUnknown |= returned.unknown;
+                    for (Unit callSite : returned.calls)
+                        calls.get(callIndex.get(callSite)).resultReturned = true;
+                }
+            }
+        }
+
+        // Flow-insensitive origins of every local, iterated to a fixpoint over the definitions
+        private static Map<Local, Origins> computeOrigins(Body body) {
+            Map<Local, Origins> origins = new HashMap<>();
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Unit unit : body.getUnits()) {
+                    if (!(unit instanceof DefinitionStmt) || !(((DefinitionStmt) unit).getLeftOp() instanceof Local))
+                        continue;
+                    Origins lhs = origins.computeIfAbsent((Local) ((DefinitionStmt) unit).getLeftOp(), l -> new Origins());
+                    Value rhs = ((DefinitionStmt) unit).getRightOp();
+                    if (rhs instanceof CastExpr)
+                        rhs = ((CastExpr) rhs).getOp();
+
+                    if (rhs instanceof Local) {
+                        Origins source = origins.get(rhs);
+                        if (source != null)
+                            changed |= lhs.addAll(source);
+                    } else if (rhs instanceof ParameterRef) {
+                        changed |= lhs.addSlot(((ParameterRef) rhs).getIndex() + 1);
+                    } else if (rhs instanceof ThisRef) {
+                        changed |= lhs.addSlot(0);
+                    } else if (rhs instanceof NewExpr) {
+                        changed |= lhs.allocated.add(((NewExpr) rhs).getBaseType().getClassName());
+                    } else if (rhs instanceof InvokeExpr) {
+                        changed |= lhs.calls.add(unit);
+                    } else if (rhs instanceof StringConstant) {
+                        changed |= lhs.allocated.add("java.lang.String");
+                    } else if (!(rhs instanceof Constant) && !lhs.unknown) {
+                        lhs.unknown = true;
+                        changed = true;
+                    }
+                }
+            }
+            return origins;
+        }
+
+        // Adds the effects of the summarized callees and returns whether the summary grew
+        boolean applyCallees(Map<String, MethodFacts> facts) {
+            boolean changed = false;
+            for (CallFacts call : calls) {
+                MethodFacts callee = call.target == null ? null : facts.get(call.target);
+                if (callee == null) {
+                    if (call.resultReturned && !summary.returnsUnknown) {
+                        summary.returnsUnknown = true;
+                        changed = true;
+                    }
+                    continue;
+                }
+
+                Summary calleeSummary = callee.summary;
+                for (Callback callback : new ArrayList<>(calleeSummary.callbacks)) {
+                    BitSet slots = call.slotsOf(callback.receiver + 1);
+                    for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1))
+                        changed |= summary.callbacks.add(new Callback(slot - 1, callback.declaringClass, callback.subSignature));
+                }
+                if (!call.resultReturned)
+                    continue;
+                changed |= summary.returnedTypes.addAll(calleeSummary.returnedTypes);
+                if (calleeSummary.returnsUnknown && !summary.returnsUnknown) {
+                    summary.returnsUnknown = true;
+                    changed = true;
+                }
+                for (int slot = calleeSummary.flowsToReturn.nextSetBit(0); slot >= 0; slot = calleeSummary.flowsToReturn.nextSetBit(slot + 1)) {
+                    BitSet before = (BitSet) summary.flowsToReturn.clone();
+                    summary.flowsToReturn.or(call.slotsOf(slot));
+                    changed |= !before.equals(summary.flowsToReturn);
+                }
+            }
+            return changed;
+        }
+    }
+
+    // A call inside a library method: its resolved target and which caller slots reach its receiver and arguments
+    private static class CallFacts {
+        final String target;
+        // index 0 is the receiver, i + 1 argument i
+        final BitSet[] argumentSlots;
+        boolean resultReturned;
+
+        CallFacts(InvokeExpr invokeExpr, Map<Local, Origins> origins) {
+            SootMethod resolved = invokeExpr.getMethodRef().tryResolve();
+            target = resolved == null ? null : resolved.getSignature();
+            argumentSlots = new BitSet[invokeExpr.getArgCount() + 1];
+            argumentSlots[0] = invokeExpr instanceof InstanceInvokeExpr
+                    ? slotsOf(((InstanceInvokeExpr) invokeExpr).getBase(), origins) : new BitSet();
+            for (int i = 0; i < invokeExpr.getArgCount(); i++)
+                argumentSlots[i + 1] = slotsOf(invokeExpr.getArg(i), origins);
+        }
+
+        private static BitSet slotsOf(Value value, Map<Local, Origins> origins) {
+            Origins valueOrigins = value instanceof Local ? origins.get(value) : null;
+            return valueOrigins == null ? new BitSet() : valueOrigins.slots;
+        }
+
+        BitSet slotsOf(int calleeSlot) {
+            return calleeSlot < argumentSlots.length ? argumentSlots[calleeSlot] : new BitSet();
+        }
+    }
+
+    private static class Origins {
+        final BitSet slots = new BitSet();
+        final Set<String> allocated = new HashSet<>();
+        final Set<Unit> calls = new HashSet<>();
+        boolean unknown;
+
+        boolean addSlot(int slot) {
+            if (slots.get(slot))
+                return false;
+            slots.set(slot);
+            return true;
+        }
+
+        boolean addAll(Origins other) {
+            BitSet before = (BitSet) slots.clone();
+            slots.or(other.slots);
+            boolean changed = !before.equals(slots);
+            changed |= allocated.addAll(other.allocated);
+            changed |= calls.addAll(other.calls);
+            if (other.unknown && !unknown) {
+                unknown = true;
+                changed = true;
+            }
+            return changed;
+        }
+    }
+}
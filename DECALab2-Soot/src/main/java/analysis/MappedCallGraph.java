@@ -0,0 +1,184 @@
+package analysis;
+
+import soot.Scene;
+import soot.SootMethod;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only call graph over a memory-mapped {@link CallGraphFile}. Methods are identified by their
+ * signatures, so the graph can be queried without loading a Scene. Node ids follow signature order.
+ */
+public class MappedCallGraph {
+    public final String algorithm;
+    private final byte[] classpathHash;
+    private final int nodeCount;
+    private final int edgeCount;
+    private final IntBuffer signatureOffsets;
+    private final IntBuffer outOffsets;
+    private final IntBuffer outTargets;
+    private final IntBuffer inOffsets;
+    private final IntBuffer inSources;
+    private final ByteBuffer signatures;
+
+    // buffer is positioned right after the version
+    MappedCallGraph(ByteBuffer buffer) {
+        byte[] algorithmBytes = new byte[buffer.getInt()];
+        buffer.get(algorithmBytes);
+        algorithm = new String(algorithmBytes, StandardCharsets.UTF_8);
+        classpathHash = new byte[buffer.getInt()];
+        buffer.get(classpathHash);
+        nodeCount = buffer.getInt();
+        edgeCount = buffer.getInt();
+        int blobLength = buffer.getInt();
+        while (buffer.position() % 4 != 0)
+            buffer.get();
+
+        signatureOffsets = ints(buffer, nodeCount + 1);
+        outOffsets = ints(buffer, nodeCount + 1);
+        outTargets = ints(buffer, edgeCount);
+        inOffsets = ints(buffer, nodeCount + 1);
+        inSources = ints(buffer, edgeCount);
+        ByteBuffer blob = buffer.slice();
+        blob.limit(blobLength);
+        signatures = blob;
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int count) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return slice.asIntBuffer();
+    }
+
+    public byte[] classpathHash() {
+        return classpathHash.clone();
+    }
+
+    /**
+     * Returns true if the graph was written for a classpath with a different content hash.
+     */
+    public boolean isStale(byte[] currentClasspathHash) {
+        return !Arrays.equals(classpathHash, currentClasspathHash);
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public String signatureAt(int id) {
+        int start = signatureOffsets.get(id);
+        byte[] bytes = new byte[signatureOffsets.get(id + 1) - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = signatures.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the id of the method with the given signature, or -1 if the graph does not contain it.
+     */
+    public int idOf(String signature) {
+        byte[] key = signature.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = nodeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareSignature(mid, key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // Compares the stored signature of id with key in place, in the String order the signatures are sorted in
+    private int compareSignature(int id, byte[] key) {
+        int start = signatureOffsets.get(id);
+        int length = signatureOffsets.get(id + 1) - start;
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int stored = signatures.get(start + i) & 0xFF;
+            int wanted = key[i] & 0xFF;
+            if (stored != wanted)
+                return utf16Order(stored, wanted);
+        }
+        return length - key.length;
+    }
+
+    // UTF-8 bytes sort in code point order. String order differs only in that a supplementary character, a surrogate
+    // pair in UTF-16, sorts before U+E000..U+FFFF; characters from different ranges first differ in their lead bytes
+    private static int utf16Order(int stored, int wanted) {
+        if (stored >= 0xF0 && wanted >= 0xEE && wanted < 0xF0)
+            return -1;
+        if (wanted >= 0xF0 && stored >= 0xEE && stored < 0xF0)
+            return 1;
+        return stored - wanted;
+    }
+
+    public int outDegree(int id) {
+        return outOffsets.get(id + 1) - outOffsets.get(id);
+    }
+
+    public int successor(int id, int index) {
+        return outTargets.get(outOffsets.get(id) + index);
+    }
+
+    public int inDegree(int id) {
+        return inOffsets.get(id + 1) - inOffsets.get(id);
+    }
+
+    public int predecessor(int id, int index) {
+        return inSources.get(inOffsets.get(id) + index);
+    }
+
+    public boolean hasEdge(int source, int target) {
+        int low = outOffsets.get(source);
+        int high = outOffsets.get(source + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = outTargets.get(mid);
+            if (value < target)
+                low = mid + 1;
+            else if (value > target)
+                high = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    public boolean hasEdge(String source, String target) {
+        int sourceId = idOf(source);
+        int targetId = idOf(target);
+        return sourceId != -1 && targetId != -1 && hasEdge(sourceId, targetId);
+    }
+
+    /**
+     * Rebuilds a method-level CallGraph against the methods of scene. Call sites are not persisted.
+     * Throws IllegalStateException if a stored signature does not exist in the scene.
+     */
+    public CallGraph toCallGraph(Scene scene) {
+        SootMethod[] methods = new SootMethod[nodeCount];
+        CallGraph cg = new CallGraph(algorithm);
+        for (int id = 0; id < nodeCount; id++) {
+            methods[id] = scene.grabMethod(signatureAt(id));
+            if (methods[id] == null)
+                throw new IllegalStateException("Method " + signatureAt(id) + " is not in the scene, the call graph is stale");
+            cg.addNode(methods[id]);
+        }
+        for (int id = 0; id < nodeCount; id++) {
+            for (int i = 0; i < outDegree(id); i++)
+                cg.addEdge(methods[id], methods[successor(id, i)]);
+        }
+        return cg;
+    }
+}
@@ -0,0 +1,407 @@
+package analysis;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic Java programs to scale the analyses beyond the test fixtures.
+ * <p>
+ * The output is fully determined by the seed and the settings. Classes C0..Cn form a forest of complete
+ * trees of the given depth and fan-out below a common base class Node. Methods m0..m(d-1), d being the call
+ * depth, are declared by every tree root and overridden by subclasses with the override rate. Each method mj
+ * calls m(j+1) on receivers that were just allocated, read from a field typed by the root of the class's own
+ * tree, or typed by one of the interfaces I0..Ik; with the recursion rate a call goes back to a lower level and
+ * closes a cycle. Calls pass an int argument offset by a constant. Main.main and Main.entryPoint call m0 on an
+ * instance of every class. Each class TaintK has a servlet-style doGet that passes
+ * HttpServletRequest.getParameter through d methods to Statement.executeQuery; paths with an odd K overwrite
+ * the value on the way and do not leak.
+ */
+public class ProgramGenerator {
+    private static final int CALLS_PER_START_METHOD = 1000;
+
+    private final long seed;
+    private String packageName = "synthetic";
+    private int classCount = 100;
+    private int hierarchyDepth = 3;
+    private int fanOut = 3;
+    private int interfaceCount = 10;
+    private double implementationRate = 0.3;
+    private int callDepth = 5;
+    private int callsPerMethod = 2;
+    private int allocationsPerMethod = 2;
+    private int fieldsPerClass = 2;
+    private int fieldAccessesPerMethod = 2;
+    private double overrideRate = 1.0;
+    private double recursionRate = 0.0;
+    private int taintPaths = 0;
+
+    public ProgramGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public void setPackageName(String packageName) {
+        if (!packageName.matches("[a-z][a-z0-9_]*(\\.[a-z][a-z0-9_]*)*"))
+            throw new IllegalArgumentException("Not a package name: " + packageName);
+        this.packageName = packageName;
+    }
+
+    public void setClassCount(int classCount) {
+        this.classCount = atLeast(1, classCount, "Class count");
+    }
+
+    /**
+     * Sets the number of classes so that the program has about methodCount methods, given the current call depth
+     * and override rate.
+     */
+    public void setMethodCount(int methodCount) {
+        setClassCount((int) Math.max(1, Math.round(methodCount / (callDepth * overrideRate + 0.0001))));
+    }
+
+    /**
+     * Sets the number of levels of each inheritance tree, 1 meaning every class directly extends Node.
+     */
+    public void setHierarchyDepth(int hierarchyDepth) {
+        this.hierarchyDepth = atLeast(1, hierarchyDepth, "Hierarchy depth");
+    }
+
+    public void setFanOut(int fanOut) {
+        this.fanOut = atLeast(1, fanOut, "Fan-out");
+    }
+
+    public void setInterfaceCount(int interfaceCount) {
+        this.interfaceCount = atLeast(0, interfaceCount, "Interface count");
+    }
+
+    /**
+     * Sets the probability that a class implements one of the interfaces.
+     */
+    public void setImplementationRate(double implementationRate) {
+        this.implementationRate = probability(implementationRate, "Implementation rate");
+    }
+
+    /**
+     * Sets the number of methods per class and so the length of the longest call chain from Main.
+     */
+    public void setCallDepth(int callDepth) {
+        this.callDepth = atLeast(1, callDepth, "Call depth");
+    }
+
+    public void setCallsPerMethod(int callsPerMethod) {
+        this.callsPerMethod = atLeast(0, callsPerMethod, "Calls per method");
+    }
+
+    public void setAllocationsPerMethod(int allocationsPerMethod) {
+        this.allocationsPerMethod = atLeast(0, allocationsPerMethod, "Allocations per method");
+    }
+
+    public void setFieldsPerClass(int fieldsPerClass) {
+        this.fieldsPerClass = atLeast(0, fieldsPerClass, "Fields per class");
+    }
+
+    public void setFieldAccessesPerMethod(int fieldAccessesPerMethod) {
+        this.fieldAccessesPerMethod = atLeast(0, fieldAccessesPerMethod, "Field accesses per method");
+    }
+
+    /**
+     * Sets the probability that a subclass overrides a method of its superclass. Tree roots declare all methods.
+     */
+    public void setOverrideRate(double overrideRate) {
+        this.overrideRate = probability(overrideRate, "Override rate");
+    }
+
+    /**
+     * Sets the probability that a call targets the same or a lower level instead of the next one.
+     */
+    public void setRecursionRate(double recursionRate) {
+        this.recursionRate = probability(recursionRate, "Recursion rate");
+    }
+
+    public void setTaintPaths(int taintPaths) {
+        this.taintPaths = atLeast(0, taintPaths, "Taint paths");
+    }
+
+    private static int atLeast(int min, int value, String name) {
+        if (value < min)
+            throw new IllegalArgumentException(name + " must be at least " + min + ", was " + value);
+        return value;
+    }
+
+    private static double probability(double value, String name) {
+        if (value < 0 || value > 1)
+            throw new IllegalArgumentException(name + " must be between 0 and 1, was " + value);
+        return value;
+    }
+
+    /**
+     * Writes the sources below sourceDir, one file per class, and returns what was generated.
+     */
+    public Summary writeSources(Path sourceDir) throws IOException {
+        Random random = new Random(seed);
+        Path packageDir = sourceDir.resolve(packageName.replace('.', File.separatorChar));
+        Files.createDirectories(packageDir);
+
+        int[] parent = new int[classCount];
+        int[] root = new int[classCount];
+        buildForest(parent, root);
+        int[] treeEnd = new int[classCount];
+        for (int c = classCount - 1; c >= 0; c--)
+            treeEnd[c] = c + 1 < classCount && root[c + 1] == root[c] ? treeEnd[c + 1] : c + 1;
+        int[] implemented = new int[classCount];
+        List<List<Integer>> implementers = new ArrayList<>();
+        for (int i = 0; i < interfaceCount; i++)
+            implementers.add(new ArrayList<>());
+        for (int c = 0; c < classCount; c++) {
+            implemented[c] = interfaceCount > 0 && random.nextDouble() < implementationRate ? random.nextInt(interfaceCount) : -1;
+            if (implemented[c] != -1)
+                implementers.get(implemented[c]).add(c);
+        }
+
+        Summary summary = new Summary();
+        write(packageDir, "Node", node(), summary);
+        summary.methodCount += callDepth;
+        for (int i = 0; i < interfaceCount; i++)
+            write(packageDir, "I" + i, "public interface I" + i + " {\n    Object call" + i + "(Object v, int n);\n}\n", summary);
+        for (int c = 0; c < classCount; c++)
+            write(packageDir, "C" + c, classBody(c, parent, root, treeEnd, implemented, implementers, random, summary), summary);
+        write(packageDir, "Main", main(summary), summary);
+        if (taintPaths > 0) {
+            write(packageDir, "HttpServletRequest", "public class HttpServletRequest {\n"
+                    + "    public String getParameter(String name) {\n        return name;\n    }\n}\n", summary);
+            summary.methodCount++;
+            for (int k = 0; k < taintPaths; k++)
+                write(packageDir, "Taint" + k, taintPath(k, summary), summary);
+        }
+        return summary;
+    }
+
+    // Complete trees filled in breadth-first order; parent is -1 for classes directly below Node
+    private void buildForest(int[] parent, int[] root) {
+        int[] depth = new int[classCount];
+        int treeStart = 0;
+        int expanding = 0;
+        int children = 0;
+        for (int c = 0; c < classCount; c++) {
+            while (expanding < c && (depth[expanding] == hierarchyDepth - 1 || children == fanOut)) {
+                expanding++;
+                children = 0;
+            }
+            if (expanding == c) {
+                treeStart = c;
+                parent[c] = -1;
+                depth[c] = 0;
+                expanding = c;
+                children = 0;
+            } else {
+                parent[c] = expanding;
+                depth[c] = depth[expanding] + 1;
+                children++;
+            }
+            root[c] = treeStart;
+        }
+    }
+
+    private String node() {
+        StringBuilder out = new StringBuilder("public abstract class Node {\n");
+        for (int j = 0; j < callDepth; j++)
+            out.append("    public Object m").append(j).append("(Object v, int n) {\n        return v;\n    }\n");
+        return out.append("}\n").toString();
+    }
+
+    private String classBody(int c, int[] parent, int[] root, int[] treeEnd, int[] implemented, List<List<Integer>> implementers,
+                             Random random, Summary summary) {
+        StringBuilder out = new StringBuilder("public class C").append(c)
+                .append(" extends ").append(parent[c] == -1 ? "Node" : "C" + parent[c]);
+        if (implemented[c] != -1)
+            out.append(" implements I").append(implemented[c]);
+        out.append(" {\n");
+        for (int f = 0; f < fieldsPerClass; f++)
+            out.append("    public C").append(root[c]).append(" f").append(f).append(";\n");
+
+        for (int j = 0; j < callDepth; j++) {
+            if (parent[c] != -1 && random.nextDouble() >= overrideRate)
+                continue;
+            summary.methodCount++;
+            out.append("\n    public Object m").append(j).append("(Object v, int n) {\n");
+            List<String> receivers = new ArrayList<>();
+            receivers.add("this");
+            for (int a = 0; a < allocationsPerMethod; a++) {
+                int allocated = random.nextInt(classCount);
+                out.append("        C").append(root[allocated]).append(" a").append(a)
+                        .append(" = new C").append(allocated).append("();\n");
+                receivers.add("a" + a);
+                summary.allocationSiteCount++;
+            }
+            for (int f = 0; f < fieldAccessesPerMethod && fieldsPerClass > 0; f++) {
+                String field = "this.f" + random.nextInt(fieldsPerClass);
+                if (f % 2 == 0) {
+                    out.append("        ").append(field).append(" = new C").append(root[c] + random.nextInt(treeEnd[c] - root[c])).append("();\n");
+                    summary.allocationSiteCount++;
+                } else {
+                    out.append("        C").append(root[c]).append(" l").append(f).append(" = ").append(field).append(";\n");
+                    receivers.add("l" + f);
+                }
+            }
+            for (int k = 0; k < callsPerMethod; k++) {
+                int level = random.nextDouble() < recursionRate ? random.nextInt(j + 1) : j + 1;
+                if (level == callDepth)
+                    continue;
+                int t = interfaceCount > 0 ? random.nextInt(interfaceCount) : -1;
+                if (t != -1 && !implementers.get(t).isEmpty() && random.nextInt(callsPerMethod + 1) == 0) {
+                    int implementer = implementers.get(t).get(random.nextInt(implementers.get(t).size()));
+                    out.append("        I").append(t).append(" i").append(k).append(" = new C").append(implementer).append("();\n");
+                    out.append("        v = i").append(k).append(".call").append(t).append("(v, n + ").append(k).append(");\n");
+                    summary.allocationSiteCount++;
+                } else {
+                    out.append("        v = ").append(receivers.get(random.nextInt(receivers.size())))
+                            .append(".m").append(level).append("(v, n + ").append(random.nextInt(100)).append(");\n");
+                }
+                summary.callSiteCount++;
+            }
+            out.append("        return v;\n    }\n");
+        }
+
+        if (implemented[c] != -1) {
+            // calls the last level, so interface calls never close a cycle
+            summary.methodCount++;
+            summary.callSiteCount++;
+            out.append("\n    public Object call").append(implemented[c]).append("(Object v, int n) {\n        return m")
+                    .append(callDepth - 1).append("(v, n);\n    }\n");
+        }
+        return out.append("}\n").toString();
+    }
+
+    private String main(Summary summary) {
+        StringBuilder out = new StringBuilder("public class Main {\n");
+        out.append("    public static void main(String[] args) {\n");
+        int startMethods = (classCount + CALLS_PER_START_METHOD - 1) / CALLS_PER_START_METHOD;
+        for (int s = 0; s < startMethods; s++)
+            out.append("        start").append(s).append("();\n");
+        out.append("    }\n\n    public void entryPoint() {\n        main(new String[0]);\n    }\n");
+        summary.methodCount += 2 + startMethods;
+        summary.callSiteCount += startMethods + 1;
+
+        // the calls are split up to stay below the method size limit
+        for (int s = 0; s < startMethods; s++) {
+            out.append("\n    static void start").append(s).append("() {\n");
+            for (int c = s * CALLS_PER_START_METHOD; c < Math.min(classCount, (s + 1) * CALLS_PER_START_METHOD); c++) {
+                out.append("        new C").append(c).append("().m0(null, ").append(c).append(");\n");
+                summary.allocationSiteCount++;
+                summary.callSiteCount++;
+            }
+            out.append("    }\n");
+        }
+        return out.append("}\n").toString();
+    }
+
+    private String taintPath(int k, Summary summary) {
+        StringBuilder out = new StringBuilder();
+        out.append("import java.sql.Connection;\nimport java.sql.DriverManager;\nimport java.sql.Statement;\n\n");
+        out.append("public class Taint").append(k).append(" {\n");
+        out.append("    public void doGet(HttpServletRequest request) {\n");
+        out.append("        String value = request.getParameter(\"p").append(k).append("\");\n");
+        if (k % 2 == 1)
+            out.append("        value = \"constant\";\n");
+        out.append("        step1(value);\n    }\n");
+        for (int step = 1; step < callDepth; step++)
+            out.append("\n    private void step").append(step).append("(String value) {\n        step").append(step + 1).append("(value);\n    }\n");
+        out.append("\n    private void step").append(Math.max(1, callDepth)).append("(String value) {\n");
+        out.append("        try {\n");
+        out.append("            Connection conn = DriverManager.getConnection(\"url\", \"userName\", \"password\");\n");
+        out.append("            Statement st = conn.createStatement();\n");
+        out.append("            st.executeQuery(\"SELECT * FROM User where userId='\" + value + \"'\");\n");
+        out.append("        } catch (Exception e) {\n        }\n    }\n}\n");
+        summary.methodCount += 1 + callDepth;
+        summary.callSiteCount += 1 + callDepth;
+        summary.leakingTaintPaths += k % 2 == 0 ? 1 : 0;
+        return out.toString();
+    }
+
+    private void write(Path packageDir, String className, String body, Summary summary) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(packageDir.resolve(className + ".java"), StandardCharsets.UTF_8)) {
+            writer.write("package ");
+            writer.write(packageName);
+            writer.write(";\n\n");
+            writer.write(body);
+        }
+        summary.classCount++;
+    }
+
+    /**
+     * Compiles all sources below sourceDir into classDir with the system Java compiler, for Java 8 class files.
+     */
+    public static void compile(Path sourceDir, Path classDir) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("No system Java compiler, generated programs can only be compiled on a JDK");
+        Files.createDirectories(classDir);
+        List<File> sources;
+        try (Stream<Path> files = Files.walk(sourceDir)) {
+            sources = files.filter(p -> p.toString().endsWith(".java")).map(Path::toFile).collect(Collectors.toList());
+        }
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            List<String> options = Arrays.asList("-d", classDir.toString(), "-source", "1.8", "-target", "1.8",
+                    "-g", "-nowarn", "-Xlint:-options", "-proc:none");
+            if (!compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjectsFromFiles(sources)).call())
+                throw new IllegalStateException("Generated program in " + sourceDir + " does not compile");
+        }
+    }
+
+    /**
+     * Counts of what a call to {@link #writeSources} generated.
+     */
+    public static class Summary {
+        private int classCount;
+        private int methodCount;
+        private int callSiteCount;
+        private int allocationSiteCount;
+        private int leakingTaintPaths;
+
+        /**
+         * Returns the number of generated classes and interfaces.
+         */
+        public int classCount() {
+            return classCount;
+        }
+
+        /**
+         * Returns the number of declared methods with a body, constructors excluded.
+         */
+        public int methodCount() {
+            return methodCount;
+        }
+
+        /**
+         * Returns the number of calls to generated methods, constructors excluded.
+         */
+        public int callSiteCount() {
+            return callSiteCount;
+        }
+
+        public int allocationSiteCount() {
+            return allocationSiteCount;
+        }
+
+        public int leakingTaintPaths() {
+            return leakingTaintPaths;
+        }
+
+        @Override
+        public String toString() {
+            return classCount + " classes, " + methodCount + " methods, " + callSiteCount + " call sites, "
+                    + allocationSiteCount + " allocation sites, " + leakingTaintPaths + " leaking taint paths";
+        }
+    }
+}
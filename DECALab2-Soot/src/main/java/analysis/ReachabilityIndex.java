@@ -0,0 +1,318 @@
+package analysis;
+
+import soot.SootMethod;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Reachability queries over a frozen call graph.
+ * <p>
+ * Reachable sets are computed as bitsets over the method ids of the {@link CompactCallGraph}, and the set of each
+ * entry point is cached. Point queries between two methods use interval labels on the SCC condensation: every
+ * label is a post-order traversal of the DAG with randomized callee order, and the interval of a component spans
+ * the ranks of everything it reaches, so a target outside any interval of the source is unreachable. The first
+ * traversal also yields spanning tree intervals that prove reachability directly. Only queries that neither
+ * label decides fall back to a depth-first search, which skips every callee whose labels exclude the target.
+ */
+public class ReachabilityIndex {
+    private static final int DEFAULT_LABELS = 2;
+
+    private final CompactCallGraph graph;
+    private final CallGraphCondensation condensation;
+    private final int[][] rank;
+    private final int[][] low;
+    private final int[] treeLow;
+    private final Map<Integer, BitSet> reachableFromEntry = new ConcurrentHashMap<>();
+
+    public ReachabilityIndex(CallGraph cg) {
+        this(cg.compact(), DEFAULT_LABELS);
+    }
+
+    /**
+     * Builds labelCount interval labels; more labels answer more negative queries without a search.
+     */
+    public ReachabilityIndex(CompactCallGraph graph, int labelCount) {
+        if (labelCount < 1)
+            throw new IllegalArgumentException("At least one label is required, was " + labelCount);
+        this.graph = graph;
+        this.condensation = new CallGraphCondensation(graph);
+
+        int componentCount = condensation.componentCount();
+        rank = new int[labelCount][componentCount];
+        low = new int[labelCount][componentCount];
+        treeLow = new int[componentCount];
+        Random random = new Random(componentCount);
+        for (int label = 0; label < labelCount; label++)
+            labelTraversal(label, label == 0 ? null : random);
+    }
+
+    // Post-order ranks over the condensation, callees in natural order for the first label and shuffled for the others
+    private void labelTraversal(int label, Random random) {
+        int componentCount = condensation.componentCount();
+        int[] order = new int[componentCount];
+        for (int c = 0; c < componentCount; c++)
+            order[c] = c;
+        if (random != null)
+            shuffle(order, random);
+
+        boolean[] visited = new boolean[componentCount];
+        int[] stack = new int[componentCount];
+        int[] nextCallee = new int[componentCount];
+        int[][] calleeOrder = new int[componentCount][];
+        int nextRank = 0;
+
+        // roots in descending order, callers have larger numbers than their callees
+        for (int i = componentCount - 1; i >= 0; i--) {
+            int root = random == null ? i : order[i];
+            if (visited[root])
+                continue;
+
+            int depth = 0;
+            stack[depth++] = root;
+            visited[root] = true;
+            if (label == 0)
+                treeLow[root] = nextRank;
+            while (depth > 0) {
+                int c = stack[depth - 1];
+                if (calleeOrder[c] == null)
+                    calleeOrder[c] = callees(c, random);
+                if (nextCallee[c] < calleeOrder[c].length) {
+                    int callee = calleeOrder[c][nextCallee[c]++];
+                    if (!visited[callee]) {
+                        visited[callee] = true;
+                        if (label == 0)
+                            treeLow[callee] = nextRank;
+                        stack[depth++] = callee;
+                    }
+                    continue;
+                }
+
+                depth--;
+                rank[label][c] = nextRank++;
+                int min = rank[label][c];
+                for (int callee : calleeOrder[c])
+                    min = Math.min(min, low[label][callee]);
+                low[label][c] = min;
+            }
+        }
+    }
+
+    private int[] callees(int component, Random random) {
+        int[] callees = new int[condensation.calleeCount(component)];
+        for (int i = 0; i < callees.length; i++)
+            callees[i] = condensation.callee(component, i);
+        if (random != null)
+            shuffle(callees, random);
+        return callees;
+    }
+
+    private static void shuffle(int[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    public CompactCallGraph graph() {
+        return graph;
+    }
+
+    private int idOf(SootMethod method) {
+        int id = graph.idOf(method);
+        if (id == -1)
+            throw new IllegalArgumentException("Call graph does not contain method: " + method);
+        return id;
+    }
+
+    private int componentOf(SootMethod method) {
+        int component = condensation.componentOf(method);
+        if (component == -1)
+            throw new IllegalArgumentException("Call graph does not contain method: " + method);
+        return component;
+    }
+
+    /**
+     * Returns true if to is reachable from from through zero or more calls.
+     */
+    public boolean isReachable(SootMethod from, SootMethod to) {
+        return isComponentReachable(componentOf(from), componentOf(to));
+    }
+
+    private boolean isComponentReachable(int source, int target) {
+        if (source == target)
+            return true;
+        if (!labelsContain(source, target))
+            return false;
+        int sourceRank = rank[0][source];
+        if (treeLow[source] <= rank[0][target] && rank[0][target] <= sourceRank)
+            return true;
+
+        // search, pruned to the components whose labels may contain target
+        BitSet visited = new BitSet(condensation.componentCount());
+        int[] stack = new int[condensation.componentCount()];
+        int size = 0;
+        stack[size++] = source;
+        visited.set(source);
+        while (size > 0) {
+            int c = stack[--size];
+            for (int i = 0; i < condensation.calleeCount(c); i++) {
+                int callee = condensation.callee(c, i);
+                if (callee == target)
+                    return true;
+                if (!visited.get(callee) && labelsContain(callee, target)) {
+                    visited.set(callee);
+                    stack[size++] = callee;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean labelsContain(int source, int target) {
+        for (int label = 0; label < rank.length; label++) {
+            if (rank[label][target] < low[label][source] || rank[label][target] > rank[label][source])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ids of all methods reachable from the given methods, the methods included.
+     */
+    public BitSet forwardReachable(Collection<SootMethod> sources) {
+        return traverse(sources, true);
+    }
+
+    /**
+     * Returns the ids of all methods from which one of the given methods is reachable, the methods included.
+     */
+    public BitSet backwardReachable(Collection<SootMethod> targets) {
+        return traverse(targets, false);
+    }
+
+    private BitSet traverse(Collection<SootMethod> roots, boolean forward) {
+        BitSet visited = new BitSet(graph.nodeCount());
+        int[] queue = new int[graph.nodeCount()];
+        int head = 0;
+        int tail = 0;
+        for (SootMethod root : roots) {
+            int id = idOf(root);
+            if (!visited.get(id)) {
+                visited.set(id);
+                queue[tail++] = id;
+            }
+        }
+        while (head < tail) {
+            int id = queue[head++];
+            int degree = forward ? graph.outDegree(id) : graph.inDegree(id);
+            for (int i = 0; i < degree; i++) {
+                int next = forward ? graph.successor(id, i) : graph.predecessor(id, i);
+                if (!visited.get(next)) {
+                    visited.set(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Returns the ids reachable from entryPoint. The result is cached and must not be modified.
+     */
+    public BitSet reachableFrom(SootMethod entryPoint) {
+        return reachableFromEntry.computeIfAbsent(idOf(entryPoint), id -> forwardReachable(Collections.singleton(entryPoint)));
+    }
+
+    /**
+     * Returns true if method is reachable from at least one of entryPoints, using the cached entry point sets.
+     */
+    public boolean isReachableFromAny(Collection<SootMethod> entryPoints, SootMethod method) {
+        int id = idOf(method);
+        for (SootMethod entryPoint : entryPoints) {
+            if (reachableFrom(entryPoint).get(id))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the entry points from which sink is reachable, in the order given.
+     */
+    public Set<SootMethod> entryPointsReaching(Collection<SootMethod> entryPoints, SootMethod sink) {
+        BitSet reaching = backwardReachable(Collections.singleton(sink));
+        Set<SootMethod> result = new LinkedHashSet<>();
+        for (SootMethod entryPoint : entryPoints) {
+            if (reaching.get(idOf(entryPoint)))
+                result.add(entryPoint);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the methods whose ids are set in ids.
+     */
+    public List<SootMethod> methodsOf(BitSet ids) {
+        List<SootMethod> result = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+            result.add(graph.methodAt(id));
+        return result;
+    }
+
+    /**
+     * Answers isReachable(sources[i], targets[i]) for every i on parallelism threads.
+     */
+    public boolean[] areReachable(List<SootMethod> sources, List<SootMethod> targets, int parallelism) {
+        if (sources.size() != targets.size())
+            throw new IllegalArgumentException("Got " + sources.size() + " sources but " + targets.size() + " targets");
+        int[] sourceComponents = new int[sources.size()];
+        int[] targetComponents = new int[targets.size()];
+        for (int i = 0; i < sources.size(); i++) {
+            sourceComponents[i] = componentOf(sources.get(i));
+            targetComponents[i] = componentOf(targets.get(i));
+        }
+
+        boolean[] result = new boolean[sources.size()];
+        runParallel(parallelism, () -> IntStream.range(0, result.length).parallel()
+                .forEach(i -> result[i] = isComponentReachable(sourceComponents[i], targetComponents[i])));
+        return result;
+    }
+
+    /**
+     * Computes and caches the reachable sets of all entryPoints on parallelism threads.
+     */
+    public void precompute(Collection<SootMethod> entryPoints, int parallelism) {
+        List<SootMethod> pending = new ArrayList<>(entryPoints);
+        runParallel(parallelism, () -> pending.parallelStream().forEach(this::reachableFrom));
+    }
+
+    private static void runParallel(int parallelism, Runnable work) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // parallel streams started from a pool task run in that pool
+            pool.submit(work).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during reachability queries", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Reachability query failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package analysis;
+
+import soot.ArrayType;
+import soot.NullType;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.Type;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A frozen index of the class hierarchy of a scene.
+ * <p>
+ * Every class and interface gets a dense id, its position in a pre-order walk of the superclass tree, so the
+ * subclasses of a class occupy the id range from its own id to the last id of its subtree and subclass tests
+ * compare two ints. Interfaces additionally keep a bitset of all their subtypes, implementers of subinterfaces
+ * and subclasses of implementers included. Concrete subtype sets are bitsets over the ids and are shared
+ * between callers, so they can be intersected with other type sets directly.
+ * <p>
+ * Classes added to the scene after the index was built are unknown to it: subtype tests involving them walk
+ * their supertypes instead, and their subtype sets are empty. Rebuild the index after the scene changed.
+ */
+public class TypeHierarchy {
+    private final SootClass[] types;
+    private final Map<SootClass, Integer> ids;
+    private final int[] subtreeEnd;
+    private final BitSet concrete;
+    private final Map<SootClass, BitSet> interfaceSubtypes = new HashMap<>();
+    private final AtomicReferenceArray<BitSet> concreteSubtypes;
+
+    public TypeHierarchy(Scene scene) {
+        this(scene.getClasses());
+    }
+
+    public TypeHierarchy(Collection<SootClass> classes) {
+        int typeCount = classes.size();
+        Map<SootClass, List<SootClass>> subclasses = new HashMap<>();
+        List<SootClass> roots = new ArrayList<>();
+        Set<SootClass> known = new HashSet<>(classes);
+        for (SootClass cls : classes) {
+            if (cls.hasSuperclass() && known.contains(cls.getSuperclass()))
+                subclasses.computeIfAbsent(cls.getSuperclass(), c -> new ArrayList<>()).add(cls);
+            else
+                roots.add(cls);
+        }
+
+        // iterative pre-order walk, recording where each subtree ends
+        types = new SootClass[typeCount];
+        ids = new HashMap<>(typeCount * 2);
+        subtreeEnd = new int[typeCount];
+        int next = 0;
+        int[] stack = new int[typeCount];
+        int[] nextChild = new int[typeCount];
+        for (SootClass root : roots) {
+            int depth = 0;
+            stack[depth++] = number(root, next++);
+            while (depth > 0) {
+                int id = stack[depth - 1];
+                List<SootClass> children = subclasses.get(types[id]);
+                if (children != null && nextChild[id] < children.size()) {
+                    stack[depth++] = number(children.get(nextChild[id]++), next++);
+                    continue;
+                }
+                subtreeEnd[id] = next;
+                depth--;
+            }
+        }
+
+        concrete = new BitSet(typeCount);
+        for (int id = 0; id < typeCount; id++) {
+            if (types[id].isConcrete() && !types[id].isPhantom())
+                concrete.set(id);
+        }
+        buildInterfaceSubtypes();
+        concreteSubtypes = new AtomicReferenceArray<>(typeCount);
+    }
+
+    private int number(SootClass cls, int id) {
+        types[id] = cls;
+        ids.put(cls, id);
+        return id;
+    }
+
+    // Adds every type to the sets of all interfaces it implements, directly or through its supertypes
+    private void buildInterfaceSubtypes() {
+        for (SootClass type : types) {
+            if (type.isInterface())
+                interfaceSubtypes.put(type, new BitSet(types.length));
+        }
+        Map<SootClass, Set<SootClass>> superInterfaces = new HashMap<>();
+        for (int id = 0; id < types.length; id++) {
+            for (SootClass iface : superInterfaces(types[id], superInterfaces)) {
+                BitSet subtypes = interfaceSubtypes.get(iface);
+                if (subtypes != null)
+                    subtypes.set(id);
+            }
+        }
+    }
+
+    // All interfaces type is a subtype of, type itself included if it is one; memoized
+    private static Set<SootClass> superInterfaces(SootClass type, Map<SootClass, Set<SootClass>> memo) {
+        Set<SootClass> result = memo.get(type);
+        if (result != null)
+            return result;
+
+        result = new HashSet<>();
+        if (type.isInterface())
+            result.add(type);
+        if (type.hasSuperclass())
+            result.addAll(superInterfaces(type.getSuperclass(), memo));
+        for (SootClass iface : type.getInterfaces())
+            result.addAll(superInterfaces(iface, memo));
+        memo.put(type, result);
+        return result;
+    }
+
+    public int typeCount() {
+        return types.length;
+    }
+
+    /**
+     * Returns the id of type, or -1 if the type was not in the scene when the index was built.
+     */
+    public int idOf(SootClass type) {
+        Integer id = ids.get(type);
+        return id == null ? -1 : id;
+    }
+
+    public SootClass typeAt(int id) {
+        return types[id];
+    }
+
+    /**
+     * Returns true if sub is supertype itself, a subclass of it or, for an interface, one of its subtypes.
+     */
+    public boolean isSubtype(SootClass sub, SootClass supertype) {
+        if (sub == supertype)
+            return true;
+        int subId = idOf(sub);
+        int superId = idOf(supertype);
+        if (subId == -1 || superId == -1)
+            return isSubtypeUnindexed(sub, supertype);
+        if (supertype.isInterface())
+            return interfaceSubtypes.get(supertype).get(subId);
+        return superId <= subId && subId < subtreeEnd[superId];
+    }
+
+    private static boolean isSubtypeUnindexed(SootClass sub, SootClass supertype) {
+        Queue<SootClass> queue = new ArrayDeque<>();
+        Set<SootClass> visited = new HashSet<>();
+        queue.add(sub);
+        while (!queue.isEmpty()) {
+            SootClass current = queue.poll();
+            if (current == supertype)
+                return true;
+            if (!visited.add(current))
+                continue;
+            if (current.hasSuperclass())
+                queue.add(current.getSuperclass());
+            queue.addAll(current.getInterfaces());
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a value of type child may be stored in a variable of type parent, following the same
+     * rules as {@link soot.FastHierarchy#canStoreType}.
+     */
+    public boolean canStoreType(Type child, Type parent) {
+        if (child.equals(parent))
+            return true;
+        if (parent instanceof NullType)
+            return false;
+        if (child instanceof NullType)
+            return parent instanceof RefLikeType;
+        if (child instanceof RefType) {
+            return parent instanceof RefType
+                    && (isObject(parent) || isSubtype(((RefType) child).getSootClass(), ((RefType) parent).getSootClass()));
+        }
+        if (!(child instanceof ArrayType))
+            return false;
+
+        ArrayType childArray = (ArrayType) child;
+        if (parent instanceof RefType)
+            return isArraySupertype(parent);
+        if (!(parent instanceof ArrayType))
+            return false;
+        ArrayType parentArray = (ArrayType) parent;
+        if (childArray.numDimensions == parentArray.numDimensions) {
+            return childArray.baseType.equals(parentArray.baseType)
+                    || childArray.baseType instanceof RefType && parentArray.baseType instanceof RefType
+                    && canStoreType(childArray.baseType, parentArray.baseType);
+        }
+        return childArray.numDimensions > parentArray.numDimensions && isArraySupertype(parentArray.baseType);
+    }
+
+    private static boolean isObject(Type type) {
+        return ((RefType) type).getClassName().equals("java.lang.Object");
+    }
+
+    // Object, Cloneable and Serializable are the only class types an array can be stored in
+    private static boolean isArraySupertype(Type type) {
+        if (!(type instanceof RefType))
+            return false;
+        String name = ((RefType) type).getClassName();
+        return name.equals("java.lang.Object") || name.equals("java.lang.Cloneable") || name.equals("java.io.Serializable");
+    }
+
+    /**
+     * Returns the ids of all concrete, non-phantom types that are type itself, a subclass of it or an implementer
+     * of it. The bitset is shared and must not be modified; it is empty for types unknown to the index.
+     */
+    public BitSet concreteSubtypeIds(SootClass type) {
+        int id = idOf(type);
+        if (id == -1)
+            return new BitSet();
+        BitSet subtypes = concreteSubtypes.get(id);
+        if (subtypes != null)
+            return subtypes;
+
+        if (type.isInterface()) {
+            subtypes = (BitSet) interfaceSubtypes.get(type).clone();
+        } else {
+            subtypes = new BitSet(subtreeEnd[id]);
+            subtypes.set(id, subtreeEnd[id]);
+        }
+        subtypes.and(concrete);
+        // racing threads compute equal sets, keep the first
+        return concreteSubtypes.compareAndSet(id, null, subtypes) ? subtypes : concreteSubtypes.get(id);
+    }
+
+    /**
+     * Returns the classes implementing iface directly, through a subinterface or through a superclass,
+     * abstract classes included.
+     */
+    public Set<SootClass> implementersOf(SootClass iface) {
+        if (!iface.isInterface())
+            throw new IllegalArgumentException("Not an interface: " + iface);
+        BitSet subtypes = interfaceSubtypes.get(iface);
+        Set<SootClass> result = new LinkedHashSet<>();
+        if (subtypes == null)
+            return result;
+        for (int id = subtypes.nextSetBit(0); id >= 0; id = subtypes.nextSetBit(id + 1)) {
+            if (!types[id].isInterface())
+                result.add(types[id]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the types whose ids are set in ids, in id order.
+     */
+    public Set<SootClass> typesOf(BitSet ids) {
+        Set<SootClass> result = new LinkedHashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+            result.add(types[id]);
+        return result;
+    }
+}
@@ -2,10 +2,20 @@ package analysis.exercise1;
 
 import analysis.CallGraph;
 import analysis.CallGraphAlgorithm;
-import analysis.Helper;
+import analysis.ConcurrentCallGraphBuilder;
+import analysis.DispatchCache;
+import analysis.LibrarySummaries;
 import soot.*;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class CHAAlgorithm extends CallGraphAlgorithm {
@@ -17,45 +27,263 @@ public class CHAAlgorithm extends CallGraphAlgorithm {
 
     @Override
     protected void populateCallGraph(Scene scene, CallGraph cg) {
-        soot.Hierarchy hierarchy = scene.getActiveHierarchy();
+        if (getParallelism() > 1) {
+            populateInParallel(scene, cg);
+            return;
+        }
+
+        DispatchCache dispatchCache = this.getDispatchCache(scene);
+        Set<SootMethod> visited = new HashSet<>();
+        Queue<SootMethod> queue = new ArrayDeque<>();
         for (SootMethod rootMethod : this.getEntryPoints(scene).collect(Collectors.toList())) {
-            Queue<SootMethod> queue = new ArrayDeque<>();
-            queue.add(rootMethod);
-            cg.addNode(rootMethod);
+            if (!cg.hasNode(rootMethod))
+                cg.addNode(rootMethod);
+            if (visited.add(rootMethod))
+                queue.add(rootMethod);
+        }
+
+        visitReachable(scene, cg, dispatchCache, queue, visited);
+    }
+
+    /**
+     * Updates cg in place. Methods of changed classes and methods with a call site declared on an affected type
+     * (see {@link DispatchCache#invalidate}) are rescanned, together with whatever they newly reach. Methods that
+     * are no longer in the scene are dropped, as is everything no longer reachable from an entry point.
+     * Summarized library methods are rescanned when one of their callbacks is declared on an affected type.
+     */
+    @Override
+    public CallGraph updateCallGraph(Scene scene, CallGraph cg, Collection<SootClass> changedClasses) {
+        Set<String> changed = changedClasses.stream().map(SootClass::getName).collect(Collectors.toSet());
+        Set<String> affectedTypes = this.invalidateChangedClasses(scene, changedClasses);
+        DispatchCache dispatchCache = this.getDispatchCache(scene);
+
+        Set<SootMethod> removed = new HashSet<>();
+        Set<SootMethod> dirty = new LinkedHashSet<>();
+        for (SootMethod method : cg.nodes()) {
+            if (!method.isDeclared() || !method.getDeclaringClass().isInScene())
+                removed.add(method);
+            else if (changed.contains(method.getDeclaringClass().getName()) || callsIntoAffected(cg, method, affectedTypes)
+                    || callbacksIntoAffected(method, affectedTypes))
+                dirty.add(method);
+        }
+
+        boolean lostEdges = false;
+        for (SootMethod method : removed) {
+            for (SootMethod caller : cg.edgesInto(method)) {
+                if (!removed.contains(caller))
+                    dirty.add(caller);
+            }
+        }
+        for (SootMethod method : removed) {
+            lostEdges |= !cg.edgesOutOf(method).isEmpty();
+            cg.removeNode(method);
+        }
+        for (SootMethod method : dirty) {
+            lostEdges |= !cg.edgesOutOf(method).isEmpty();
+            cg.removeEdgesOutOf(method);
+        }
+
+        Set<SootMethod> visited = new HashSet<>(cg.nodes());
+        Queue<SootMethod> queue = new ArrayDeque<>(dirty);
+        for (SootMethod rootMethod : this.getEntryPoints(scene).collect(Collectors.toList())) {
+            if (!cg.hasNode(rootMethod))
+                cg.addNode(rootMethod);
+            if (visited.add(rootMethod))
+                queue.add(rootMethod);
+        }
+        visitReachable(scene, cg, dispatchCache, queue, visited);
 
-            while (!queue.isEmpty()) {
-                SootMethod srcMethod = queue.poll();
+        if (lostEdges)
+            removeUnreachable(scene, cg);
+        return cg;
+    }
+
+    private static boolean callsIntoAffected(CallGraph cg, SootMethod method, Set<String> affectedTypes) {
+        for (Unit callSite : cg.callSitesIn(method)) {
+            InvokeExpr invokeExpr = ((Stmt) callSite).getInvokeExpr();
+            if (affectedTypes.contains(invokeExpr.getMethodRef().getDeclaringClass().getName()))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean callbacksIntoAffected(SootMethod method, Set<String> affectedTypes) {
+        if (!isSummarized(method))
+            return false;
+        for (LibrarySummaries.Callback callback : getLibrarySummaries().summaryOf(method).callbacks()) {
+            if (affectedTypes.contains(callback.declaringClass()))
+                return true;
+        }
+        return false;
+    }
+
+    // Adds the edges of every queued method, queueing callees that are not yet in visited.
+    // Summarized library methods get edges to their callback targets instead of having their bodies scanned.
+    private void visitReachable(Scene scene, CallGraph cg, DispatchCache dispatchCache, Queue<SootMethod> queue, Set<SootMethod> visited) {
+        while (!queue.isEmpty()) {
+            SootMethod srcMethod = queue.poll();
+
+            if (isSummarized(srcMethod)) {
+                for (SootMethod method : getLibrarySummaries().callbackTargets(srcMethod, scene, dispatchCache)) {
+                    if (!cg.hasNode(method))
+                        cg.addNode(method);
 
-                if (!srcMethod.hasActiveBody())
+                    if (!cg.hasEdge(srcMethod, method))
+                        cg.addEdge(srcMethod, method);
+                    if (visited.add(method))
+                        queue.add(method);
+                }
+                continue;
+            }
+
+            if (!srcMethod.hasActiveBody())
+                continue;
+
+            Body body = srcMethod.getActiveBody();
+            for (Unit unit : body.getUnits()) {
+                Stmt stmt = (Stmt) unit;
+                if (!stmt.containsInvokeExpr())
                     continue;
 
-                Body body = srcMethod.getActiveBody();
-                for (Unit unit : body.getUnits()) {
-                    SootMethod targetMethod = Helper.methodInUnit(unit);
-                    if (targetMethod == null)
+                for (SootMethod method : dispatchCache.targetsOf(stmt.getInvokeExpr())) {
+                    if (!cg.hasNode(method))
+                        cg.addNode(method);
+
+                    cg.addEdge(srcMethod, unit, method);
+                    if (visited.add(method))
+                        queue.add(method);
+                }
+            }
+        }
+    }
+
+    private void removeUnreachable(Scene scene, CallGraph cg) {
+        Set<SootMethod> reachable = new HashSet<>();
+        Queue<SootMethod> queue = new ArrayDeque<>();
+        for (SootMethod rootMethod : this.getEntryPoints(scene).collect(Collectors.toList())) {
+            if (reachable.add(rootMethod))
+                queue.add(rootMethod);
+        }
+        while (!queue.isEmpty()) {
+            for (SootMethod callee : cg.edgesOutOf(queue.poll())) {
+                if (reachable.add(callee))
+                    queue.add(callee);
+            }
+        }
+
+        List<SootMethod> unreachable = cg.nodes().stream().filter(m -> !reachable.contains(m)).collect(Collectors.toList());
+        for (SootMethod method : unreachable)
+            cg.removeNode(method);
+    }
+
+    /**
+     * Visits every reachable method as a fork/join task, each forking the tasks of the callees it reaches first.
+     * Edges are collected concurrently and added to cg in a deterministic order once every task has finished.
+     */
+    private void populateInParallel(Scene scene, CallGraph cg) {
+        ParallelVisit visit = new ParallelVisit(scene, this.getDispatchCache(scene), getLibrarySummaries());
+
+        ForkJoinPool pool = new ForkJoinPool(getParallelism());
+        try {
+            for (SootMethod rootMethod : this.getEntryPoints(scene).collect(Collectors.toList())) {
+                visit.builder.addNode(rootMethod);
+                if (visit.visited.add(rootMethod)) {
+                    visit.pending.incrementAndGet();
+                    pool.execute(new VisitMethod(rootMethod, visit));
+                }
+            }
+            // releases the submission guard, see ParallelVisit#pending
+            visit.taskFinished();
+            visit.awaitCompletion();
+        } finally {
+            pool.shutdown();
+        }
+
+        if (visit.failure.get() != null)
+            throw new IllegalStateException("Parallel call graph construction failed", visit.failure.get());
+        visit.builder.buildInto(cg);
+    }
+
+    /**
+     * State shared by the tasks of one parallel construction. Completion is tracked by counting pending tasks
+     * rather than by pool quiescence, which may be observed before the last forked task has run.
+     */
+    private static class ParallelVisit {
+        final Scene scene;
+        final DispatchCache dispatchCache;
+        final LibrarySummaries librarySummaries;
+        final ConcurrentCallGraphBuilder builder = new ConcurrentCallGraphBuilder();
+        final Set<SootMethod> visited = ConcurrentHashMap.newKeySet();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // starts at 1 so that a root whose subtree finishes before the next root is submitted cannot complete the
+        // visit; the submitting thread releases this guard once all roots are submitted
+        final AtomicInteger pending = new AtomicInteger(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        ParallelVisit(Scene scene, DispatchCache dispatchCache, LibrarySummaries librarySummaries) {
+            this.scene = scene;
+            this.dispatchCache = dispatchCache;
+            this.librarySummaries = librarySummaries;
+        }
+
+        void visit(SootMethod caller, Unit callSite, SootMethod target) {
+            builder.addEdge(caller, callSite, target);
+            if (visited.add(target)) {
+                pending.incrementAndGet();
+                new VisitMethod(target, this).fork();
+            }
+        }
+
+        void taskFinished() {
+            if (pending.decrementAndGet() == 0)
+                done.countDown();
+        }
+
+        void awaitCompletion() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the call graph", e);
+            }
+        }
+    }
+
+    private static class VisitMethod extends RecursiveAction {
+        private final SootMethod method;
+        private final ParallelVisit visit;
+
+        VisitMethod(SootMethod method, ParallelVisit visit) {
+            this.method = method;
+            this.visit = visit;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (visit.failure.get() != null)
+                    return;
+                if (visit.librarySummaries != null && visit.librarySummaries.isSummarized(method)) {
+                    for (SootMethod target : visit.librarySummaries.callbackTargets(method, visit.scene, visit.dispatchCache))
+                        visit.visit(method, null, target);
+                    return;
+                }
+                if (!method.hasActiveBody())
+                    return;
+
+                for (Unit unit : method.getActiveBody().getUnits()) {
+                    Stmt stmt = (Stmt) unit;
+                    if (!stmt.containsInvokeExpr())
                         continue;
 
-                    if (!cg.hasNode(targetMethod))
-                        cg.addNode(targetMethod);
-
-                    Set<SootClass> classes = Helper.implementingClass(hierarchy, targetMethod);
-                    String targetSignature = targetMethod.getSubSignature();
-                    Set<SootMethod> chaMethods = classes.stream()
-                            .map(c -> c.getMethod(targetSignature))
-                            .collect(Collectors.toSet());
-
-                    chaMethods.add(targetMethod);
-                    for (SootMethod method : chaMethods) {
-                        if (!cg.hasNode(method))
-                            cg.addNode(method);
-
-                        if (!cg.hasEdge(srcMethod, method)) {
-                            cg.addEdge(srcMethod, method);
-                            queue.add(method);
-                        }
-                    }
+                    for (SootMethod target : visit.dispatchCache.targetsOf(stmt.getInvokeExpr()))
+                        visit.visit(method, unit, target);
                 }
+            } catch (RuntimeException | Error e) {
+                visit.failure.compareAndSet(null, e);
+            } finally {
+                visit.taskFinished();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -2,13 +2,25 @@ package analysis.exercise2;
 
 
 import analysis.CallGraph;
-import analysis.Helper;
+import analysis.DispatchCache;
+import analysis.LibrarySummaries;
+import analysis.TypeHierarchy;
 import analysis.exercise1.CHAAlgorithm;
 import soot.*;
+import soot.jimple.AssignStmt;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.Stmt;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * On-the-fly RTA. One set of instantiated types grows with the reachable part of the program,
+ * and virtual call sites stay pending on their declared class, so they are only re-resolved
+ * when a new subtype of that class gets instantiated. Summarized library methods instantiate the types they
+ * return and contribute their callbacks as pending calls without a call site.
+ */
 public class RTAAlgorithm extends CHAAlgorithm  {
 
     @Override
@@ -18,45 +30,164 @@ public class RTAAlgorithm extends CHAAlgorithm  {
 
     @Override
     protected void populateCallGraph(Scene scene, CallGraph cg) {
-        soot.Hierarchy hierarchy = scene.getActiveHierarchy();
-        for (SootMethod rootMethod : this.getEntryPoints(scene).collect(Collectors.toList())) {
-            Queue<SootMethod> queue = new ArrayDeque<>();
-            queue.add(rootMethod);
-            cg.addNode(rootMethod);
+        new Solver(scene, cg, this.getDispatchCache(scene), getLibrarySummaries()).solve(this.getEntryPoints(scene).collect(Collectors.toList()));
+    }
+
+    /**
+     * The instantiated types are global, so one changed allocation can add edges anywhere: RTA rebuilds
+     * instead of using the incremental CHA update.
+     */
+    @Override
+    public CallGraph updateCallGraph(Scene scene, CallGraph cg, Collection<SootClass> changedClasses) {
+        this.invalidateChangedClasses(scene, changedClasses);
+        return this.constructCallGraph(scene);
+    }
+
+    private static class Solver {
+        private final Scene scene;
+        private final CallGraph cg;
+        private final DispatchCache dispatchCache;
+        private final LibrarySummaries librarySummaries;
+        private final Set<SootClass> instantiatedClasses = new HashSet<>();
+        private final BitSet instantiatedIds = new BitSet();
+        private final Map<SootClass, List<PendingCall>> pendingCalls = new HashMap<>();
+        private final Set<SootMethod> visited = new HashSet<>();
+        private final Queue<SootMethod> queue = new ArrayDeque<>();
+
+        Solver(Scene scene, CallGraph cg, DispatchCache dispatchCache, LibrarySummaries librarySummaries) {
+            this.scene = scene;
+            this.cg = cg;
+            this.dispatchCache = dispatchCache;
+            this.librarySummaries = librarySummaries;
+        }
+
+        void solve(List<SootMethod> entryPoints) {
+            for (SootMethod rootMethod : entryPoints) {
+                if (!cg.hasNode(rootMethod))
+                    cg.addNode(rootMethod);
+                if (visited.add(rootMethod))
+                    queue.add(rootMethod);
+            }
 
             while (!queue.isEmpty()) {
                 SootMethod srcMethod = queue.poll();
+                LibrarySummaries.Summary summary = librarySummaries == null ? null : librarySummaries.summaryOf(srcMethod);
+                if (summary != null) {
+                    applySummary(srcMethod, summary);
+                    continue;
+                }
                 if (!srcMethod.hasActiveBody())
                     continue;
 
-                Body body = srcMethod.getActiveBody();
-                for (Unit unit : body.getUnits()) {
-                    SootMethod targetMethod = Helper.methodInUnit(unit);
-                    if (targetMethod == null)
-                        continue;
+                for (Unit unit : srcMethod.getActiveBody().getUnits()) {
+                    Stmt stmt = (Stmt) unit;
+                    if (stmt instanceof AssignStmt && ((AssignStmt) stmt).getRightOp() instanceof NewExpr) {
+                        instantiate(((NewExpr) ((AssignStmt) stmt).getRightOp()).getBaseType().getSootClass());
+                    } else if (stmt.containsInvokeExpr()) {
+                        processCall(srcMethod, unit, stmt.getInvokeExpr());
+                    }
+                }
+            }
+        }
 
-                    if (!cg.hasNode(targetMethod))
-                        cg.addNode(targetMethod);
+        private void processCall(SootMethod srcMethod, Unit unit, InvokeExpr invokeExpr) {
+            if (!DispatchCache.isVirtualCall(invokeExpr)) {
+                for (SootMethod target : dispatchCache.targetsOf(invokeExpr))
+                    addCall(srcMethod, unit, target);
+                return;
+            }
 
-                    Set<SootClass> instantiatedClasses = Helper.instantiatedClasses(srcMethod.getDeclaringClass());
-                    Set<SootClass> classes = Helper.implementingClass(hierarchy, targetMethod);
-                    instantiatedClasses.retainAll(classes);
+            addPendingCall(srcMethod, unit, invokeExpr.getMethodRef().getDeclaringClass(),
+                    invokeExpr.getMethodRef().getSubSignature().getString());
+        }
 
-                    Set<SootMethod> rtaMethod = instantiatedClasses.stream()
-                            .map(c -> c.getMethod(targetMethod.getSubSignature()))
-                            .collect(Collectors.toSet());
+        private void applySummary(SootMethod srcMethod, LibrarySummaries.Summary summary) {
+            for (String type : summary.returnedTypes()) {
+                SootClass cls = scene.getSootClassUnsafe(type, false);
+                if (cls != null)
+                    instantiate(cls);
+            }
+            for (LibrarySummaries.Callback callback : summary.callbacks()) {
+                SootClass declaredClass = scene.getSootClassUnsafe(callback.declaringClass(), false);
+                if (declaredClass != null)
+                    addPendingCall(srcMethod, null, declaredClass, callback.subSignature());
+            }
+        }
 
-                    for (SootMethod method : rtaMethod) {
-                        if (!cg.hasNode(method))
-                            cg.addNode(method);
+        private void addPendingCall(SootMethod srcMethod, Unit unit, SootClass declaredClass, String subSignature) {
+            PendingCall call = new PendingCall(srcMethod, unit, subSignature);
+            pendingCalls.computeIfAbsent(declaredClass, c -> new ArrayList<>()).add(call);
 
-                        if (!cg.hasEdge(srcMethod, method)) {
-                            cg.addEdge(srcMethod, method);
-                            queue.add(method);
-                        }
-                    }
-                }
+            // Resolve against the types seen so far
+            BitSet receivers = (BitSet) dispatchCache.concreteSubtypeIds(declaredClass).clone();
+            receivers.and(instantiatedIds);
+            TypeHierarchy hierarchy = dispatchCache.typeHierarchy();
+            for (int id = receivers.nextSetBit(0); id >= 0; id = receivers.nextSetBit(id + 1))
+                resolve(call, hierarchy.typeAt(id));
+        }
+
+        private void instantiate(SootClass cls) {
+            if (!instantiatedClasses.add(cls))
+                return;
+            int id = dispatchCache.typeHierarchy().idOf(cls);
+            if (id != -1)
+                instantiatedIds.set(id);
+
+            for (SootClass supertype : supertypesOf(cls)) {
+                List<PendingCall> calls = pendingCalls.get(supertype);
+                if (calls == null)
+                    continue;
+                for (PendingCall call : new ArrayList<>(calls))
+                    resolve(call, cls);
             }
         }
+
+        private void resolve(PendingCall call, SootClass receiverClass) {
+            SootMethod target = dispatchCache.dispatch(receiverClass, call.subSignature);
+            if (target != null)
+                addCall(call.caller, call.callSite, target);
+        }
+
+        // unit is null for the callbacks of summarized library methods, which only get a method-level edge
+        private void addCall(SootMethod srcMethod, Unit unit, SootMethod target) {
+            if (!cg.hasNode(target))
+                cg.addNode(target);
+            if (unit == null ? cg.hasEdge(srcMethod, target) : cg.hasEdge(srcMethod, unit, target))
+                return;
+
+            if (unit == null)
+                cg.addEdge(srcMethod, target);
+            else
+                cg.addEdge(srcMethod, unit, target);
+            if (visited.add(target))
+                queue.add(target);
+        }
+
+        private static Set<SootClass> supertypesOf(SootClass cls) {
+            Set<SootClass> supertypes = new HashSet<>();
+            Queue<SootClass> worklist = new ArrayDeque<>();
+            worklist.add(cls);
+            while (!worklist.isEmpty()) {
+                SootClass current = worklist.poll();
+                if (!supertypes.add(current))
+                    continue;
+                if (current.hasSuperclass())
+                    worklist.add(current.getSuperclass());
+                worklist.addAll(current.getInterfaces());
+            }
+            return supertypes;
+        }
+    }
+
+    private static class PendingCall {
+        final SootMethod caller;
+        final Unit callSite;
+        final String subSignature;
+
+        PendingCall(SootMethod caller, Unit callSite, String subSignature) {
+            this.caller = caller;
+            this.callSite = callSite;
+            this.subSignature = subSignature;
+        }
     }
 }
@@ -0,0 +1,201 @@
+package analysis.exercise3;
+
+import analysis.BottomUpScheduler;
+import analysis.CallGraph;
+import analysis.CallGraphCondensation;
+import analysis.LibrarySummaries;
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.CastExpr;
+import soot.jimple.Constant;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Summaries of the classes a method may return.
+ * Summaries are computed bottom-up over the SCCs of the call graph by a {@link BottomUpScheduler}, so every
+ * callee outside the current SCC is final before its callers are summarized, and recursive SCCs are iterated
+ * to a fixpoint. Summarized library methods take their returned classes from the library summaries.
+ * <p>
+ * {@link RefType#getSootClass()} may create a class reference in the Scene, so every class the summaries refer
+ * to is resolved on the calling thread before the scheduler starts; its workers only read the resolved classes.
+ */
+class ReturnTypeSummaries {
+    private final CallGraph callGraph;
+    private final int parallelism;
+    private final LibrarySummaries librarySummaries;
+    private final Scene scene;
+    private final Map<SootMethod, Set<SootClass>> summaries = new ConcurrentHashMap<>();
+    // filled before scheduling, read-only while the workers run
+    private final Map<RefType, SootClass> classes = new HashMap<>();
+    private final Map<SootMethod, Set<SootClass>> libraryReturnTypes = new HashMap<>();
+    private boolean summarized;
+
+    ReturnTypeSummaries(CallGraph callGraph, int parallelism) {
+        this(callGraph, parallelism, null, null);
+    }
+
+    ReturnTypeSummaries(CallGraph callGraph, int parallelism, LibrarySummaries librarySummaries, Scene scene) {
+        this.callGraph = callGraph;
+        this.parallelism = parallelism;
+        this.librarySummaries = librarySummaries;
+        this.scene = scene;
+    }
+
+    /**
+     * Returns the classes returned by any of the possible callees at the call site. Methods without a body,
+     * or whose returned values cannot be traced to an allocation, are summarized by their declared return class.
+     * The first call summarizes every method of the call graph.
+     */
+    Set<SootClass> returnTypes(Unit callSite) {
+        if (!summarized) {
+            resolveClasses();
+            new BottomUpScheduler(parallelism).run(new CallGraphCondensation(callGraph), this::summarizeScc);
+            summarized = true;
+        }
+        return callSiteTypes(callSite);
+    }
+
+    // Resolves the declared return types, allocated types and call-site return types of every method in the graph
+    private void resolveClasses() {
+        for (SootMethod method : callGraph.nodes()) {
+            if (librarySummaries != null && librarySummaries.isSummarized(method)) {
+                libraryReturnTypes.put(method, librarySummaries.returnedClasses(method, scene));
+                continue;
+            }
+            resolve(method.getReturnType());
+            if (!method.hasActiveBody())
+                continue;
+            for (Unit unit : method.getActiveBody().getUnits()) {
+                Stmt stmt = (Stmt) unit;
+                if (stmt.containsInvokeExpr())
+                    resolve(stmt.getInvokeExpr().getMethodRef().getReturnType());
+                else if (stmt instanceof DefinitionStmt && ((DefinitionStmt) stmt).getRightOp() instanceof NewExpr)
+                    resolve(((NewExpr) ((DefinitionStmt) stmt).getRightOp()).getBaseType());
+            }
+        }
+    }
+
+    private void resolve(Type type) {
+        if (type instanceof RefType)
+            classes.computeIfAbsent((RefType) type, RefType::getSootClass);
+    }
+
+    private SootClass classOf(RefType type) {
+        SootClass cls = classes.get(type);
+        if (cls == null)
+            throw new IllegalStateException("Class of " + type + " was not resolved before summarizing");
+        return cls;
+    }
+
+    private void summarizeScc(List<SootMethod> scc) {
+        for (SootMethod method : scc)
+            summaries.put(method, Collections.emptySet());
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (SootMethod method : scc) {
+                Set<SootClass> summary = summarize(method);
+                if (!summary.equals(summaries.get(method))) {
+                    summaries.put(method, summary);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private Set<SootClass> summarize(SootMethod method) {
+        if (!(method.getReturnType() instanceof RefType))
+            return Collections.emptySet();
+        Set<SootClass> libraryTypes = libraryReturnTypes.get(method);
+        if (libraryTypes != null)
+            return libraryTypes;
+        SootClass declaredClass = classOf((RefType) method.getReturnType());
+        if (!method.hasActiveBody())
+            return Collections.singleton(declaredClass);
+
+        Body body = method.getActiveBody();
+        Map<Local, Set<SootClass>> localTypes = new HashMap<>();
+        // locals that may hold a value of unknown origin, such as a parameter or a field
+        Set<Local> unknown = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Unit unit : body.getUnits()) {
+                if (!(unit instanceof DefinitionStmt) || !(((DefinitionStmt) unit).getLeftOp() instanceof Local))
+                    continue;
+                Local lhs = (Local) ((DefinitionStmt) unit).getLeftOp();
+                Value rhs = ((DefinitionStmt) unit).getRightOp();
+                if (rhs instanceof CastExpr)
+                    rhs = ((CastExpr) rhs).getOp();
+
+                Set<SootClass> types;
+                if (rhs instanceof NewExpr)
+                    types = Collections.singleton(classOf(((NewExpr) rhs).getBaseType()));
+                else if (rhs instanceof InvokeExpr)
+                    types = callSiteTypes(unit);
+                else if (rhs instanceof Local) {
+                    types = localTypes.getOrDefault(rhs, Collections.emptySet());
+                    if (unknown.contains(rhs) && unknown.add(lhs))
+                        changed = true;
+                } else if (rhs instanceof Constant)
+                    continue;
+                else {
+                    if (unknown.add(lhs))
+                        changed = true;
+                    continue;
+                }
+
+                if (localTypes.computeIfAbsent(lhs, l -> new HashSet<>()).addAll(types))
+                    changed = true;
+            }
+        }
+
+        Set<SootClass> result = new HashSet<>();
+        for (Unit unit : body.getUnits()) {
+            if (!(unit instanceof ReturnStmt) || !(((ReturnStmt) unit).getOp() instanceof Local))
+                continue;
+            Local op = (Local) ((ReturnStmt) unit).getOp();
+            if (unknown.contains(op) || !localTypes.containsKey(op))
+                result.add(declaredClass);
+            result.addAll(localTypes.getOrDefault(op, Collections.emptySet()));
+        }
+        return result;
+    }
+
+    // While an SCC is being summarized, its members contribute their current partial summaries
+    private Set<SootClass> callSiteTypes(Unit callSite) {
+        Set<SootClass> result = new HashSet<>();
+        boolean hasConcreteCallee = false;
+        for (SootMethod callee : callGraph.edgesOutOf(callSite)) {
+            if (callee.isAbstract())
+                continue;
+            hasConcreteCallee = true;
+            result.addAll(summaries.get(callee));
+        }
+        // the method ref is not resolved here, resolution may modify the scene while other SCCs run
+        Type declaredType = ((Stmt) callSite).getInvokeExpr().getMethodRef().getReturnType();
+        if (!hasConcreteCallee && declaredType instanceof RefType)
+            result.add(classOf((RefType) declaredType));
+        return result;
+    }
+}
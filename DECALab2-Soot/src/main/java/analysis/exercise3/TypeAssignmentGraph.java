@@ -0,0 +1,443 @@
+package analysis.exercise3;
+
+import analysis.GraphWriter;
+import analysis.exercise3.TypeSetStore.TypeSet;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.MultiGraph;
+import soot.SootClass;
+import soot.SootField;
+import soot.Value;
+import soot.jimple.FieldRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Type assignment graph of VTA with int node ids.
+ * Field references are keyed by their field, all other values by identity. Edges are kept in
+ * primitive adjacency arrays. The types reaching a node are a set over dense type ids from a
+ * {@link TypeSetStore}, so nodes with equal types share one set.
+ */
+public class TypeAssignmentGraph {
+    private final Map<Value, Integer> valueNodes = new IdentityHashMap<>();
+    private final Map<SootField, Integer> fieldNodes = new HashMap<>();
+    private final List<Value> values = new ArrayList<>();
+    private int[][] successors = new int[16][];
+    private int[] successorCounts = new int[16];
+    private TypeSet[] types = new TypeSet[16];
+    private final TypeSetStore typeSets = new TypeSetStore();
+    private final EdgeSet edges = new EdgeSet();
+
+    private final Map<SootClass, Integer> typeIds = new HashMap<>();
+    private final List<SootClass> typesById = new ArrayList<>();
+
+    private int[] sccIndex;
+    private int sccCount;
+    // false once nodes or edges were added after the last annotateScc
+    private boolean sccCurrent;
+
+    public int nodeCount() {
+        return values.size();
+    }
+
+    public int edgeCount() {
+        return edges.size;
+    }
+
+    /**
+     * Returns the node id of value, or -1 if the value is not part of the graph.
+     */
+    public int nodeOf(Value value) {
+        Integer node = value instanceof FieldRef ? fieldNodes.get(((FieldRef) value).getField()) : valueNodes.get(value);
+        return node == null ? -1 : node;
+    }
+
+    public boolean containsNode(Value value) {
+        return nodeOf(value) >= 0;
+    }
+
+    public Value valueOf(int node) {
+        return values.get(node);
+    }
+
+    public int addNode(Value value) {
+        int node = nodeOf(value);
+        if (node >= 0)
+            return node;
+
+        node = values.size();
+        if (value instanceof FieldRef)
+            fieldNodes.put(((FieldRef) value).getField(), node);
+        else
+            valueNodes.put(value, node);
+        values.add(value);
+        sccCurrent = false;
+
+        if (node == successors.length) {
+            successors = Arrays.copyOf(successors, node * 2);
+            successorCounts = Arrays.copyOf(successorCounts, node * 2);
+            types = Arrays.copyOf(types, node * 2);
+        }
+        return node;
+    }
+
+    public void addEdge(Value source, Value target) {
+        int sourceNode = nodeOf(source);
+        int targetNode = nodeOf(target);
+        if (sourceNode < 0 || targetNode < 0)
+            throw new IllegalArgumentException("Could not find one of the nodes. Source: " + source + " - Target: " + target);
+        addEdge(sourceNode, targetNode);
+    }
+
+    public void addEdge(int source, int target) {
+        if (!edges.add(source, target))
+            return;
+        sccCurrent = false;
+
+        int[] row = successors[source];
+        int count = successorCounts[source];
+        if (row == null)
+            row = successors[source] = new int[2];
+        else if (count == row.length)
+            row = successors[source] = Arrays.copyOf(row, count * 2);
+        row[count] = target;
+        successorCounts[source] = count + 1;
+    }
+
+    public int outDegree(int node) {
+        return successorCounts[node];
+    }
+
+    public int successor(int node, int index) {
+        return successors[node][index];
+    }
+
+    public int typeId(SootClass cls) {
+        Integer id = typeIds.get(cls);
+        if (id == null) {
+            id = typesById.size();
+            typeIds.put(cls, id);
+            typesById.add(cls);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the type id of cls without registering it, or -1 if no node was ever tagged with it.
+     */
+    public int findTypeId(SootClass cls) {
+        Integer id = typeIds.get(cls);
+        return id == null ? -1 : id;
+    }
+
+    public SootClass typeAt(int typeId) {
+        return typesById.get(typeId);
+    }
+
+    public void tagNode(Value value, SootClass classTag) {
+        int node = nodeOf(value);
+        if (node >= 0)
+            tagNode(node, typeId(classTag));
+    }
+
+    public void tagNode(int node, int typeId) {
+        types[node] = typeSets.with(typesOf(node), typeId);
+    }
+
+    /**
+     * Adds all types of the given set to the node and returns whether the node gained a type.
+     */
+    public boolean addTypes(int node, TypeSet newTypes) {
+        if (newTypes == null)
+            return false;
+        TypeSet current = typesOf(node);
+        types[node] = typeSets.union(current, newTypes);
+        return types[node] != current;
+    }
+
+    /**
+     * Returns the types of the node, or null if no type reaches it. Nodes with equal types return the same instance.
+     */
+    public TypeSet getNodeTypes(int node) {
+        return types[node];
+    }
+
+    private TypeSet typesOf(int node) {
+        return types[node] == null ? typeSets.empty() : types[node];
+    }
+
+    public TypeSetStore typeSets() {
+        return typeSets;
+    }
+
+    public Set<SootClass> getNodeTags(Value value) {
+        int node = nodeOf(value);
+        Set<SootClass> result = new LinkedHashSet<>();
+        if (node < 0 || types[node] == null)
+            return result;
+        for (int t = types[node].nextType(0); t >= 0; t = types[node].nextType(t + 1))
+            result.add(typesById.get(t));
+        return result;
+    }
+
+    /**
+     * Use this method to start the SCC computation.
+     * Iterative Tarjan, so deep assignment chains do not overflow the stack.
+     */
+    public void annotateScc() {
+        int n = nodeCount();
+        sccIndex = new int[n];
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callStack = new int[n];
+        int[] edgePosition = new int[n];
+        int nextIndex = 0;
+        int nextScc = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0)
+                continue;
+
+            int depth = 0;
+            callStack[depth] = root;
+            edgePosition[depth] = 0;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int node = callStack[depth];
+                if (edgePosition[depth] < successorCounts[node]) {
+                    int next = successors[node][edgePosition[depth]++];
+                    if (index[next] < 0) {
+                        index[next] = lowLink[next] = nextIndex++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[++depth] = next;
+                        edgePosition[depth] = 0;
+                    } else if (onStack[next]) {
+                        lowLink[node] = Math.min(lowLink[node], index[next]);
+                    }
+                    continue;
+                }
+
+                if (lowLink[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        sccIndex[member] = nextScc;
+                    } while (member != node);
+                    nextScc++;
+                }
+                depth--;
+                if (depth >= 0)
+                    lowLink[callStack[depth]] = Math.min(lowLink[callStack[depth]], lowLink[node]);
+            }
+        }
+        sccCount = nextScc;
+        sccCurrent = true;
+    }
+
+    /**
+     * Retrieve the index assigned by the SCC algorithm, or -1 if value is unknown or annotateScc was not run.
+     * SCC indices are assigned in reverse topological order: edges only lead to equal or smaller indices.
+     */
+    public int getSccIndex(Value value) {
+        int node = nodeOf(value);
+        if (node < 0 || sccIndex == null || node >= sccIndex.length) return -1;
+        return sccIndex[node];
+    }
+
+    /**
+     * Propagates types along the edges until every node holds the types of all nodes reaching it.
+     * If the SCC annotation is current, each SCC is collapsed onto one type set that is pushed to the
+     * successor SCCs once, in topological order. Otherwise the remaining cycles are handled by a worklist
+     * that only pushes the types a node gained since it was last processed.
+     */
+    public void propagateTypes() {
+        if (sccCurrent)
+            propagateTopologically();
+        else
+            propagateDeltas();
+    }
+
+    private void propagateTopologically() {
+        int n = nodeCount();
+        TypeSet[] sccTypes = new TypeSet[sccCount];
+        int[] memberOffsets = new int[sccCount + 1];
+        for (int node = 0; node < n; node++) {
+            memberOffsets[sccIndex[node] + 1]++;
+            if (types[node] != null)
+                sccTypes[sccIndex[node]] = union(sccTypes[sccIndex[node]], types[node]);
+        }
+        for (int scc = 1; scc <= sccCount; scc++)
+            memberOffsets[scc] += memberOffsets[scc - 1];
+        int[] members = new int[n];
+        int[] next = Arrays.copyOf(memberOffsets, sccCount);
+        for (int node = 0; node < n; node++)
+            members[next[sccIndex[node]]++] = node;
+
+        // Tarjan numbers SCCs in reverse topological order, so higher indices are complete first
+        for (int scc = sccCount - 1; scc >= 0; scc--) {
+            TypeSet sccSet = sccTypes[scc];
+            if (sccSet == null)
+                continue;
+            for (int m = memberOffsets[scc]; m < memberOffsets[scc + 1]; m++) {
+                int node = members[m];
+                for (int i = 0; i < successorCounts[node]; i++) {
+                    int targetScc = sccIndex[successors[node][i]];
+                    if (targetScc != scc)
+                        sccTypes[targetScc] = union(sccTypes[targetScc], sccSet);
+                }
+            }
+        }
+
+        // all members of an SCC share its set
+        for (int scc = 0; scc < sccCount; scc++) {
+            for (int m = memberOffsets[scc]; m < memberOffsets[scc + 1]; m++)
+                types[members[m]] = sccTypes[scc];
+        }
+    }
+
+    private TypeSet union(TypeSet target, TypeSet source) {
+        return target == null ? source : typeSets.union(target, source);
+    }
+
+    private void propagateDeltas() {
+        int n = nodeCount();
+        TypeSet[] deltas = new TypeSet[n];
+        boolean[] queued = new boolean[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int size = 0;
+        for (int node = 0; node < n; node++) {
+            if (types[node] != null && !types[node].isEmpty()) {
+                deltas[node] = types[node];
+                queued[node] = true;
+                queue[size++] = node;
+            }
+        }
+
+        while (size > 0) {
+            int node = queue[head];
+            head = (head + 1) % n;
+            size--;
+            queued[node] = false;
+            TypeSet delta = deltas[node];
+            deltas[node] = null;
+
+            // the delta may hold types a target already has; unions are memoized, so re-pushing them is cheap
+            for (int i = 0; i < successorCounts[node]; i++) {
+                int target = successors[node][i];
+                TypeSet merged = union(types[target], delta);
+                if (merged == types[target])
+                    continue;
+
+                types[target] = merged;
+                deltas[target] = union(deltas[target], delta);
+                if (!queued[target]) {
+                    queued[target] = true;
+                    queue[(head + size) % n] = target;
+                    size++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Use this method to inspect your type assignment graph
+     */
+    public void draw() {
+        Graph graph = new MultiGraph("tag");
+        for (int node = 0; node < nodeCount(); node++) {
+            Node graphNode = graph.addNode(Integer.toString(node));
+            graphNode.setAttribute("ui.label", values.get(node));
+        }
+        for (int node = 0; node < nodeCount(); node++) {
+            for (int i = 0; i < successorCounts[node]; i++) {
+                int target = successors[node][i];
+                graph.addEdge(node + "-" + target, Integer.toString(node), Integer.toString(target), true);
+            }
+        }
+        graph.display();
+    }
+
+    /**
+     * Streams the nodes accepted by nodeFilter and the edges between them to writer, labelled with their values.
+     * Unlike {@link #draw()} this works for graphs of any size.
+     */
+    public void export(GraphWriter writer, IntPredicate nodeFilter) throws IOException {
+        for (int node = 0; node < nodeCount(); node++) {
+            if (nodeFilter.test(node))
+                writer.node(node, values.get(node).toString());
+        }
+        for (int node = 0; node < nodeCount(); node++) {
+            if (!nodeFilter.test(node))
+                continue;
+            for (int i = 0; i < successorCounts[node]; i++) {
+                if (nodeFilter.test(successors[node][i]))
+                    writer.edge(node, successors[node][i]);
+            }
+        }
+    }
+
+    /**
+     * Open-addressing set of (source, target) pairs packed into longs, used to reject duplicate edges.
+     */
+    private static class EdgeSet {
+        private static final long EMPTY = -1L;
+        private long[] slots = newSlots(64);
+        private int size;
+
+        private static long[] newSlots(int capacity) {
+            long[] slots = new long[capacity];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+
+        boolean add(int source, int target) {
+            if ((size + 1) * 2 > slots.length)
+                grow();
+            if (insert(slots, ((long) source << 32) | (target & 0xffffffffL))) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        private static boolean insert(long[] slots, long key) {
+            int mask = slots.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (slots[slot] != EMPTY) {
+                if (slots[slot] == key)
+                    return false;
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = key;
+            return true;
+        }
+
+        private void grow() {
+            long[] larger = newSlots(slots.length * 2);
+            for (long key : slots) {
+                if (key != EMPTY)
+                    insert(larger, key);
+            }
+            slots = larger;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package analysis.exercise3;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash-consed sets of type ids. Equal sets are represented by one immutable {@link TypeSet} instance, so sets
+ * can be shared between nodes and compared by reference. Unions are memoized in a fixed-size direct-mapped cache
+ * keyed by the pair of set ids, so repeated unions are cheap without the memo growing with the number of pairs.
+ * Not thread-safe.
+ */
+public class TypeSetStore {
+    private static final int UNION_CACHE_SIZE = 1 << 13;
+
+    private final Map<TypeSet, TypeSet> interned = new HashMap<>();
+    private final long[] unionKeys = new long[UNION_CACHE_SIZE];
+    private final TypeSet[] unionResults = new TypeSet[UNION_CACHE_SIZE];
+    private final TypeSet empty;
+    private int unionCacheHits;
+
+    public TypeSetStore() {
+        empty = intern(new BitSet());
+    }
+
+    public TypeSet empty() {
+        return empty;
+    }
+
+    /**
+     * Returns the canonical set containing the ids set in bits. bits is copied.
+     */
+    public TypeSet of(BitSet bits) {
+        return intern((BitSet) bits.clone());
+    }
+
+    public TypeSet with(TypeSet set, int typeId) {
+        if (set.contains(typeId))
+            return set;
+        BitSet bits = (BitSet) set.bits.clone();
+        bits.set(typeId);
+        return intern(bits);
+    }
+
+    public TypeSet union(TypeSet a, TypeSet b) {
+        if (a == b || b == empty)
+            return a;
+        if (a == empty)
+            return b;
+
+        long key = a.id < b.id ? ((long) a.id << 32) | b.id : ((long) b.id << 32) | a.id;
+        int slot = slot(key);
+        TypeSet result = unionResults[slot];
+        if (result != null && unionKeys[slot] == key) {
+            unionCacheHits++;
+            return result;
+        }
+        BitSet bits = (BitSet) a.bits.clone();
+        bits.or(b.bits);
+        result = intern(bits);
+        unionKeys[slot] = key;
+        unionResults[slot] = result;
+        return result;
+    }
+
+    private static int slot(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & (UNION_CACHE_SIZE - 1);
+    }
+
+    // bits must not be modified afterwards
+    private TypeSet intern(BitSet bits) {
+        TypeSet candidate = new TypeSet(bits, interned.size());
+        TypeSet existing = interned.putIfAbsent(candidate, candidate);
+        return existing != null ? existing : candidate;
+    }
+
+    /**
+     * Returns the number of distinct sets created so far.
+     */
+    public int size() {
+        return interned.size();
+    }
+
+    public int unionCacheHits() {
+        return unionCacheHits;
+    }
+
+    /**
+     * An immutable set of type ids, canonical within its store.
+     */
+    public static final class TypeSet {
+        private final BitSet bits;
+        private final int id;
+        private final int hash;
+
+        private TypeSet(BitSet bits, int id) {
+            this.bits = bits;
+            this.id = id;
+            this.hash = bits.hashCode();
+        }
+
+        public boolean contains(int typeId) {
+            return bits.get(typeId);
+        }
+
+        public boolean isEmpty() {
+            return bits.isEmpty();
+        }
+
+        public int size() {
+            return bits.cardinality();
+        }
+
+        /**
+         * Returns the smallest type id at or after from, or -1; iterate like {@link BitSet#nextSetBit}.
+         */
+        public int nextType(int from) {
+            return bits.nextSetBit(from);
+        }
+
+        public BitSet toBitSet() {
+            return (BitSet) bits.clone();
+        }
+
+        // only used while interning; canonical sets are compared by reference
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TypeSet && hash == ((TypeSet) o).hash && bits.equals(((TypeSet) o).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return bits.toString();
+        }
+    }
+}
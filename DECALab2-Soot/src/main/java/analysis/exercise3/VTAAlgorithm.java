@@ -2,12 +2,9 @@ package analysis.exercise3;
 
 import analysis.CallGraph;
 import analysis.CallGraphAlgorithm;
+import analysis.DispatchCache;
+import analysis.LibrarySummaries;
 import analysis.exercise1.CHAAlgorithm;
-import org.graphstream.algorithm.TarjanStronglyConnectedComponents;
-import org.graphstream.graph.Edge;
-import org.graphstream.graph.Graph;
-import org.graphstream.graph.Node;
-import org.graphstream.graph.implementations.MultiGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.*;
@@ -15,11 +12,15 @@ import soot.jimple.*;
 import soot.jimple.internal.JAssignStmt;
 import soot.jimple.internal.JInvokeStmt;
 import soot.jimple.internal.JNewExpr;
-import soot.jimple.internal.JReturnStmt;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Variable type analysis over the CHA call graph. With library summaries, summarized library methods are not
+ * part of the type assignment graph: a call to one connects the arguments the summary says may be returned to the
+ * result, which is also tagged with the classes the method returns, and its callback edges are kept as built by CHA.
+ */
 public class VTAAlgorithm extends CallGraphAlgorithm {
 
     private final Logger log = LoggerFactory.getLogger("VTA");
@@ -31,61 +32,87 @@ public class VTAAlgorithm extends CallGraphAlgorithm {
 
     @Override
     protected void populateCallGraph(Scene scene, CallGraph cg) {
-        CallGraph initialCallGraph = new CHAAlgorithm().constructCallGraph(scene);
+        DispatchCache dispatchCache = this.getDispatchCache(scene);
+        CHAAlgorithm cha = new CHAAlgorithm();
+        cha.setDispatchCache(dispatchCache);
+        cha.setEntryPointIndex(this.getEntryPointIndex(scene));
+        cha.setParallelism(this.getParallelism());
+        cha.setLibrarySummaries(this.getLibrarySummaries());
+        CallGraph initialCallGraph = cha.constructCallGraph(scene);
         TypeAssignmentGraph typeAssignmentGraph = new TypeAssignmentGraph();
+        Map<Unit, Integer> receivers = new HashMap<>();
         List<SootMethod> entries = this.getEntryPoints(scene).collect(Collectors.toList());
 
         // 1. Build Initial TypeAssignmentGraph
-        for (SootMethod entry : entries) {
-            this.buildTypeAssignmentGraph(scene, entry, initialCallGraph, typeAssignmentGraph);
-        }
+        this.buildTypeAssignmentGraph(scene, entries, initialCallGraph, typeAssignmentGraph, receivers);
 
         // 2. Collapse Strong connected components
         typeAssignmentGraph.annotateScc();
 
         // 3. Propagate type in TypeAssignmentGraph
-        this.propagateType(typeAssignmentGraph);
+        typeAssignmentGraph.propagateTypes();
+        log.debug("{}: {} distinct type sets for {} nodes, {} union cache hits", getAlgorithm(),
+                typeAssignmentGraph.typeSets().size(), typeAssignmentGraph.nodeCount(), typeAssignmentGraph.typeSets().unionCacheHits());
 
         // 4. create pruned call graph
         // Infer what types the objects involved in a call may have
         // Prune calls that are infeasible based on the inferred types
-        for (SootMethod entry : entries) {
-            Queue<SootMethod> queue = new ArrayDeque<>();
-            queue.add(entry);
-
-            while (!queue.isEmpty()) {
-                SootMethod srcMethod = queue.poll();
-                if (!cg.hasNode(srcMethod))
-                    cg.addNode(srcMethod);
+        Set<SootMethod> visited = new HashSet<>(entries);
+        Queue<SootMethod> queue = new ArrayDeque<>(entries);
+        while (!queue.isEmpty()) {
+            SootMethod srcMethod = queue.poll();
+            if (!cg.hasNode(srcMethod))
+                cg.addNode(srcMethod);
 
-                Set<SootMethod> targets = initialCallGraph.edgesOutOf(srcMethod);
-                for (SootMethod target : targets) {
-                    if (!isFeasibleMethod(typeAssignmentGraph, target))
+            for (Unit callSite : initialCallGraph.callSitesIn(srcMethod)) {
+                Set<SootMethod> feasibleTargets = feasibleTargets(typeAssignmentGraph, dispatchCache, receivers.get(callSite), callSite);
+                for (SootMethod target : initialCallGraph.edgesOutOf(callSite)) {
+                    if (feasibleTargets != null && !feasibleTargets.contains(target))
                         continue;
 
                     if (!cg.hasNode(target))
                         cg.addNode(target);
-                    if (!cg.hasEdge(srcMethod, target)) {
+                    cg.addEdge(srcMethod, callSite, target);
+                    if (visited.add(target))
+                        queue.add(target);
+                }
+            }
+            if (isSummarized(srcMethod)) {
+                // callbacks have no call site and are not pruned
+                for (SootMethod target : initialCallGraph.edgesOutOf(srcMethod)) {
+                    if (!cg.hasNode(target))
+                        cg.addNode(target);
+                    if (!cg.hasEdge(srcMethod, target))
                         cg.addEdge(srcMethod, target);
+                    if (visited.add(target))
                         queue.add(target);
-                    }
                 }
             }
         }
     }
 
-    private void buildTypeAssignmentGraph(Scene scene, SootMethod entry, CallGraph initialCallGraph, TypeAssignmentGraph typeAssignmentGraph) {
-        Queue<SootMethod> queue = new ArrayDeque<>();
-        queue.add(entry);
+    private void buildTypeAssignmentGraph(Scene scene, List<SootMethod> entries, CallGraph initialCallGraph,
+                                          TypeAssignmentGraph typeAssignmentGraph, Map<Unit, Integer> receivers) {
+        ReturnTypeSummaries returnTypes = new ReturnTypeSummaries(initialCallGraph, this.getParallelism(),
+                this.getLibrarySummaries(), scene);
+        Set<SootMethod> visited = new HashSet<>(entries);
+        Queue<SootMethod> queue = new ArrayDeque<>(entries);
 
         while (!queue.isEmpty()) {
             SootMethod srcMethod = queue.poll();
-            if (!srcMethod.hasActiveBody())
+            if (isSummarized(srcMethod) || !srcMethod.hasActiveBody())
                 continue;
 
             Body body = srcMethod.getActiveBody();
             for (Unit unit : body.getUnits()) {
-                if ((unit instanceof JAssignStmt)) {
+                if (unit instanceof IdentityStmt) {
+                    IdentityStmt identityStmt = (IdentityStmt) unit;
+                    if (identityStmt.getRightOp() instanceof ParameterRef) {
+                        typeAssignmentGraph.addNode(identityStmt.getRightOp());
+                        typeAssignmentGraph.addNode(identityStmt.getLeftOp());
+                        typeAssignmentGraph.addEdge(identityStmt.getRightOp(), identityStmt.getLeftOp());
+                    }
+                } else if ((unit instanceof JAssignStmt)) {
                     JAssignStmt assignStmt = (JAssignStmt) unit;
                     Value lhs = assignStmt.getLeftOp();
                     Value rhs = assignStmt.getRightOp();
@@ -97,262 +124,117 @@ public class VTAAlgorithm extends CallGraphAlgorithm {
                         typeAssignmentGraph.tagNode(lhs, classTag);
                     } else if (rhs instanceof InvokeExpr) {
                         InvokeExpr invokeExpr = (InvokeExpr) rhs;
-                        this.addEdgeToArgument(typeAssignmentGraph, invokeExpr);
-                        SootMethod method = invokeExpr.getMethod();
-                        SootClass classTag = this.returnType(scene, method);
-                        typeAssignmentGraph.tagNode(lhs, classTag);
+                        this.addEdgesToCallees(typeAssignmentGraph, initialCallGraph, unit, invokeExpr, receivers);
+                        this.addSummarizedFlows(typeAssignmentGraph, initialCallGraph, unit, invokeExpr, lhs);
+                        for (SootClass classTag : returnTypes.returnTypes(unit))
+                            typeAssignmentGraph.tagNode(lhs, classTag);
 
-                        queue.addAll(initialCallGraph.edgesOutOf(method));
+                        enqueueCallees(initialCallGraph.edgesOutOf(unit), visited, queue);
                     } else {
-                        if (!(rhs instanceof Constant)) {
-                            typeAssignmentGraph.addNode(rhs);
-                            typeAssignmentGraph.addEdge(rhs, lhs);
+                        // a cast passes the types of its operand on unchanged
+                        Value source = rhs instanceof CastExpr ? ((CastExpr) rhs).getOp() : rhs;
+                        if (!(source instanceof Constant)) {
+                            typeAssignmentGraph.addNode(source);
+                            typeAssignmentGraph.addEdge(source, lhs);
                         }
                     }
                 } else if (unit instanceof JInvokeStmt) {
                     JInvokeStmt invokeStmt = (JInvokeStmt) unit;
                     InvokeExpr invokeExpr = invokeStmt.getInvokeExpr();
-                    this.addEdgeToArgument(typeAssignmentGraph, invokeExpr);
-                    SootMethod method = invokeExpr.getMethod();
+                    this.addEdgesToCallees(typeAssignmentGraph, initialCallGraph, unit, invokeExpr, receivers);
 
-                    queue.addAll(initialCallGraph.edgesOutOf(method));
+                    enqueueCallees(initialCallGraph.edgesOutOf(unit), visited, queue);
                 }
             }
         }
     }
 
-    // Add edge between method in InvokeExpr to arguments
-    private void addEdgeToArgument(TypeAssignmentGraph typeAssignmentGraph, InvokeExpr invokeExpr) {
-        List<Value> args = invokeExpr.getArgs();
-        SootMethod method = invokeExpr.getMethod();
-
-        for (int i = 0; i < args.size(); i++) {
-            Value arg = args.get(i);
-            if (!(arg instanceof Constant) && (method.hasActiveBody())) {
-                List<Value> parameterRefs = method.getActiveBody().getParameterRefs();
-
-                for (Value value : parameterRefs) {
-                    ParameterRef parameterRef = (ParameterRef) value;
-                    if (i == parameterRef.getIndex()) {
-                        typeAssignmentGraph.addNode(arg);
-                        typeAssignmentGraph.addNode(parameterRef);
-                        typeAssignmentGraph.addEdge(arg, value);
-                    }
-                }
-            }
+    private void enqueueCallees(Set<SootMethod> callees, Set<SootMethod> visited, Queue<SootMethod> queue) {
+        for (SootMethod callee : callees) {
+            if (visited.add(callee))
+                queue.add(callee);
         }
     }
 
-    // Search concrete return type of the method if possible.
-    private SootClass returnType(Scene scene, SootMethod method) {
-        if (!method.hasActiveBody()) {
-            return scene.getSootClass(method.getReturnType().toString());
-        }
+    // Add edges from the arguments and the receiver of a call to the parameters and this of every possible callee
+    private void addEdgesToCallees(TypeAssignmentGraph typeAssignmentGraph, CallGraph initialCallGraph, Unit callSite,
+                                   InvokeExpr invokeExpr, Map<Unit, Integer> receivers) {
+        Value receiver = invokeExpr instanceof InstanceInvokeExpr ? ((InstanceInvokeExpr) invokeExpr).getBase() : null;
+        if (receiver != null && DispatchCache.isVirtualCall(invokeExpr))
+            receivers.put(callSite, typeAssignmentGraph.addNode(receiver));
 
-        Body body = method.getActiveBody();
-        HashMap<Value, SootClass> localMap = new HashMap<>();
-
-        for (Unit unit : body.getUnits()) {
-            if (unit instanceof JAssignStmt) {
-                JAssignStmt assignStmt = (JAssignStmt) unit;
-                Value lhs = assignStmt.getLeftOp();
-                Value rhs = assignStmt.getRightOp();
+        List<Value> args = invokeExpr.getArgs();
+        for (SootMethod method : initialCallGraph.edgesOutOf(callSite)) {
+            if (isSummarized(method) || !method.hasActiveBody())
+                continue;
+            Body calleeBody = method.getActiveBody();
 
-                if (rhs instanceof JNewExpr) {
-                    JNewExpr newExpr = (JNewExpr) rhs;
-                    SootClass classTag = scene.getSootClass(newExpr.getType().toString());
-                    localMap.put(lhs, classTag);
-                } else if (rhs instanceof InvokeExpr) {
-                    InvokeExpr invokeExpr = (InvokeExpr) rhs;
-                    SootClass classTag = this.returnType(scene, invokeExpr.getMethod());
-                    localMap.put(lhs, classTag);
-                }
+            if (receiver != null && !method.isStatic()) {
+                typeAssignmentGraph.addNode(receiver);
+                typeAssignmentGraph.addNode(calleeBody.getThisLocal());
+                typeAssignmentGraph.addEdge(receiver, calleeBody.getThisLocal());
             }
-        }
-        for (Unit unit : body.getUnits()) {
-            if (unit instanceof JReturnStmt) {
-                JReturnStmt returnStmt = (JReturnStmt) unit;
-                Value returnOP = returnStmt.getOp();
-                return localMap.get(returnOP);
-            }
-        }
-        return scene.getSootClass(method.getReturnType().toString());
-    }
-
-    // Propagate type iterating through Type Assignment Graph
-    private void propagateType(TypeAssignmentGraph typeAssignmentGraph) {
-        Queue<Pair<Value, Set<SootClass>>> queue = new ArrayDeque<>();
-        for (Pair<Value, Set<SootClass>> pair : typeAssignmentGraph.getTaggedNodes()) {
-            queue.add(pair);
 
-            while (!queue.isEmpty()) {
-                Pair<Value, Set<SootClass>> src = queue.poll();
-                Set<Value> targets = typeAssignmentGraph.getTargetsFor(src.first);
-
-                for (Value target : targets) {
-                    for (SootClass cls: src.second) {
-                        typeAssignmentGraph.tagNode(target, cls);
-                    }
-                    queue.add(new Pair<>(target, typeAssignmentGraph.getNodeTags(target)));
+            for (Value value : calleeBody.getParameterRefs()) {
+                ParameterRef parameterRef = (ParameterRef) value;
+                if (parameterRef == null || parameterRef.getIndex() >= args.size())
+                    continue;
+                Value arg = args.get(parameterRef.getIndex());
+                if (!(arg instanceof Constant)) {
+                    typeAssignmentGraph.addNode(arg);
+                    typeAssignmentGraph.addNode(parameterRef);
+                    typeAssignmentGraph.addEdge(arg, parameterRef);
                 }
             }
         }
     }
 
-    // Decide whether method is reachable using Variable Type graph
-    private boolean isFeasibleMethod(TypeAssignmentGraph typeAssignmentGraph, SootMethod method) {
-        SootClass destClass = method.getDeclaringClass();
-        Queue<Value> queue = new ArrayDeque<>();
-
-        // Set up entries
-        for (Pair<Value, Set<SootClass>> pair : typeAssignmentGraph.getTaggedNodes()) {
-            if (pair.second.contains(destClass)) {
-                queue.add(pair.first);
+    // Add edges from the receiver and the arguments that summarized callees may return to the result of the call
+    private void addSummarizedFlows(TypeAssignmentGraph typeAssignmentGraph, CallGraph initialCallGraph, Unit callSite,
+                                    InvokeExpr invokeExpr, Value result) {
+        for (SootMethod method : initialCallGraph.edgesOutOf(callSite)) {
+            if (!isSummarized(method))
+                continue;
+            for (int parameter : this.getLibrarySummaries().summaryOf(method).parametersFlowingToReturn()) {
+                Value source;
+                if (parameter == -1)
+                    source = invokeExpr instanceof InstanceInvokeExpr ? ((InstanceInvokeExpr) invokeExpr).getBase() : null;
+                else
+                    source = parameter < invokeExpr.getArgCount() ? invokeExpr.getArg(parameter) : null;
+                if (source == null || source instanceof Constant)
+                    continue;
+                typeAssignmentGraph.addNode(source);
+                typeAssignmentGraph.addEdge(source, result);
             }
         }
-
-        while (!queue.isEmpty()) {
-            Value srcValue = queue.poll();
-            if (typeAssignmentGraph.getNodeTags(srcValue).contains(destClass))
-                return true;
-            queue.addAll(typeAssignmentGraph.getTargetsFor(srcValue));
-        }
-        return false;
     }
 
     /**
-     * You can use this class to represent your type assignment graph.
-     * We do not use this data structure in tests, so you are free to use something else.
-     * However, we use this data structure in our solution and it instantly supports collapsing strong-connected components.
+     * Returns the methods that the types reaching the receiver of a virtual call site dispatch to,
+     * or null if the call site is not pruned: non-virtual calls and receivers no type reaches keep all CHA targets.
      */
-    private class TypeAssignmentGraph {
-        private final Graph graph;
-        private TarjanStronglyConnectedComponents tscc = new TarjanStronglyConnectedComponents();
-
-        public TypeAssignmentGraph() {
-            this.graph = new MultiGraph("tag");
-        }
-
-        private boolean containsNode(Value value) {
-            return graph.getNode(createId(value)) != null;
-        }
-
-        private boolean containsEdge(Value source, Value target) {
-            return graph.getEdge(createId(source) + "-" + createId(target)) != null;
-        }
-
-        private String createId(Value value) {
-            if (value instanceof FieldRef)
-                return value.toString();
-            return Integer.toHexString(System.identityHashCode(value));
-        }
-
-        public void addNode(Value value) {
-            if (!containsNode(value)) {
-                Node node = graph.addNode(createId(value));
-                node.setAttribute("value", value);
-                node.setAttribute("ui.label", value);
-                node.setAttribute("tags", new HashSet<SootClass>());
+    private Set<SootMethod> feasibleTargets(TypeAssignmentGraph typeAssignmentGraph, DispatchCache dispatchCache,
+                                            Integer receiver, Unit callSite) {
+        if (receiver == null)
+            return null;
+        TypeSetStore.TypeSet types = typeAssignmentGraph.getNodeTypes(receiver);
+        if (types == null || types.isEmpty())
+            return null;
+
+        String subSignature = ((Stmt) callSite).getInvokeExpr().getMethodRef().getSubSignature().getString();
+        Set<SootMethod> targets = new HashSet<>();
+        for (int t = types.nextType(0); t >= 0; t = types.nextType(t + 1)) {
+            SootClass type = typeAssignmentGraph.typeAt(t);
+            if (type.isConcrete()) {
+                SootMethod target = dispatchCache.dispatch(type, subSignature);
+                if (target != null)
+                    targets.add(target);
+            } else {
+                // declared types from bodiless methods stand for any of their subtypes
+                targets.addAll(dispatchCache.virtualTargets(type, subSignature));
             }
         }
-
-        public void tagNode(Value value, SootClass classTag) {
-            if (containsNode(value))
-                getNodeTags(value).add(classTag);
-        }
-
-        public Set<Pair<Value, Set<SootClass>>> getTaggedNodes() {
-            return graph.getNodeSet().stream()
-                    .map(n -> new Pair<Value, Set<SootClass>>(n.getAttribute("value"), (Set<SootClass>) n.getAttribute("tags")))
-                    .filter(p -> p.second.size() > 0)
-                    .collect(Collectors.toSet());
-        }
-
-        public Set<SootClass> getNodeTags(Value val) {
-            return ((Set<SootClass>) graph.getNode(createId(val)).getAttribute("tags"));
-        }
-
-        public void addEdge(Value source, Value target) {
-            if (!containsEdge(source, target)) {
-                Node sourceNode = graph.getNode(createId(source));
-                Node targetNode = graph.getNode(createId(target));
-                if (sourceNode == null || targetNode == null)
-                    log.error("Could not find one of the nodes. Source: " + sourceNode + " - Target: " + targetNode);
-                graph.addEdge(createId(source) + "-" + createId(target),
-                        sourceNode,
-                        targetNode, true);
-            }
-
-        }
-
-        public Set<Value> getTargetsFor(Value initialNode) {
-            if (!containsNode(initialNode)) return Collections.emptySet();
-            Node source = graph.getNode(createId(initialNode));
-            Collection<Edge> edges = source.getLeavingEdgeSet();
-            return edges.stream()
-                    .map(e -> (Value) e.getTargetNode().getAttribute("value"))
-                    .collect(Collectors.toSet());
-        }
-
-        /**
-         * Use this method to start the SCC computation.
-         */
-        public void annotateScc() {
-            tscc.init(graph);
-            tscc.compute();
-        }
-
-        /**
-         * Retrieve the index assigned by the SCC algorithm
-         * @param value
-         * @return
-         */
-        public Object getSccIndex(Value value) {
-            if(!containsNode(value)) return null;
-            return graph.getNode(createId(value)).getAttribute(tscc.getSCCIndexAttribute());
-        }
-
-        /**
-         * Use this method to inspect your type assignment graph
-         */
-        public void draw() {
-            graph.display();
-        }
-    }
-
-    private class Pair<A, B> {
-        final A first;
-        final B second;
-
-        public Pair(A first, B second) {
-            this.first = first;
-            this.second = second;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            Pair<?, ?> pair = (Pair<?, ?>) o;
-
-            if (first != null ? !first.equals(pair.first) : pair.first != null) return false;
-            return second != null ? second.equals(pair.second) : pair.second == null;
-        }
-
-        @Override
-        public int hashCode() {
-            int result = first != null ? first.hashCode() : 0;
-            result = 31 * result + (second != null ? second.hashCode() : 0);
-            return result;
-        }
-
-        @Override
-        public String toString() {
-            return "(" + first +
-                    ", " + second +
-                    ')';
-        }
+        return targets;
     }
 
 }
@@ -0,0 +1,549 @@
+package analysis.exercise4;
+
+import analysis.CallGraph;
+import analysis.CallGraphAlgorithm;
+import analysis.DispatchCache;
+import analysis.TypeHierarchy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.Local;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AnyNewExpr;
+import soot.jimple.ArrayRef;
+import soot.jimple.CastExpr;
+import soot.jimple.ClassConstant;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IdentityStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.ThisRef;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Context-sensitive points-to analysis with an on-the-fly call graph, either k-object-sensitive
+ * (contexts are the allocation sites of the receiver chain) or k-call-site-sensitive (k-CFA).
+ * Heap objects are qualified with the first k - 1 elements of the allocating method's context.
+ * <p>
+ * Once a method has reached maxContextsPerMethod contexts, further contexts of that method are
+ * merged into the empty context. The result is projected onto a context-insensitive CallGraph.
+ */
+public class ContextSensitiveAlgorithm extends CallGraphAlgorithm {
+    private final Logger log = LoggerFactory.getLogger("ContextSensitive");
+
+    public enum Sensitivity {
+        OBJECT,
+        CALL_SITE
+    }
+
+    private final Sensitivity sensitivity;
+    private final int k;
+    private final int maxContextsPerMethod;
+    private ContextTable contexts;
+    private final Map<String, Long> heapUsage = new LinkedHashMap<>();
+    private int contextCallEdgeCount;
+
+    public ContextSensitiveAlgorithm(Sensitivity sensitivity, int k) {
+        this(sensitivity, k, Integer.MAX_VALUE);
+    }
+
+    public ContextSensitiveAlgorithm(Sensitivity sensitivity, int k, int maxContextsPerMethod) {
+        if (k < 0 || maxContextsPerMethod < 1)
+            throw new IllegalArgumentException("k must not be negative and methods need at least one context");
+        this.sensitivity = sensitivity;
+        this.k = k;
+        this.maxContextsPerMethod = maxContextsPerMethod;
+    }
+
+    @Override
+    protected String getAlgorithm() {
+        return (sensitivity == Sensitivity.OBJECT ? k + "-obj" : k + "-CFA");
+    }
+
+    @Override
+    protected void populateCallGraph(Scene scene, CallGraph cg) {
+        heapUsage.clear();
+        recordHeap("start");
+
+        Solver solver = new Solver(scene, this.getDispatchCache(scene));
+        solver.solve(this.getEntryPoints(scene).collect(Collectors.toList()));
+        recordHeap("solve");
+
+        for (ContextCall call : solver.contextCalls) {
+            if (!cg.hasNode(call.caller))
+                cg.addNode(call.caller);
+            if (!cg.hasNode(call.target))
+                cg.addNode(call.target);
+            if (!cg.hasEdge(call.caller, call.callSite, call.target))
+                cg.addEdge(call.caller, call.callSite, call.target);
+        }
+        for (SootMethod method : solver.entryPoints) {
+            if (!cg.hasNode(method))
+                cg.addNode(method);
+        }
+        recordHeap("projection");
+
+        contexts = solver.contexts;
+        contextCallEdgeCount = solver.contextCalls.size();
+        log.debug("{}: {} contexts, {} context-sensitive call edges", getAlgorithm(), contexts.size(), contextCallEdgeCount);
+    }
+
+    private void recordHeap(String phase) {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        heapUsage.put(phase, used);
+        log.info("{}: {} MB heap used after {}", getAlgorithm(), used >> 20, phase);
+    }
+
+    /**
+     * Returns the heap in use after each phase of the last run, in bytes, in phase order.
+     */
+    public Map<String, Long> getHeapUsage() {
+        return Collections.unmodifiableMap(heapUsage);
+    }
+
+    /**
+     * Returns the contexts created by the last run, or null before the first run.
+     */
+    public ContextTable getContextTable() {
+        return contexts;
+    }
+
+    public int getContextCallEdgeCount() {
+        return contextCallEdgeCount;
+    }
+
+    private class Solver {
+        private final DispatchCache dispatchCache;
+        private final TypeHierarchy hierarchy;
+        private final SootClass objectClass;
+        private final ContextTable contexts = new ContextTable();
+        private final PointerAssignmentGraph pag = new PointerAssignmentGraph();
+
+        private final List<SootMethod> entryPoints = new ArrayList<>();
+        private final Set<Contextual> reachable = new HashSet<>();
+        private final Map<SootMethod, Set<Integer>> methodContexts = new HashMap<>();
+        private final Map<SootMethod, MethodLocals> methodLocals = new HashMap<>();
+        private final Set<ContextCall> contextCalls = new HashSet<>();
+
+        private final Map<Integer, List<FieldAccess>> loads = new HashMap<>();
+        private final Map<Integer, List<FieldAccess>> stores = new HashMap<>();
+        private final Map<Integer, List<InstanceCall>> instanceCalls = new HashMap<>();
+        private final Map<Integer, List<CastEdge>> castEdges = new HashMap<>();
+
+        private final Queue<Contextual> methodQueue = new ArrayDeque<>();
+        private PointsToSet[] deltas = new PointsToSet[16];
+        private final Queue<Integer> worklist = new ArrayDeque<>();
+        private final BitSet inWorklist = new BitSet();
+
+        Solver(Scene scene, DispatchCache dispatchCache) {
+            this.dispatchCache = dispatchCache;
+            this.hierarchy = dispatchCache.typeHierarchy();
+            this.objectClass = scene.getObjectType().getSootClass();
+        }
+
+        void solve(List<SootMethod> roots) {
+            for (SootMethod rootMethod : roots) {
+                entryPoints.add(rootMethod);
+                makeReachable(rootMethod, ContextTable.EMPTY);
+            }
+
+            while (!methodQueue.isEmpty() || !worklist.isEmpty()) {
+                if (!methodQueue.isEmpty()) {
+                    Contextual method = methodQueue.poll();
+                    addConstraints((SootMethod) method.value, method.context);
+                    continue;
+                }
+
+                int node = worklist.poll();
+                inWorklist.clear(node);
+                PointsToSet delta = deltas[node];
+                deltas[node] = null;
+                if (delta != null)
+                    process(node, delta);
+            }
+        }
+
+        private void process(int node, PointsToSet delta) {
+            for (int i = 0; i < pag.outDegree(node); i++)
+                propagate(pag.successor(node, i), delta);
+            for (CastEdge edge : castEdges.getOrDefault(node, Collections.emptyList()))
+                propagate(edge.target, filter(delta, edge.type));
+
+            List<FieldAccess> nodeLoads = loads.get(node);
+            List<FieldAccess> nodeStores = stores.get(node);
+            List<InstanceCall> nodeCalls = instanceCalls.get(node);
+            if (nodeLoads == null && nodeStores == null && nodeCalls == null)
+                return;
+
+            delta.forEach(alloc -> {
+                if (nodeLoads != null) {
+                    for (FieldAccess load : new ArrayList<>(nodeLoads))
+                        addEdge(pag.fieldNode(alloc, load.field), load.node);
+                }
+                if (nodeStores != null) {
+                    for (FieldAccess store : new ArrayList<>(nodeStores))
+                        addEdge(store.node, pag.fieldNode(alloc, store.field));
+                }
+                if (nodeCalls != null) {
+                    for (InstanceCall call : new ArrayList<>(nodeCalls))
+                        resolve(call, alloc);
+                }
+            });
+        }
+
+        private PointsToSet filter(PointsToSet set, Type type) {
+            PointsToSet result = new PointsToSet();
+            set.forEach(alloc -> {
+                if (hierarchy.canStoreType(pag.allocType(alloc), type))
+                    result.add(alloc);
+            });
+            return result;
+        }
+
+        private void propagate(int node, PointsToSet set) {
+            PointsToSet added = pag.pointsTo(node).addAllNew(set);
+            if (added == null)
+                return;
+
+            if (node >= deltas.length)
+                deltas = Arrays.copyOf(deltas, Math.max(node + 1, deltas.length * 2));
+            if (deltas[node] == null)
+                deltas[node] = added;
+            else
+                deltas[node].addAllNew(added);
+            if (!inWorklist.get(node)) {
+                inWorklist.set(node);
+                worklist.add(node);
+            }
+        }
+
+        private void addAlloc(int node, int alloc) {
+            PointsToSet set = new PointsToSet();
+            set.add(alloc);
+            propagate(node, set);
+        }
+
+        private void addEdge(int src, int tgt) {
+            if (pag.addEdge(src, tgt))
+                propagate(tgt, pag.pointsTo(src));
+        }
+
+        private int node(Object var, int context) {
+            return pag.pointerNode(new Contextual(var, context));
+        }
+
+        private void makeReachable(SootMethod method, int context) {
+            if (reachable.add(new Contextual(method, context)) && method.hasActiveBody())
+                methodQueue.add(new Contextual(method, context));
+        }
+
+        /**
+         * Returns the context the callee is analyzed in, or the empty context once the callee has used up its contexts.
+         */
+        private int calleeContext(SootMethod target, int context) {
+            Set<Integer> known = methodContexts.computeIfAbsent(target, m -> new HashSet<>());
+            if (known.contains(context))
+                return context;
+            if (known.size() >= maxContextsPerMethod)
+                return ContextTable.EMPTY;
+            known.add(context);
+            return context;
+        }
+
+        private void addConstraints(SootMethod method, int context) {
+            for (Unit unit : method.getActiveBody().getUnits()) {
+                Stmt stmt = (Stmt) unit;
+                if (stmt.containsInvokeExpr())
+                    processCall(method, context, unit, stmt.getInvokeExpr());
+                if (stmt instanceof DefinitionStmt)
+                    processDefinition(context, unit, (DefinitionStmt) stmt);
+                else if (stmt instanceof ReturnStmt) {
+                    int src = sourceNode(((ReturnStmt) stmt).getOp(), context);
+                    if (src != -1)
+                        addEdge(src, node(method, context));
+                }
+            }
+        }
+
+        private void processDefinition(int context, Unit unit, DefinitionStmt stmt) {
+            Value lhs = stmt.getLeftOp();
+            Value rhs = stmt.getRightOp();
+            if (!(lhs.getType() instanceof RefLikeType) || rhs instanceof InvokeExpr || stmt instanceof IdentityStmt)
+                return;
+
+            if (lhs instanceof Local) {
+                int dst = node(lhs, context);
+                if (rhs instanceof AnyNewExpr) {
+                    int heapContext = contexts.truncate(context, k - 1);
+                    addAlloc(dst, pag.allocNode(new Contextual(unit, heapContext), rhs.getType()));
+                } else if (rhs instanceof CastExpr) {
+                    int src = sourceNode(((CastExpr) rhs).getOp(), context);
+                    if (src != -1) {
+                        castEdges.computeIfAbsent(src, n -> new ArrayList<>()).add(new CastEdge(dst, ((CastExpr) rhs).getCastType()));
+                        propagate(dst, filter(pag.pointsTo(src), ((CastExpr) rhs).getCastType()));
+                    }
+                } else if (rhs instanceof InstanceFieldRef) {
+                    InstanceFieldRef ref = (InstanceFieldRef) rhs;
+                    addLoad(node(ref.getBase(), context), pag.fieldId(ref.getField()), dst);
+                } else if (rhs instanceof ArrayRef)
+                    addLoad(node(((ArrayRef) rhs).getBase(), context), PointerAssignmentGraph.ARRAY_ELEMENT, dst);
+                else if (rhs instanceof StaticFieldRef)
+                    addEdge(node(((StaticFieldRef) rhs).getField(), ContextTable.EMPTY), dst);
+                else {
+                    int src = sourceNode(rhs, context);
+                    if (src != -1)
+                        addEdge(src, dst);
+                }
+                return;
+            }
+
+            int src = sourceNode(rhs, context);
+            if (src == -1)
+                return;
+            if (lhs instanceof InstanceFieldRef) {
+                InstanceFieldRef ref = (InstanceFieldRef) lhs;
+                addStore(src, node(ref.getBase(), context), pag.fieldId(ref.getField()));
+            } else if (lhs instanceof ArrayRef)
+                addStore(src, node(((ArrayRef) lhs).getBase(), context), PointerAssignmentGraph.ARRAY_ELEMENT);
+            else if (lhs instanceof StaticFieldRef)
+                addEdge(src, node(((StaticFieldRef) lhs).getField(), ContextTable.EMPTY));
+        }
+
+        // Returns the node a value flows from, or -1 for values that carry no abstract object
+        private int sourceNode(Value value, int context) {
+            if (value instanceof Local)
+                return value.getType() instanceof RefLikeType ? node(value, context) : -1;
+            if (value instanceof StringConstant || value instanceof ClassConstant) {
+                // all constants of one kind share a single context-insensitive object
+                Type type = value.getType();
+                int node = node(type, ContextTable.EMPTY);
+                addAlloc(node, pag.allocNode(new Contextual(type, ContextTable.EMPTY), type));
+                return node;
+            }
+            return -1;
+        }
+
+        private void addLoad(int base, int field, int dst) {
+            loads.computeIfAbsent(base, n -> new ArrayList<>()).add(new FieldAccess(field, dst));
+            for (int alloc : pag.pointsTo(base).toArray())
+                addEdge(pag.fieldNode(alloc, field), dst);
+        }
+
+        private void addStore(int src, int base, int field) {
+            stores.computeIfAbsent(base, n -> new ArrayList<>()).add(new FieldAccess(field, src));
+            for (int alloc : pag.pointsTo(base).toArray())
+                addEdge(src, pag.fieldNode(alloc, field));
+        }
+
+        private void processCall(SootMethod caller, int context, Unit unit, InvokeExpr invokeExpr) {
+            if (!(invokeExpr instanceof InstanceInvokeExpr)) {
+                SootMethod target = invokeExpr.getMethod();
+                int calleeContext = sensitivity == Sensitivity.CALL_SITE ? contexts.push(contexts.element(unit), context, k) : context;
+                addCall(caller, context, unit, target, calleeContext(target, calleeContext));
+                return;
+            }
+
+            // special invokes have a fixed target but, like virtual ones, are analyzed per receiver object
+            SootMethod fixedTarget = invokeExpr instanceof SpecialInvokeExpr ? invokeExpr.getMethod() : null;
+            int receiver = node(((InstanceInvokeExpr) invokeExpr).getBase(), context);
+            InstanceCall call = new InstanceCall(caller, context, unit, invokeExpr.getMethodRef().getSubSignature().getString(), fixedTarget);
+            instanceCalls.computeIfAbsent(receiver, n -> new ArrayList<>()).add(call);
+            for (int alloc : pag.pointsTo(receiver).toArray())
+                resolve(call, alloc);
+        }
+
+        private void resolve(InstanceCall call, int alloc) {
+            SootMethod target = call.fixedTarget;
+            if (target == null) {
+                Type type = pag.allocType(alloc);
+                target = dispatchCache.dispatch(type instanceof RefType ? ((RefType) type).getSootClass() : objectClass, call.subSignature);
+                if (target == null)
+                    return;
+            }
+
+            int calleeContext;
+            if (sensitivity == Sensitivity.OBJECT) {
+                Contextual receiverObject = (Contextual) pag.allocSite(alloc);
+                calleeContext = contexts.push(contexts.element(receiverObject.value), receiverObject.context, k);
+            } else {
+                calleeContext = contexts.push(contexts.element(call.callSite), call.context, k);
+            }
+            calleeContext = calleeContext(target, calleeContext);
+
+            addCall(call.caller, call.context, call.callSite, target, calleeContext);
+            MethodLocals locals = methodLocals(target);
+            if (locals != null && locals.thisLocal != null)
+                addAlloc(node(locals.thisLocal, calleeContext), alloc);
+        }
+
+        private void addCall(SootMethod caller, int context, Unit callSite, SootMethod target, int calleeContext) {
+            if (!contextCalls.add(new ContextCall(caller, context, callSite, target, calleeContext)))
+                return;
+            makeReachable(target, calleeContext);
+
+            MethodLocals locals = methodLocals(target);
+            Stmt stmt = (Stmt) callSite;
+            InvokeExpr invokeExpr = stmt.getInvokeExpr();
+            if (locals != null) {
+                for (int i = 0; i < invokeExpr.getArgCount() && i < locals.parameterLocals.length; i++) {
+                    int src = sourceNode(invokeExpr.getArg(i), context);
+                    if (src != -1 && locals.parameterLocals[i] != null)
+                        addEdge(src, node(locals.parameterLocals[i], calleeContext));
+                }
+            }
+            if (stmt instanceof DefinitionStmt && ((DefinitionStmt) stmt).getLeftOp().getType() instanceof RefLikeType)
+                addEdge(node(target, calleeContext), node(((DefinitionStmt) stmt).getLeftOp(), context));
+        }
+
+        // Returns the this and reference-typed parameter locals of method, or null if it has no body
+        private MethodLocals methodLocals(SootMethod method) {
+            if (!method.hasActiveBody())
+                return null;
+            MethodLocals locals = methodLocals.get(method);
+            if (locals != null)
+                return locals;
+
+            locals = new MethodLocals(method.getParameterCount());
+            for (Unit unit : method.getActiveBody().getUnits()) {
+                if (!(unit instanceof IdentityStmt))
+                    continue;
+                IdentityStmt stmt = (IdentityStmt) unit;
+                if (!(stmt.getLeftOp().getType() instanceof RefLikeType))
+                    continue;
+                if (stmt.getRightOp() instanceof ThisRef)
+                    locals.thisLocal = (Local) stmt.getLeftOp();
+                else if (stmt.getRightOp() instanceof ParameterRef)
+                    locals.parameterLocals[((ParameterRef) stmt.getRightOp()).getIndex()] = (Local) stmt.getLeftOp();
+            }
+            methodLocals.put(method, locals);
+            return locals;
+        }
+    }
+
+    // A local, static field (always in the empty context), method return value, method or allocation site, in a context
+    private static class Contextual {
+        final Object value;
+        final int context;
+
+        Contextual(Object value, int context) {
+            this.value = value;
+            this.context = context;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Contextual)) return false;
+            Contextual other = (Contextual) o;
+            return context == other.context && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * value.hashCode() + context;
+        }
+    }
+
+    private static class ContextCall {
+        final SootMethod caller;
+        final int context;
+        final Unit callSite;
+        final SootMethod target;
+        final int calleeContext;
+
+        ContextCall(SootMethod caller, int context, Unit callSite, SootMethod target, int calleeContext) {
+            this.caller = caller;
+            this.context = context;
+            this.callSite = callSite;
+            this.target = target;
+            this.calleeContext = calleeContext;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ContextCall)) return false;
+            ContextCall other = (ContextCall) o;
+            return context == other.context && calleeContext == other.calleeContext
+                    && callSite.equals(other.callSite) && target.equals(other.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, callSite, target, calleeContext);
+        }
+    }
+
+    private static class MethodLocals {
+        Local thisLocal;
+        final Local[] parameterLocals;
+
+        MethodLocals(int parameterCount) {
+            parameterLocals = new Local[parameterCount];
+        }
+    }
+
+    private static class FieldAccess {
+        final int field;
+        final int node;
+
+        FieldAccess(int field, int node) {
+            this.field = field;
+            this.node = node;
+        }
+    }
+
+    private static class CastEdge {
+        final int target;
+        final Type type;
+
+        CastEdge(int target, Type type) {
+            this.target = target;
+            this.type = type;
+        }
+    }
+
+    private static class InstanceCall {
+        final SootMethod caller;
+        final int context;
+        final Unit callSite;
+        final String subSignature;
+        final SootMethod fixedTarget;
+
+        InstanceCall(SootMethod caller, int context, Unit callSite, String subSignature, SootMethod fixedTarget) {
+            this.caller = caller;
+            this.context = context;
+            this.callSite = callSite;
+            this.subSignature = subSignature;
+            this.fixedTarget = fixedTarget;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package analysis.exercise4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash-consed calling contexts. A context is a sequence of elements (allocation sites or call sites),
+ * most recent first, stored as a prefix tree: each context id is the pair of its first element and the id
+ * of the remaining context. Equal sequences always get the same id, so contexts compare as ints.
+ */
+public class ContextTable {
+    /** Id of the empty context. */
+    public static final int EMPTY = 0;
+
+    private final Map<Object, Integer> elementIds = new HashMap<>();
+    private final List<Object> elements = new ArrayList<>();
+
+    private final Map<Long, Integer> contextIds = new HashMap<>();
+    private int[] heads = new int[16];
+    private int[] tails = new int[16];
+    private int[] lengths = new int[16];
+    private int contextCount = 1;
+
+    public int size() {
+        return contextCount;
+    }
+
+    /**
+     * Returns the id of element, interning it on first use.
+     */
+    public int element(Object element) {
+        Integer id = elementIds.get(element);
+        if (id == null) {
+            id = elements.size();
+            elements.add(element);
+            elementIds.put(element, id);
+        }
+        return id;
+    }
+
+    public Object elementAt(int element) {
+        return elements.get(element);
+    }
+
+    /**
+     * Returns the context element followed by the first k - 1 elements of tail, so the result has at most k elements.
+     */
+    public int push(int element, int tail, int k) {
+        if (k <= 0)
+            return EMPTY;
+        return cons(element, truncate(tail, k - 1));
+    }
+
+    /**
+     * Returns the context made of the first k elements of context.
+     */
+    public int truncate(int context, int k) {
+        if (lengths[context] <= k)
+            return context;
+        if (k <= 0)
+            return EMPTY;
+        return cons(heads[context], truncate(tails[context], k - 1));
+    }
+
+    private int cons(int element, int tail) {
+        long key = ((long) element << 32) | tail;
+        Integer id = contextIds.get(key);
+        if (id != null)
+            return id;
+
+        id = contextCount++;
+        if (id == heads.length) {
+            heads = Arrays.copyOf(heads, id * 2);
+            tails = Arrays.copyOf(tails, id * 2);
+            lengths = Arrays.copyOf(lengths, id * 2);
+        }
+        heads[id] = element;
+        tails[id] = tail;
+        lengths[id] = lengths[tail] + 1;
+        contextIds.put(key, id);
+        return id;
+    }
+
+    public int length(int context) {
+        return lengths[context];
+    }
+
+    /**
+     * Returns the elements of context, most recent first.
+     */
+    public List<Object> elementsOf(int context) {
+        List<Object> result = new ArrayList<>();
+        for (int c = context; c != EMPTY; c = tails[c])
+            result.add(elements.get(heads[c]));
+        return result;
+    }
+}
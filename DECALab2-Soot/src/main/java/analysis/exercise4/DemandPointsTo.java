@@ -0,0 +1,541 @@
+package analysis.exercise4;
+
+import analysis.CallGraph;
+import analysis.CompactCallGraph;
+import analysis.DispatchCache;
+import analysis.TypeHierarchy;
+import soot.ArrayType;
+import soot.Local;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AnyNewExpr;
+import soot.jimple.ArrayRef;
+import soot.jimple.CastExpr;
+import soot.jimple.ClassConstant;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NullConstant;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.ThisRef;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Demand-driven, field-sensitive points-to queries over a CHA call graph.
+ * A query only adds the constraints of the backward slice of the queried local: its definitions, the
+ * definitions those depend on, and the stores into every field that gets loaded on the way. Matching a
+ * load with the stores into the same field of the same abstract object is the CFL-reachability part.
+ * <p>
+ * Each query runs under a step budget. When the budget runs out the query answers with the CHA types of
+ * the local, and the partially solved graph is kept, so the next query continues where this one stopped.
+ * Once the graph is fully solved, every demanded node holds its final points-to set.
+ */
+public class DemandPointsTo {
+    private final CallGraph callGraph;
+    private final DispatchCache dispatchCache;
+    private final TypeHierarchy hierarchy;
+    private final SootClass objectClass;
+    private final int budget;
+    private final PointerAssignmentGraph pag = new PointerAssignmentGraph();
+
+    private final Map<SootMethod, MethodIndex> methodIndexes = new HashMap<>();
+    // stores into instance fields and array elements by field id, and into static fields, over all CHA methods
+    private Map<Integer, List<Store>> instanceStores;
+    private Map<SootField, List<Store>> staticStores;
+
+    private final BitSet demanded = new BitSet();
+    private final Map<Integer, SootMethod> owners = new HashMap<>();
+    private final Queue<Integer> demands = new ArrayDeque<>();
+    private final Set<Integer> demandedFields = new HashSet<>();
+
+    private final Map<Integer, List<FieldAccess>> loads = new HashMap<>();
+    private final Map<Integer, List<FieldAccess>> stores = new HashMap<>();
+    private final Map<Integer, List<FilteredEdge>> filteredEdges = new HashMap<>();
+    private PointsToSet[] deltas = new PointsToSet[16];
+    private final Queue<Integer> worklist = new ArrayDeque<>();
+    private final BitSet inWorklist = new BitSet();
+
+    private final Map<Local, Result> results = new HashMap<>();
+    private int steps;
+
+    /**
+     * @param callGraph a sound call graph, usually the one built by CHAAlgorithm
+     * @param budget    the number of solver steps a single query may take
+     */
+    public DemandPointsTo(Scene scene, CallGraph callGraph, DispatchCache dispatchCache, int budget) {
+        this.callGraph = callGraph;
+        this.dispatchCache = dispatchCache;
+        this.hierarchy = dispatchCache.typeHierarchy();
+        this.objectClass = scene.getObjectType().getSootClass();
+        this.budget = budget;
+    }
+
+    /**
+     * Answer of a points-to query. Incomplete answers are the CHA approximation of the local's declared type.
+     */
+    public static class Result {
+        public final Set<Type> types;
+        public final boolean complete;
+
+        Result(Set<Type> types, boolean complete) {
+            this.types = Collections.unmodifiableSet(types);
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Returns the types of the objects local, declared in method, may point to.
+     */
+    public Result pointsTo(SootMethod method, Local local) {
+        Result result = results.get(local);
+        if (result != null)
+            return result;
+
+        int node = demand(local, method);
+        steps = 0;
+        if (!solve())
+            return chaResult(local.getType());
+
+        Set<Type> types = new LinkedHashSet<>();
+        pag.pointsTo(node).forEach(alloc -> types.addAll(typesOf(alloc)));
+        result = new Result(types, true);
+        results.put(local, result);
+        return result;
+    }
+
+    /**
+     * Returns the methods a call site in caller may invoke, refined by the points-to set of its receiver.
+     * Falls back to the targets in the CHA call graph when the receiver query does not finish.
+     */
+    public Set<SootMethod> callTargets(SootMethod caller, Unit callSite) {
+        InvokeExpr invokeExpr = ((Stmt) callSite).getInvokeExpr();
+        if (!DispatchCache.isVirtualCall(invokeExpr))
+            return callGraph.edgesOutOf(callSite);
+
+        Result receiverTypes = pointsTo(caller, (Local) ((InstanceInvokeExpr) invokeExpr).getBase());
+        if (!receiverTypes.complete)
+            return callGraph.edgesOutOf(callSite);
+
+        String subSignature = invokeExpr.getMethodRef().getSubSignature().getString();
+        Set<SootMethod> targets = new LinkedHashSet<>();
+        for (Type type : receiverTypes.types) {
+            SootMethod target = dispatchCache.dispatch(type instanceof RefType ? ((RefType) type).getSootClass() : objectClass, subSignature);
+            if (target != null)
+                targets.add(target);
+        }
+        return targets;
+    }
+
+    private Result chaResult(Type declaredType) {
+        Set<Type> types = new LinkedHashSet<>();
+        if (declaredType instanceof RefType) {
+            for (SootClass cls : dispatchCache.concreteSubtypes(((RefType) declaredType).getSootClass()))
+                types.add(cls.getType());
+        } else if (declaredType instanceof ArrayType)
+            types.add(declaredType);
+        return new Result(types, false);
+    }
+
+    private Set<Type> typesOf(int alloc) {
+        Object site = pag.allocSite(alloc);
+        if (site instanceof Unknown)
+            return chaResult(((Unknown) site).type).types;
+        return Collections.singleton(pag.allocType(alloc));
+    }
+
+    // Expands pending demands and propagates deltas until both run dry or the budget is spent
+    private boolean solve() {
+        while (!demands.isEmpty() || !worklist.isEmpty()) {
+            if (steps++ >= budget)
+                return false;
+            if (!demands.isEmpty()) {
+                expand(demands.poll());
+                continue;
+            }
+
+            int node = worklist.poll();
+            inWorklist.clear(node);
+            PointsToSet delta = deltas[node];
+            deltas[node] = null;
+            if (delta != null)
+                process(node, delta);
+        }
+        return true;
+    }
+
+    private int demand(Local local, SootMethod method) {
+        int node = pag.pointerNode(local);
+        if (!demanded.get(node)) {
+            demanded.set(node);
+            owners.put(node, method);
+            demands.add(node);
+        }
+        return node;
+    }
+
+    private int demandReturn(SootMethod method) {
+        int node = pag.returnNode(method);
+        if (!demanded.get(node)) {
+            demanded.set(node);
+            demands.add(node);
+        }
+        return node;
+    }
+
+    private int demandStatic(SootField field) {
+        int node = pag.pointerNode(field);
+        if (!demanded.get(node)) {
+            demanded.set(node);
+            demands.add(node);
+        }
+        return node;
+    }
+
+    private void expand(int node) {
+        Object key = pag.pointerAt(node);
+        if (key instanceof Local) {
+            SootMethod method = owners.get(node);
+            for (DefinitionStmt definition : methodIndex(method).definitions.getOrDefault(key, Collections.emptyList()))
+                expandDefinition(node, method, definition);
+        } else if (key instanceof SootMethod) {
+            SootMethod method = (SootMethod) key;
+            for (Value value : methodIndex(method).returned)
+                addSource(value, method, node);
+        } else if (key instanceof SootField) {
+            indexStores();
+            for (Store store : staticStores.getOrDefault(key, Collections.emptyList()))
+                addSource(store.source, store.method, node);
+        }
+    }
+
+    private void expandDefinition(int node, SootMethod method, DefinitionStmt definition) {
+        Value rhs = definition.getRightOp();
+        Type declaredType = definition.getLeftOp().getType();
+        if (rhs instanceof ParameterRef) {
+            int index = ((ParameterRef) rhs).getIndex();
+            for (CallSite site : callSitesInto(method))
+                addSource(site.invokeExpr().getArg(index), site.caller, node);
+        } else if (rhs instanceof ThisRef) {
+            for (CallSite site : callSitesInto(method)) {
+                InvokeExpr invokeExpr = site.invokeExpr();
+                int receiver = demand((Local) ((InstanceInvokeExpr) invokeExpr).getBase(), site.caller);
+                String subSignature = DispatchCache.isVirtualCall(invokeExpr) ? invokeExpr.getMethodRef().getSubSignature().getString() : null;
+                addFilteredEdge(receiver, new FilteredEdge(node, null, subSignature, method));
+            }
+        } else if (rhs instanceof AnyNewExpr)
+            addAlloc(node, pag.allocNode(definition, rhs.getType()));
+        else if (rhs instanceof CastExpr) {
+            int src = sourceNode(((CastExpr) rhs).getOp(), method);
+            if (src != -1)
+                addFilteredEdge(src, new FilteredEdge(node, ((CastExpr) rhs).getCastType(), null, null));
+        } else if (rhs instanceof InstanceFieldRef) {
+            InstanceFieldRef ref = (InstanceFieldRef) rhs;
+            addLoad(demand((Local) ref.getBase(), method), pag.fieldId(ref.getField()), node);
+        } else if (rhs instanceof ArrayRef)
+            addLoad(demand((Local) ((ArrayRef) rhs).getBase(), method), PointerAssignmentGraph.ARRAY_ELEMENT, node);
+        else if (rhs instanceof StaticFieldRef)
+            addEdge(demandStatic(((StaticFieldRef) rhs).getField()), node);
+        else if (rhs instanceof InvokeExpr) {
+            Set<SootMethod> targets = callGraph.edgesOutOf((Unit) definition);
+            for (SootMethod target : targets) {
+                if (target.hasActiveBody())
+                    addEdge(demandReturn(target), node);
+                else if (!target.isAbstract())
+                    addAlloc(node, unknown(declaredType));
+            }
+            if (targets.isEmpty())
+                addAlloc(node, unknown(declaredType));
+        } else if (rhs instanceof Local || rhs instanceof StringConstant || rhs instanceof ClassConstant) {
+            int src = sourceNode(rhs, method);
+            if (src != -1)
+                addEdge(src, node);
+        } else if (!(rhs.getType() instanceof RefLikeType) || rhs instanceof NullConstant) {
+            // carries no object
+        } else {
+            // caught exceptions and anything else not modelled
+            addAlloc(node, unknown(declaredType));
+        }
+    }
+
+    private int unknown(Type declaredType) {
+        return pag.allocNode(new Unknown(declaredType), declaredType);
+    }
+
+    private void addSource(Value value, SootMethod method, int tgt) {
+        int src = sourceNode(value, method);
+        if (src != -1)
+            addEdge(src, tgt);
+    }
+
+    // Returns the node a value flows from, or -1 for values that carry no abstract object
+    private int sourceNode(Value value, SootMethod method) {
+        if (value instanceof Local)
+            return value.getType() instanceof RefLikeType ? demand((Local) value, method) : -1;
+        if (value instanceof StringConstant || value instanceof ClassConstant) {
+            Type type = value.getType();
+            int node = pag.pointerNode(type);
+            demanded.set(node);
+            addAlloc(node, pag.allocNode(type, type));
+            return node;
+        }
+        return -1;
+    }
+
+    private void addLoad(int base, int field, int dst) {
+        loads.computeIfAbsent(base, n -> new ArrayList<>()).add(new FieldAccess(field, dst));
+        for (int alloc : pag.pointsTo(base).toArray())
+            addEdge(pag.fieldNode(alloc, field), dst);
+        demandField(field);
+    }
+
+    // Adds every store into field as a constraint, matched against loads through the abstract objects of its base
+    private void demandField(int field) {
+        if (!demandedFields.add(field))
+            return;
+        indexStores();
+        for (Store store : instanceStores.getOrDefault(field, Collections.emptyList())) {
+            int src = sourceNode(store.source, store.method);
+            if (src == -1)
+                continue;
+            int base = demand(store.base, store.method);
+            stores.computeIfAbsent(base, n -> new ArrayList<>()).add(new FieldAccess(field, src));
+            for (int alloc : pag.pointsTo(base).toArray())
+                addEdge(src, pag.fieldNode(alloc, field));
+        }
+    }
+
+    private void addFilteredEdge(int src, FilteredEdge edge) {
+        filteredEdges.computeIfAbsent(src, n -> new ArrayList<>()).add(edge);
+        propagate(edge.target, filter(pag.pointsTo(src), edge));
+    }
+
+    private PointsToSet filter(PointsToSet set, FilteredEdge edge) {
+        PointsToSet result = new PointsToSet();
+        set.forEach(alloc -> {
+            if (pag.allocSite(alloc) instanceof Unknown || accepts(edge, alloc))
+                result.add(alloc);
+        });
+        return result;
+    }
+
+    private boolean accepts(FilteredEdge edge, int alloc) {
+        Type type = pag.allocType(alloc);
+        if (edge.castType != null)
+            return hierarchy.canStoreType(type, edge.castType);
+        if (edge.subSignature == null)
+            return true;
+        SootClass receiverClass = type instanceof RefType ? ((RefType) type).getSootClass() : objectClass;
+        return dispatchCache.dispatch(receiverClass, edge.subSignature) == edge.method;
+    }
+
+    private void process(int node, PointsToSet delta) {
+        for (int i = 0; i < pag.outDegree(node); i++)
+            propagate(pag.successor(node, i), delta);
+        for (FilteredEdge edge : filteredEdges.getOrDefault(node, Collections.emptyList()))
+            propagate(edge.target, filter(delta, edge));
+
+        List<FieldAccess> nodeLoads = loads.get(node);
+        List<FieldAccess> nodeStores = stores.get(node);
+        if (nodeLoads == null && nodeStores == null)
+            return;
+        delta.forEach(alloc -> {
+            if (nodeLoads != null) {
+                for (FieldAccess load : new ArrayList<>(nodeLoads))
+                    addEdge(pag.fieldNode(alloc, load.field), load.node);
+            }
+            if (nodeStores != null) {
+                for (FieldAccess store : new ArrayList<>(nodeStores))
+                    addEdge(store.node, pag.fieldNode(alloc, store.field));
+            }
+        });
+    }
+
+    private void propagate(int node, PointsToSet set) {
+        PointsToSet added = pag.pointsTo(node).addAllNew(set);
+        if (added == null)
+            return;
+
+        if (node >= deltas.length)
+            deltas = Arrays.copyOf(deltas, Math.max(node + 1, deltas.length * 2));
+        if (deltas[node] == null)
+            deltas[node] = added;
+        else
+            deltas[node].addAllNew(added);
+        if (!inWorklist.get(node)) {
+            inWorklist.set(node);
+            worklist.add(node);
+        }
+    }
+
+    private void addAlloc(int node, int alloc) {
+        PointsToSet set = new PointsToSet();
+        set.add(alloc);
+        propagate(node, set);
+    }
+
+    private void addEdge(int src, int tgt) {
+        if (pag.addEdge(src, tgt))
+            propagate(tgt, pag.pointsTo(src));
+    }
+
+    private List<CallSite> callSitesInto(SootMethod method) {
+        if (!callGraph.hasNode(method))
+            return Collections.emptyList();
+        List<CallSite> sites = new ArrayList<>();
+        for (SootMethod caller : callGraph.edgesInto(method)) {
+            for (Unit unit : callGraph.callSitesIn(caller)) {
+                if (callGraph.edgesOutOf(unit).contains(method))
+                    sites.add(new CallSite(caller, unit));
+            }
+        }
+        return sites;
+    }
+
+    private MethodIndex methodIndex(SootMethod method) {
+        MethodIndex index = methodIndexes.get(method);
+        if (index != null)
+            return index;
+
+        index = new MethodIndex();
+        if (method.hasActiveBody()) {
+            for (Unit unit : method.getActiveBody().getUnits()) {
+                if (unit instanceof DefinitionStmt && ((DefinitionStmt) unit).getLeftOp() instanceof Local)
+                    index.definitions.computeIfAbsent((Local) ((DefinitionStmt) unit).getLeftOp(), l -> new ArrayList<>()).add((DefinitionStmt) unit);
+                else if (unit instanceof ReturnStmt)
+                    index.returned.add(((ReturnStmt) unit).getOp());
+            }
+        }
+        methodIndexes.put(method, index);
+        return index;
+    }
+
+    private void indexStores() {
+        if (instanceStores != null)
+            return;
+        instanceStores = new HashMap<>();
+        staticStores = new HashMap<>();
+
+        CompactCallGraph methods = callGraph.compact();
+        for (int i = 0; i < methods.nodeCount(); i++) {
+            SootMethod method = methods.methodAt(i);
+            if (!method.hasActiveBody())
+                continue;
+            for (Unit unit : method.getActiveBody().getUnits()) {
+                if (!(unit instanceof DefinitionStmt))
+                    continue;
+                Value lhs = ((DefinitionStmt) unit).getLeftOp();
+                Value rhs = ((DefinitionStmt) unit).getRightOp();
+                if (lhs instanceof InstanceFieldRef) {
+                    InstanceFieldRef ref = (InstanceFieldRef) lhs;
+                    instanceStores.computeIfAbsent(pag.fieldId(ref.getField()), f -> new ArrayList<>())
+                            .add(new Store(method, (Local) ref.getBase(), rhs));
+                } else if (lhs instanceof ArrayRef) {
+                    instanceStores.computeIfAbsent(PointerAssignmentGraph.ARRAY_ELEMENT, f -> new ArrayList<>())
+                            .add(new Store(method, (Local) ((ArrayRef) lhs).getBase(), rhs));
+                } else if (lhs instanceof StaticFieldRef) {
+                    staticStores.computeIfAbsent(((StaticFieldRef) lhs).getField(), f -> new ArrayList<>())
+                            .add(new Store(method, null, rhs));
+                }
+            }
+        }
+    }
+
+    private static class MethodIndex {
+        final Map<Local, List<DefinitionStmt>> definitions = new HashMap<>();
+        final List<Value> returned = new ArrayList<>();
+    }
+
+    private static class Store {
+        final SootMethod method;
+        final Local base;
+        final Value source;
+
+        Store(SootMethod method, Local base, Value source) {
+            this.method = method;
+            this.base = base;
+            this.source = source;
+        }
+    }
+
+    private static class CallSite {
+        final SootMethod caller;
+        final Unit unit;
+
+        CallSite(SootMethod caller, Unit unit) {
+            this.caller = caller;
+            this.unit = unit;
+        }
+
+        InvokeExpr invokeExpr() {
+            return ((Stmt) unit).getInvokeExpr();
+        }
+    }
+
+    private static class FieldAccess {
+        final int field;
+        final int node;
+
+        FieldAccess(int field, int node) {
+            this.field = field;
+            this.node = node;
+        }
+    }
+
+    // Edge that only lets objects of castType through, or, for a this parameter, objects dispatching to method
+    private static class FilteredEdge {
+        final int target;
+        final Type castType;
+        final String subSignature;
+        final SootMethod method;
+
+        FilteredEdge(int target, Type castType, String subSignature, SootMethod method) {
+            this.target = target;
+            this.castType = castType;
+            this.subSignature = subSignature;
+            this.method = method;
+        }
+    }
+
+    // Placeholder object for values the analysis does not model, answered with the CHA types of its declared type
+    private static class Unknown {
+        final Type type;
+
+        Unknown(Type type) {
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Unknown && ((Unknown) o).type.equals(type);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package analysis.exercise4;
+
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pointer assignment graph for a subset-based points-to analysis.
+ * Pointer nodes (locals, static fields, method returns and instance fields of abstract objects) and
+ * allocation sites are numbered separately, so points-to sets can hold allocation ids as plain bits.
+ * An edge src --> tgt means that everything src points to flows into tgt.
+ */
+public class PointerAssignmentGraph {
+    /** Field id used for the elements of any array. */
+    public static final int ARRAY_ELEMENT = 0;
+
+    private final Map<Object, Integer> pointerIds = new HashMap<>();
+    private final Map<SootMethod, Integer> returnIds = new HashMap<>();
+    private final Map<Long, Integer> fieldNodeIds = new HashMap<>();
+    private final List<Object> pointers = new ArrayList<>();
+
+    private final Map<Object, Integer> allocIds = new HashMap<>();
+    private final List<Object> allocSites = new ArrayList<>();
+    private final List<Type> allocTypes = new ArrayList<>();
+
+    private final Map<SootField, Integer> fieldIds = new HashMap<>();
+
+    private int[][] successors = new int[16][];
+    private int[] successorCounts = new int[16];
+    private PointsToSet[] pointsTo = new PointsToSet[16];
+    // union-find over the nodes merged by a solver, each node starts as its own representative
+    private int[] parent = new int[16];
+    private final Set<Long> edges = new HashSet<>();
+
+    public int pointerCount() {
+        return pointers.size();
+    }
+
+    public int allocCount() {
+        return allocSites.size();
+    }
+
+    public int edgeCount() {
+        return edges.size();
+    }
+
+    /**
+     * Returns the node of a local or static field, creating it on first use.
+     */
+    public int pointerNode(Object key) {
+        Integer id = pointerIds.get(key);
+        if (id == null) {
+            id = newPointer(key);
+            pointerIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the node of a local or static field, or -1 if the graph does not contain it.
+     */
+    public int findPointerNode(Object key) {
+        Integer id = pointerIds.get(key);
+        return id == null ? -1 : id;
+    }
+
+    public int returnNode(SootMethod method) {
+        Integer id = returnIds.get(method);
+        if (id == null) {
+            id = newPointer(method);
+            returnIds.put(method, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the node for field of the abstract object alloc, creating it on first use.
+     */
+    public int fieldNode(int alloc, int field) {
+        long key = ((long) alloc << 32) | field;
+        Integer id = fieldNodeIds.get(key);
+        if (id == null) {
+            id = newPointer(key);
+            fieldNodeIds.put(key, id);
+        }
+        return id;
+    }
+
+    public int fieldId(SootField field) {
+        // ids start at one, ARRAY_ELEMENT is reserved
+        return fieldIds.computeIfAbsent(field, f -> fieldIds.size() + 1);
+    }
+
+    /**
+     * Returns the abstract object allocated at site, creating it with the given type on first use.
+     */
+    public int allocNode(Object site, Type type) {
+        Integer id = allocIds.get(site);
+        if (id == null) {
+            id = allocSites.size();
+            allocSites.add(site);
+            allocTypes.add(type);
+            allocIds.put(site, id);
+        }
+        return id;
+    }
+
+    public Object allocSite(int alloc) {
+        return allocSites.get(alloc);
+    }
+
+    public Type allocType(int alloc) {
+        return allocTypes.get(alloc);
+    }
+
+    public Object pointerAt(int node) {
+        return pointers.get(node);
+    }
+
+    private int newPointer(Object key) {
+        int id = pointers.size();
+        pointers.add(key);
+        if (id == successors.length) {
+            int capacity = id * 2;
+            successors = Arrays.copyOf(successors, capacity);
+            successorCounts = Arrays.copyOf(successorCounts, capacity);
+            pointsTo = Arrays.copyOf(pointsTo, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+        }
+        successors[id] = new int[2];
+        pointsTo[id] = new PointsToSet();
+        parent[id] = id;
+        return id;
+    }
+
+    /**
+     * Adds the edge src --> tgt and returns false if it already existed.
+     */
+    public boolean addEdge(int src, int tgt) {
+        if (src >= pointers.size() || tgt >= pointers.size())
+            throw new IllegalArgumentException("Node " + Math.max(src, tgt) + " is not in the graph");
+        if (!edges.add(((long) src << 32) | tgt))
+            return false;
+        if (successorCounts[src] == successors[src].length)
+            successors[src] = Arrays.copyOf(successors[src], successors[src].length * 2);
+        successors[src][successorCounts[src]++] = tgt;
+        return true;
+    }
+
+    public boolean hasEdge(int src, int tgt) {
+        return edges.contains(((long) src << 32) | tgt);
+    }
+
+    public int outDegree(int node) {
+        return successorCounts[node];
+    }
+
+    public int successor(int node, int i) {
+        return successors[node][i];
+    }
+
+    /**
+     * Merges node, the representative of a copy cycle, into the representative rep, which takes over node's
+     * points-to set. Every node merged with node resolves to rep afterwards.
+     */
+    public void mergeInto(int node, int rep) {
+        if (representative(node) != node || representative(rep) != rep || node == rep)
+            throw new IllegalArgumentException("Cannot merge " + node + " into " + rep + ", both must be distinct representatives");
+        pointsTo[rep].addAllNew(pointsTo[node]);
+        pointsTo[node] = null;
+        parent[node] = rep;
+    }
+
+    /**
+     * Returns the representative of the nodes merged with node, or node itself.
+     */
+    public int representative(int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+        return node;
+    }
+
+    /**
+     * Returns the live points-to set of node, which is shared by all nodes merged with it.
+     */
+    public PointsToSet pointsTo(int node) {
+        return pointsTo[representative(node)];
+    }
+}
@@ -0,0 +1,169 @@
+package analysis.exercise4;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of allocation site ids. Small sets are kept as a sorted int array; once a set grows past
+ * SPARSE_LIMIT elements it switches to a bitset, so large sets can be merged word by word.
+ */
+public class PointsToSet {
+    static final int SPARSE_LIMIT = 16;
+
+    private int[] sparse = new int[4];
+    private int size;
+    private long[] words;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isDense() {
+        return words != null;
+    }
+
+    public boolean contains(int element) {
+        if (words != null) {
+            int word = element >>> 6;
+            return word < words.length && (words[word] & (1L << element)) != 0;
+        }
+        return Arrays.binarySearch(sparse, 0, size, element) >= 0;
+    }
+
+    public boolean containsAll(PointsToSet other) {
+        if (other.size > size)
+            return false;
+        if (words != null && other.words != null) {
+            for (int i = 0; i < other.words.length; i++) {
+                long word = i < words.length ? words[i] : 0;
+                if ((other.words[i] & ~word) != 0)
+                    return false;
+            }
+            return true;
+        }
+        for (int element : other.toArray()) {
+            if (!contains(element))
+                return false;
+        }
+        return true;
+    }
+
+    public boolean add(int element) {
+        if (words != null) {
+            int word = element >>> 6;
+            if (word >= words.length)
+                words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+            long bit = 1L << element;
+            if ((words[word] & bit) != 0)
+                return false;
+            words[word] |= bit;
+            size++;
+            return true;
+        }
+
+        int position = Arrays.binarySearch(sparse, 0, size, element);
+        if (position >= 0)
+            return false;
+        if (size == SPARSE_LIMIT) {
+            toDense();
+            return add(element);
+        }
+        position = -position - 1;
+        if (size == sparse.length)
+            sparse = Arrays.copyOf(sparse, Math.min(sparse.length * 2, SPARSE_LIMIT));
+        System.arraycopy(sparse, position, sparse, position + 1, size - position);
+        sparse[position] = element;
+        size++;
+        return true;
+    }
+
+    private void toDense() {
+        int max = sparse[size - 1];
+        words = new long[(max >>> 6) + 1];
+        for (int i = 0; i < size; i++)
+            words[sparse[i] >>> 6] |= 1L << sparse[i];
+        sparse = null;
+    }
+
+    /**
+     * Adds every element of other and returns the elements that were not contained before,
+     * or null if nothing was added. This is the delta that difference propagation pushes on.
+     */
+    public PointsToSet addAllNew(PointsToSet other) {
+        if (other == null || other.isEmpty())
+            return null;
+
+        if (words != null && other.words != null) {
+            if (other.words.length > words.length)
+                words = Arrays.copyOf(words, other.words.length);
+            PointsToSet delta = null;
+            for (int i = 0; i < other.words.length; i++) {
+                long added = other.words[i] & ~words[i];
+                if (added == 0)
+                    continue;
+                words[i] |= added;
+                size += Long.bitCount(added);
+                if (delta == null)
+                    delta = new PointsToSet();
+                delta.addWord(i, added);
+            }
+            return delta;
+        }
+
+        PointsToSet[] delta = new PointsToSet[1];
+        other.forEach(element -> {
+            if (add(element)) {
+                if (delta[0] == null)
+                    delta[0] = new PointsToSet();
+                delta[0].add(element);
+            }
+        });
+        return delta[0];
+    }
+
+    private void addWord(int index, long bits) {
+        for (long remaining = bits; remaining != 0; remaining &= remaining - 1)
+            add((index << 6) + Long.numberOfTrailingZeros(remaining));
+    }
+
+    public void forEach(IntConsumer action) {
+        if (words != null) {
+            for (int i = 0; i < words.length; i++) {
+                for (long remaining = words[i]; remaining != 0; remaining &= remaining - 1)
+                    action.accept((i << 6) + Long.numberOfTrailingZeros(remaining));
+            }
+        } else {
+            for (int i = 0; i < size; i++)
+                action.accept(sparse[i]);
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[size];
+        int[] next = new int[1];
+        forEach(element -> result[next[0]++] = element);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PointsToSet)) return false;
+        PointsToSet other = (PointsToSet) o;
+        return size == other.size && Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,603 @@
+package analysis.exercise4;
+
+import analysis.CallGraph;
+import analysis.DispatchCache;
+import analysis.TypeHierarchy;
+import soot.Body;
+import soot.Local;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AnyNewExpr;
+import soot.jimple.ArrayRef;
+import soot.jimple.CastExpr;
+import soot.jimple.ClassConstant;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IdentityStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.ThisRef;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Subset-based points-to solver that builds its pointer assignment graph and call graph on the fly.
+ * Statements of a method become constraints once the method is reachable, and points-to sets are
+ * propagated by difference: a node only pushes the allocation sites it gained since it was last processed.
+ * Nodes on a copy cycle end up with equal points-to sets, so the cycle detecting strategies merge them
+ * into one representative through a union-find structure.
+ */
+class PointsToSolver {
+    private final CallGraph cg;
+    private final DispatchCache dispatchCache;
+    private final TypeHierarchy hierarchy;
+    private final SootClass objectClass;
+    private final SparkLikeAlgorithm.Propagation propagation;
+    final PointerAssignmentGraph pag = new PointerAssignmentGraph();
+
+    private final Set<SootMethod> reachable = new HashSet<>();
+    private final Map<SootMethod, MethodNodes> methodNodes = new HashMap<>();
+    // complex constraints, keyed by the representative of the base local they depend on
+    private final Map<Integer, List<FieldAccess>> loads = new HashMap<>();
+    private final Map<Integer, List<FieldAccess>> stores = new HashMap<>();
+    private final Map<Integer, List<VirtualCall>> virtualCalls = new HashMap<>();
+    private final Map<Integer, List<CastEdge>> castEdges = new HashMap<>();
+
+    private final Queue<SootMethod> methodQueue = new ArrayDeque<>();
+    private PointsToSet[] deltas = new PointsToSet[16];
+    private final Queue<Integer> worklist = new ArrayDeque<>();
+    private final BitSet inWorklist = new BitSet();
+
+    // copy edges already checked by lazy cycle detection
+    private final Set<Long> checkedEdges = new HashSet<>();
+    private int[] tarjanIndex = new int[0];
+    private int[] tarjanLowLink = new int[0];
+    // scratch arrays of collapseCycles: the Tarjan stack and the explicit DFS call stack
+    private int[] tarjanStack = new int[0];
+    private int[] callNodes = new int[0];
+    private int[] callEdges = new int[0];
+    // empty between searches, every node pushed onto the Tarjan stack is popped with its SCC
+    private final BitSet onStack = new BitSet();
+
+    int propagationCount;
+    int collapsedNodeCount;
+
+    PointsToSolver(Scene scene, CallGraph cg, DispatchCache dispatchCache, SparkLikeAlgorithm.Propagation propagation) {
+        this.cg = cg;
+        this.dispatchCache = dispatchCache;
+        this.hierarchy = dispatchCache.typeHierarchy();
+        this.objectClass = scene.getObjectType().getSootClass();
+        this.propagation = propagation;
+    }
+
+    void solve(List<SootMethod> entryPoints) {
+        for (SootMethod rootMethod : entryPoints) {
+            if (!cg.hasNode(rootMethod))
+                cg.addNode(rootMethod);
+            makeReachable(rootMethod);
+        }
+
+        while (!methodQueue.isEmpty() || !worklist.isEmpty()) {
+            if (!methodQueue.isEmpty()) {
+                addConstraints(methodQueue.poll());
+                continue;
+            }
+            if (propagation == SparkLikeAlgorithm.Propagation.WAVE) {
+                wave();
+                continue;
+            }
+
+            int node = worklist.poll();
+            inWorklist.clear(node);
+            PointsToSet delta = deltas[node];
+            deltas[node] = null;
+            if (delta == null || find(node) != node)
+                continue;
+
+            List<Integer> cycleCandidates = pushCopies(node, delta);
+            pushComplex(node, delta);
+            for (int candidate : cycleCandidates)
+                collapseCycles(new int[]{candidate});
+        }
+    }
+
+    /**
+     * Returns the representative of node's merged cycle, or node itself.
+     */
+    int find(int node) {
+        return pag.representative(node);
+    }
+
+    /**
+     * One round of wave propagation: collapse every copy cycle, push the pending deltas along copy edges
+     * in topological order, so each node is visited once with everything its predecessors gained,
+     * and only then apply the field and call constraints, which may add edges for the next round.
+     */
+    private void wave() {
+        worklist.clear();
+        inWorklist.clear();
+
+        int[] roots = new int[pag.pointerCount()];
+        for (int i = 0; i < roots.length; i++)
+            roots[i] = i;
+        List<Integer> order = collapseCycles(roots);
+
+        List<Integer> changed = new ArrayList<>();
+        List<PointsToSet> changedDeltas = new ArrayList<>();
+        for (int node : order) {
+            PointsToSet delta = node < deltas.length ? deltas[node] : null;
+            if (delta == null)
+                continue;
+            deltas[node] = null;
+            pushCopies(node, delta);
+            changed.add(node);
+            changedDeltas.add(delta);
+        }
+
+        // propagate() queued the nodes it touched, keep only those with a delta left for the next round
+        worklist.clear();
+        inWorklist.clear();
+        for (int i = 0; i < changed.size(); i++)
+            pushComplex(find(changed.get(i)), changedDeltas.get(i));
+        for (int node = 0; node < deltas.length; node++) {
+            if (deltas[node] != null && !inWorklist.get(node)) {
+                inWorklist.set(node);
+                worklist.add(node);
+            }
+        }
+    }
+
+    // Pushes delta along the copy and cast edges of node, returns the successors worth a lazy cycle check
+    private List<Integer> pushCopies(int node, PointsToSet delta) {
+        List<Integer> cycleCandidates = Collections.emptyList();
+        for (int i = 0; i < pag.outDegree(node); i++) {
+            int successor = find(pag.successor(node, i));
+            if (successor == node)
+                continue;
+            propagate(successor, delta);
+
+            if (propagation == SparkLikeAlgorithm.Propagation.LAZY_CYCLE_DETECTION
+                    && sameSet(pag.pointsTo(successor), pag.pointsTo(node))
+                    && checkedEdges.add(((long) node << 32) | successor)) {
+                if (cycleCandidates.isEmpty())
+                    cycleCandidates = new ArrayList<>();
+                cycleCandidates.add(successor);
+            }
+        }
+
+        for (CastEdge edge : castEdges.getOrDefault(node, Collections.emptyList()))
+            propagate(edge.target, filter(delta, edge.type));
+        return cycleCandidates;
+    }
+
+    private static boolean sameSet(PointsToSet a, PointsToSet b) {
+        return a.size() == b.size() && a.containsAll(b);
+    }
+
+    private void pushComplex(int node, PointsToSet delta) {
+        List<FieldAccess> nodeLoads = loads.get(node);
+        List<FieldAccess> nodeStores = stores.get(node);
+        List<VirtualCall> nodeCalls = virtualCalls.get(node);
+        if (nodeLoads == null && nodeStores == null && nodeCalls == null)
+            return;
+
+        delta.forEach(alloc -> {
+            if (nodeLoads != null) {
+                for (FieldAccess load : new ArrayList<>(nodeLoads))
+                    addEdge(pag.fieldNode(alloc, load.field), load.node);
+            }
+            if (nodeStores != null) {
+                for (FieldAccess store : new ArrayList<>(nodeStores))
+                    addEdge(store.node, pag.fieldNode(alloc, store.field));
+            }
+            if (nodeCalls != null) {
+                for (VirtualCall call : new ArrayList<>(nodeCalls))
+                    resolve(call, alloc);
+            }
+        });
+    }
+
+    /**
+     * Runs Tarjan's algorithm over the copy edges reachable from roots, merges every SCC with more than
+     * one node and returns the representatives of the visited SCCs in topological order.
+     */
+    private List<Integer> collapseCycles(int[] roots) {
+        int nodeCount = pag.pointerCount();
+        if (tarjanIndex.length < nodeCount) {
+            // grown geometrically, lazy cycle detection runs this for single roots while the graph grows
+            int oldLength = tarjanIndex.length;
+            int length = Math.max(nodeCount, oldLength * 2);
+            tarjanIndex = Arrays.copyOf(tarjanIndex, length);
+            tarjanLowLink = Arrays.copyOf(tarjanLowLink, length);
+            Arrays.fill(tarjanIndex, oldLength, length, -1);
+            tarjanStack = new int[length];
+            callNodes = new int[length];
+            callEdges = new int[length];
+        }
+
+        List<Integer> visited = new ArrayList<>();
+        List<Integer> completed = new ArrayList<>();
+        int stackSize = 0;
+
+        for (int root : roots) {
+            root = find(root);
+            if (tarjanIndex[root] != -1)
+                continue;
+
+            int depth = 0;
+            callNodes[0] = root;
+            callEdges[0] = 0;
+            tarjanIndex[root] = tarjanLowLink[root] = visited.size();
+            visited.add(root);
+            tarjanStack[stackSize++] = root;
+            onStack.set(root);
+
+            while (depth >= 0) {
+                int node = callNodes[depth];
+                if (callEdges[depth] < pag.outDegree(node)) {
+                    int successor = find(pag.successor(node, callEdges[depth]++));
+                    if (successor == node)
+                        continue;
+                    if (tarjanIndex[successor] == -1) {
+                        tarjanIndex[successor] = tarjanLowLink[successor] = visited.size();
+                        visited.add(successor);
+                        tarjanStack[stackSize++] = successor;
+                        onStack.set(successor);
+                        depth++;
+                        callNodes[depth] = successor;
+                        callEdges[depth] = 0;
+                    } else if (onStack.get(successor)) {
+                        tarjanLowLink[node] = Math.min(tarjanLowLink[node], tarjanIndex[successor]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (depth >= 0)
+                    tarjanLowLink[callNodes[depth]] = Math.min(tarjanLowLink[callNodes[depth]], tarjanLowLink[node]);
+                if (tarjanLowLink[node] != tarjanIndex[node])
+                    continue;
+
+                boolean merged = false;
+                int member;
+                do {
+                    member = tarjanStack[--stackSize];
+                    onStack.clear(member);
+                    if (member != node) {
+                        merge(member, node);
+                        merged = true;
+                    }
+                } while (member != node);
+                if (merged) {
+                    // the members' successors may lack what the others had, push the whole set again
+                    if (node < deltas.length)
+                        deltas[node] = null;
+                    propagateAll(node);
+                }
+                completed.add(node);
+            }
+        }
+
+        for (int node : visited)
+            tarjanIndex[node] = -1;
+        Collections.reverse(completed);
+        return completed;
+    }
+
+    private void merge(int node, int rep) {
+        collapsedNodeCount++;
+        pag.mergeInto(node, rep);
+        for (int i = 0; i < pag.outDegree(node); i++) {
+            int successor = find(pag.successor(node, i));
+            if (successor != rep)
+                pag.addEdge(rep, successor);
+        }
+        moveConstraints(loads, node, rep);
+        moveConstraints(stores, node, rep);
+        moveConstraints(virtualCalls, node, rep);
+        moveConstraints(castEdges, node, rep);
+        if (node < deltas.length)
+            deltas[node] = null;
+    }
+
+    private static <T> void moveConstraints(Map<Integer, List<T>> constraints, int node, int rep) {
+        List<T> moved = constraints.remove(node);
+        if (moved != null)
+            constraints.computeIfAbsent(rep, n -> new ArrayList<>()).addAll(moved);
+    }
+
+    private PointsToSet filter(PointsToSet set, Type type) {
+        PointsToSet result = new PointsToSet();
+        set.forEach(alloc -> {
+            if (hierarchy.canStoreType(pag.allocType(alloc), type))
+                result.add(alloc);
+        });
+        return result;
+    }
+
+    private void propagate(int node, PointsToSet set) {
+        node = find(node);
+        PointsToSet added = pag.pointsTo(node).addAllNew(set);
+        if (added == null)
+            return;
+        propagationCount++;
+        addDelta(node, added);
+    }
+
+    // Queues the whole points-to set of node as its delta
+    private void propagateAll(int node) {
+        PointsToSet all = new PointsToSet().addAllNew(pag.pointsTo(node));
+        if (all != null)
+            addDelta(node, all);
+    }
+
+    private void addDelta(int node, PointsToSet added) {
+        if (node >= deltas.length)
+            deltas = Arrays.copyOf(deltas, Math.max(node + 1, deltas.length * 2));
+        if (deltas[node] == null)
+            deltas[node] = added;
+        else
+            deltas[node].addAllNew(added);
+        if (!inWorklist.get(node)) {
+            inWorklist.set(node);
+            worklist.add(node);
+        }
+    }
+
+    private void addAlloc(int node, int alloc) {
+        PointsToSet set = new PointsToSet();
+        set.add(alloc);
+        propagate(node, set);
+    }
+
+    private void addEdge(int src, int tgt) {
+        src = find(src);
+        tgt = find(tgt);
+        if (src != tgt && pag.addEdge(src, tgt))
+            propagate(tgt, pag.pointsTo(src));
+    }
+
+    private void makeReachable(SootMethod method) {
+        if (reachable.add(method) && method.hasActiveBody())
+            methodQueue.add(method);
+    }
+
+    private void addConstraints(SootMethod method) {
+        Body body = method.getActiveBody();
+        for (Unit unit : body.getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr())
+                processCall(method, unit, stmt.getInvokeExpr());
+            if (stmt instanceof DefinitionStmt)
+                processDefinition(unit, (DefinitionStmt) stmt);
+            else if (stmt instanceof ReturnStmt) {
+                int src = sourceNode(((ReturnStmt) stmt).getOp());
+                if (src != -1)
+                    addEdge(src, pag.returnNode(method));
+            }
+        }
+    }
+
+    private void processDefinition(Unit unit, DefinitionStmt stmt) {
+        Value lhs = stmt.getLeftOp();
+        Value rhs = stmt.getRightOp();
+        if (!(lhs.getType() instanceof RefLikeType) || rhs instanceof InvokeExpr || stmt instanceof IdentityStmt)
+            return;
+
+        if (lhs instanceof Local) {
+            int dst = pag.pointerNode(lhs);
+            if (rhs instanceof AnyNewExpr)
+                addAlloc(dst, pag.allocNode(unit, rhs.getType()));
+            else if (rhs instanceof CastExpr) {
+                int src = sourceNode(((CastExpr) rhs).getOp());
+                if (src != -1)
+                    addCastEdge(src, dst, ((CastExpr) rhs).getCastType());
+            } else if (rhs instanceof InstanceFieldRef) {
+                InstanceFieldRef ref = (InstanceFieldRef) rhs;
+                addLoad(pag.pointerNode(ref.getBase()), pag.fieldId(ref.getField()), dst);
+            } else if (rhs instanceof ArrayRef)
+                addLoad(pag.pointerNode(((ArrayRef) rhs).getBase()), PointerAssignmentGraph.ARRAY_ELEMENT, dst);
+            else if (rhs instanceof StaticFieldRef)
+                addEdge(pag.pointerNode(((StaticFieldRef) rhs).getField()), dst);
+            else {
+                int src = sourceNode(rhs);
+                if (src != -1)
+                    addEdge(src, dst);
+            }
+            return;
+        }
+
+        int src = sourceNode(rhs);
+        if (src == -1)
+            return;
+        if (lhs instanceof InstanceFieldRef) {
+            InstanceFieldRef ref = (InstanceFieldRef) lhs;
+            addStore(src, pag.pointerNode(ref.getBase()), pag.fieldId(ref.getField()));
+        } else if (lhs instanceof ArrayRef)
+            addStore(src, pag.pointerNode(((ArrayRef) lhs).getBase()), PointerAssignmentGraph.ARRAY_ELEMENT);
+        else if (lhs instanceof StaticFieldRef)
+            addEdge(src, pag.pointerNode(((StaticFieldRef) lhs).getField()));
+    }
+
+    // Returns the node a value flows from, or -1 for values that carry no abstract object
+    private int sourceNode(Value value) {
+        if (value instanceof Local)
+            return value.getType() instanceof RefLikeType ? pag.pointerNode(value) : -1;
+        if (value instanceof StringConstant || value instanceof ClassConstant) {
+            // all constants of one kind share a single abstract object
+            Type type = value.getType();
+            int node = pag.pointerNode(type);
+            addAlloc(node, pag.allocNode(type, type));
+            return node;
+        }
+        return -1;
+    }
+
+    private void addCastEdge(int src, int tgt, Type type) {
+        src = find(src);
+        castEdges.computeIfAbsent(src, n -> new ArrayList<>()).add(new CastEdge(tgt, type));
+        propagate(tgt, filter(pag.pointsTo(src), type));
+    }
+
+    private void addLoad(int base, int field, int dst) {
+        base = find(base);
+        loads.computeIfAbsent(base, n -> new ArrayList<>()).add(new FieldAccess(field, dst));
+        for (int alloc : pag.pointsTo(base).toArray())
+            addEdge(pag.fieldNode(alloc, field), dst);
+    }
+
+    private void addStore(int src, int base, int field) {
+        base = find(base);
+        stores.computeIfAbsent(base, n -> new ArrayList<>()).add(new FieldAccess(field, src));
+        for (int alloc : pag.pointsTo(base).toArray())
+            addEdge(src, pag.fieldNode(alloc, field));
+    }
+
+    private void processCall(SootMethod caller, Unit unit, InvokeExpr invokeExpr) {
+        if (!DispatchCache.isVirtualCall(invokeExpr)) {
+            for (SootMethod target : dispatchCache.targetsOf(invokeExpr)) {
+                if (addCall(caller, unit, target) && invokeExpr instanceof InstanceInvokeExpr) {
+                    MethodNodes nodes = methodNodes(target);
+                    int receiver = sourceNode(((InstanceInvokeExpr) invokeExpr).getBase());
+                    if (nodes != null && nodes.thisNode != -1 && receiver != -1)
+                        addEdge(receiver, nodes.thisNode);
+                }
+            }
+            return;
+        }
+
+        int receiver = find(pag.pointerNode(((InstanceInvokeExpr) invokeExpr).getBase()));
+        VirtualCall call = new VirtualCall(caller, unit, invokeExpr.getMethodRef().getSubSignature().getString());
+        virtualCalls.computeIfAbsent(receiver, n -> new ArrayList<>()).add(call);
+        for (int alloc : pag.pointsTo(receiver).toArray())
+            resolve(call, alloc);
+    }
+
+    private void resolve(VirtualCall call, int alloc) {
+        Type type = pag.allocType(alloc);
+        SootClass receiverClass = type instanceof RefType ? ((RefType) type).getSootClass() : objectClass;
+        SootMethod target = dispatchCache.dispatch(receiverClass, call.subSignature);
+        if (target == null)
+            return;
+
+        addCall(call.caller, call.callSite, target);
+        MethodNodes nodes = methodNodes(target);
+        if (nodes != null && nodes.thisNode != -1)
+            addAlloc(nodes.thisNode, alloc);
+    }
+
+    /**
+     * Adds the call edge and, the first time it is seen, the flow of arguments into parameters
+     * and of the returned value back into the call site. Returns false if the edge already existed.
+     */
+    private boolean addCall(SootMethod caller, Unit callSite, SootMethod target) {
+        if (!cg.hasNode(target))
+            cg.addNode(target);
+        if (cg.hasEdge(caller, callSite, target))
+            return false;
+
+        cg.addEdge(caller, callSite, target);
+        makeReachable(target);
+
+        MethodNodes nodes = methodNodes(target);
+        Stmt stmt = (Stmt) callSite;
+        InvokeExpr invokeExpr = stmt.getInvokeExpr();
+        if (nodes != null) {
+            for (int i = 0; i < invokeExpr.getArgCount() && i < nodes.parameterNodes.length; i++) {
+                int src = sourceNode(invokeExpr.getArg(i));
+                if (src != -1 && nodes.parameterNodes[i] != -1)
+                    addEdge(src, nodes.parameterNodes[i]);
+            }
+        }
+        if (stmt instanceof DefinitionStmt && ((DefinitionStmt) stmt).getLeftOp().getType() instanceof RefLikeType)
+            addEdge(pag.returnNode(target), pag.pointerNode(((DefinitionStmt) stmt).getLeftOp()));
+        return true;
+    }
+
+    // Returns the nodes of the this and parameter locals of method, or null if it has no body
+    private MethodNodes methodNodes(SootMethod method) {
+        if (!method.hasActiveBody())
+            return null;
+        MethodNodes nodes = methodNodes.get(method);
+        if (nodes != null)
+            return nodes;
+
+        nodes = new MethodNodes(method.getParameterCount());
+        for (Unit unit : method.getActiveBody().getUnits()) {
+            if (!(unit instanceof IdentityStmt))
+                continue;
+            IdentityStmt stmt = (IdentityStmt) unit;
+            if (!(stmt.getLeftOp().getType() instanceof RefLikeType))
+                continue;
+            if (stmt.getRightOp() instanceof ThisRef)
+                nodes.thisNode = pag.pointerNode(stmt.getLeftOp());
+            else if (stmt.getRightOp() instanceof ParameterRef)
+                nodes.parameterNodes[((ParameterRef) stmt.getRightOp()).getIndex()] = pag.pointerNode(stmt.getLeftOp());
+        }
+        methodNodes.put(method, nodes);
+        return nodes;
+    }
+
+    private static class MethodNodes {
+        int thisNode = -1;
+        final int[] parameterNodes;
+
+        MethodNodes(int parameterCount) {
+            parameterNodes = new int[parameterCount];
+            Arrays.fill(parameterNodes, -1);
+        }
+    }
+
+    private static class FieldAccess {
+        final int field;
+        final int node;
+
+        FieldAccess(int field, int node) {
+            this.field = field;
+            this.node = node;
+        }
+    }
+
+    private static class CastEdge {
+        final int target;
+        final Type type;
+
+        CastEdge(int target, Type type) {
+            this.target = target;
+            this.type = type;
+        }
+    }
+
+    private static class VirtualCall {
+        final SootMethod caller;
+        final Unit callSite;
+        final String subSignature;
+
+        VirtualCall(SootMethod caller, Unit callSite, String subSignature) {
+            this.caller = caller;
+            this.callSite = callSite;
+            this.subSignature = subSignature;
+        }
+    }
+}
@@ -2,11 +2,41 @@ package analysis.exercise4;
 
 import analysis.CallGraph;
 import analysis.CallGraphAlgorithm;
-import analysis.exercise1.CHAAlgorithm;
 import soot.Scene;
 
+import java.util.stream.Collectors;
+
+/**
+ * Andersen-style points-to analysis with an on-the-fly call graph.
+ * Virtual calls are resolved per abstract receiver object, see {@link PointsToSolver}.
+ */
 public class SparkLikeAlgorithm extends CallGraphAlgorithm {
 
+    /**
+     * How points-to deltas are scheduled.
+     */
+    public enum Propagation {
+        /** Plain FIFO worklist, no cycle detection. */
+        WORKLIST,
+        /** FIFO worklist, looking for a cycle whenever a copy edge ends at a node with an equal points-to set. */
+        LAZY_CYCLE_DETECTION,
+        /** Rounds that collapse all copy cycles and push deltas in topological order. */
+        WAVE
+    }
+
+    private final Propagation propagation;
+    private PointerAssignmentGraph pag;
+    private int propagationCount;
+    private int collapsedNodeCount;
+
+    public SparkLikeAlgorithm() {
+        this(Propagation.WAVE);
+    }
+
+    public SparkLikeAlgorithm(Propagation propagation) {
+        this.propagation = propagation;
+    }
+
     @Override
     protected String getAlgorithm() {
         return "SparkLike";
@@ -14,11 +44,32 @@ public class SparkLikeAlgorithm extends CallGraphAlgorithm {
 
     @Override
     protected void populateCallGraph(Scene scene, CallGraph cg) {
-        CallGraph initialCallGraph = new CHAAlgorithm().constructCallGraph(scene);
+        PointsToSolver solver = new PointsToSolver(scene, cg, this.getDispatchCache(scene), propagation);
+        solver.solve(this.getEntryPoints(scene).collect(Collectors.toList()));
+        pag = solver.pag;
+        propagationCount = solver.propagationCount;
+        collapsedNodeCount = solver.collapsedNodeCount;
+    }
 
-        // Your implementation goes here, also feel free to add methods as needed
-        // To get your entry points we prepared getEntryPoints(scene) in the superclass for you
+    /**
+     * Returns the pointer assignment graph of the last constructed call graph, or null before the first run.
+     * Nodes merged into a cycle representative share its points-to set.
+     */
+    public PointerAssignmentGraph getPointerAssignmentGraph() {
+        return pag;
+    }
 
+    /**
+     * Returns how often a points-to set grew during the last run.
+     */
+    public int getPropagationCount() {
+        return propagationCount;
     }
 
+    /**
+     * Returns how many pointer nodes were merged into a cycle representative during the last run.
+     */
+    public int getCollapsedNodeCount() {
+        return collapsedNodeCount;
+    }
 }
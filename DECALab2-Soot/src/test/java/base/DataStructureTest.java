@@ -1,16 +1,53 @@
 package base;
 
+import analysis.BottomUpScheduler;
 import analysis.CallGraph;
+import analysis.CallGraphCondensation;
+import analysis.CallGraphFile;
+import analysis.CompactCallGraph;
 import analysis.Edge;
+import analysis.GraphWriter;
+import analysis.MappedCallGraph;
+import analysis.ProgramGenerator;
+import analysis.ReachabilityIndex;
+import analysis.TypeHierarchy;
+import analysis.exercise3.TypeAssignmentGraph;
+import analysis.exercise3.TypeSetStore;
+import analysis.exercise4.PointerAssignmentGraph;
+import analysis.exercise4.PointsToSet;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import soot.ArrayType;
 import soot.BooleanType;
+import soot.Local;
+import soot.Modifier;
+import soot.NullType;
 import soot.SootClass;
 import soot.SootMethod;
-
+import soot.Unit;
+import soot.jimple.Jimple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.function.Predicate;
 
 public class DataStructureTest {
     @Test
@@ -99,6 +136,50 @@ public class DataStructureTest {
         testCG.addEdge(source, firstMethod);
     }
 
+    @Test
+    public void callGraphIndexes() {
+        SootClass testClass = new SootClass("TestClass");
+        SootMethod a = new SootMethod("a", null, BooleanType.v());
+        SootMethod b = new SootMethod("b", null, BooleanType.v());
+        SootMethod c = new SootMethod("c", null, BooleanType.v());
+        testClass.addMethod(a);
+        testClass.addMethod(b);
+        testClass.addMethod(c);
+
+        CallGraph testCG = new CallGraph("Test");
+        testCG.addNode(a);
+        testCG.addNode(b);
+        testCG.addNode(c);
+        testCG.addEdge(a, b);
+        testCG.addEdge(a, c);
+        testCG.addEdge(c, b);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(b, c)), testCG.edgesOutOf(a));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, c)), testCG.edgesInto(b));
+        Assert.assertEquals(Collections.singleton(a), testCG.edgesInto(c));
+        Assert.assertTrue(testCG.edgesInto(a).isEmpty());
+        Assert.assertTrue(testCG.edgesOutOf(b).isEmpty());
+
+        // a rejected duplicate leaves both indexes unchanged
+        try {
+            testCG.addEdge(a, b);
+            Assert.fail("Duplicate edge accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertTrue(testCG.hasEdge(a, b));
+        Assert.assertFalse(testCG.hasEdge(b, a));
+        Assert.assertEquals(2, testCG.edgesOutOf(a).size());
+        Assert.assertEquals(2, testCG.edgesInto(b).size());
+
+        // the returned sets are live read-only views
+        Set<SootMethod> callers = testCG.edgesInto(b);
+        testCG.removeNode(c);
+        Assert.assertEquals(Collections.singleton(a), callers);
+        Assert.assertEquals(Collections.singleton(b), testCG.edgesOutOf(a));
+        thrown.expect(UnsupportedOperationException.class);
+        callers.add(c);
+    }
+
     @Test
     public void callGraphValidScenario() {
         SootMethod source = new SootMethod("sourceMethod", null, BooleanType.v());
@@ -163,4 +244,608 @@ public class DataStructureTest {
         Assert.assertArrayEquals(new SootMethod[] {secondMethod}, eOutOfFirst.toArray());
         Assert.assertArrayEquals(new SootMethod[] {firstMethod}, eIntoSecond.toArray());
     }
+
+    @Test
+    public void compactCallGraph() {
+        SootMethod source = new SootMethod("sourceMethod", null, BooleanType.v());
+        SootMethod target = new SootMethod("targetMethod", null, BooleanType.v());
+        SootMethod firstMethod = new SootMethod("firstMethod", null, BooleanType.v());
+        SootMethod unknownMethod = new SootMethod("unknownMethod", null, BooleanType.v());
+        SootClass testClass = new SootClass("TestClass");
+        testClass.addMethod(source);
+        testClass.addMethod(target);
+        testClass.addMethod(firstMethod);
+        testClass.addMethod(unknownMethod);
+
+        CallGraph testCG = new CallGraph("Test");
+        testCG.addNode(source);
+        testCG.addNode(target);
+        testCG.addNode(firstMethod);
+        testCG.addEdge(source, target);
+        testCG.addEdge(source, firstMethod);
+        testCG.addEdge(target, firstMethod);
+
+        CompactCallGraph compact = testCG.compact();
+        Assert.assertEquals("Test", compact.algorithm);
+        Assert.assertEquals(3, compact.nodeCount());
+        Assert.assertEquals(3, compact.edgeCount());
+
+        Assert.assertTrue(compact.hasNode(source));
+        Assert.assertFalse(compact.hasNode(unknownMethod));
+        Assert.assertEquals(-1, compact.idOf(unknownMethod));
+        Assert.assertEquals(source, compact.methodAt(compact.idOf(source)));
+
+        Assert.assertTrue(compact.hasEdge(source, target));
+        Assert.assertTrue(compact.hasEdge(target, firstMethod));
+        Assert.assertFalse(compact.hasEdge(firstMethod, source));
+        Assert.assertFalse(compact.hasEdge(source, unknownMethod));
+
+        Assert.assertEquals(testCG.edgesOutOf(source), compact.edgesOutOf(source));
+        Assert.assertEquals(testCG.edgesInto(firstMethod), compact.edgesInto(firstMethod));
+        Assert.assertEquals(0, compact.edgesOutOf(firstMethod).size());
+        Assert.assertEquals(0, compact.edgesInto(unknownMethod).size());
+        Assert.assertEquals(2, compact.outDegree(compact.idOf(source)));
+        Assert.assertEquals(2, compact.inDegree(compact.idOf(firstMethod)));
+
+        // ids follow signature order, independent of identity hashes and insertion order
+        Assert.assertEquals(firstMethod, compact.methodAt(0));
+        Assert.assertEquals(source, compact.methodAt(1));
+        Assert.assertEquals(target, compact.methodAt(2));
+
+        // ids are a dense numbering of every method
+        CallGraph large = new CallGraph("Large");
+        for (int i = 0; i < 5000; i++) {
+            SootMethod method = new SootMethod("m" + i, null, BooleanType.v());
+            testClass.addMethod(method);
+            large.addNode(method);
+        }
+        CompactCallGraph largeCompact = large.compact();
+        for (int id = 0; id < largeCompact.nodeCount(); id++)
+            Assert.assertEquals(id, largeCompact.idOf(largeCompact.methodAt(id)));
+        for (int id = 1; id < largeCompact.nodeCount(); id++)
+            Assert.assertTrue(largeCompact.methodAt(id - 1).getSignature().compareTo(largeCompact.methodAt(id).getSignature()) < 0);
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void callGraphFile() throws IOException {
+        SootMethod source = new SootMethod("sourceMethod", null, BooleanType.v());
+        SootMethod target = new SootMethod("targetMethod", null, BooleanType.v());
+        SootMethod firstMethod = new SootMethod("firstMethod", null, BooleanType.v());
+        SootClass testClass = new SootClass("TestClass");
+        testClass.addMethod(source);
+        testClass.addMethod(target);
+        testClass.addMethod(firstMethod);
+
+        CallGraph testCG = new CallGraph("Test");
+        testCG.addNode(source);
+        testCG.addNode(target);
+        testCG.addNode(firstMethod);
+        testCG.addEdge(source, target);
+        testCG.addEdge(source, firstMethod);
+        testCG.addEdge(target, firstMethod);
+
+        Path classes = folder.newFolder("classes").toPath();
+        Files.write(classes.resolve("A.class"), "first".getBytes(StandardCharsets.UTF_8));
+        byte[] hash = CallGraphFile.hashClasspath(classes.toString());
+
+        Path file = folder.getRoot().toPath().resolve("cg.bin");
+        CallGraphFile.write(testCG, file, hash);
+        MappedCallGraph mapped = CallGraphFile.load(file);
+
+        Assert.assertEquals("Test", mapped.algorithm);
+        Assert.assertEquals(3, mapped.nodeCount());
+        Assert.assertEquals(3, mapped.edgeCount());
+        int sourceId = mapped.idOf(source.getSignature());
+        int firstId = mapped.idOf(firstMethod.getSignature());
+        Assert.assertEquals(source.getSignature(), mapped.signatureAt(sourceId));
+        Assert.assertEquals(-1, mapped.idOf("<TestClass: boolean unknownMethod()>"));
+        Assert.assertTrue(mapped.hasEdge(source.getSignature(), target.getSignature()));
+        Assert.assertTrue(mapped.hasEdge(target.getSignature(), firstMethod.getSignature()));
+        Assert.assertFalse(mapped.hasEdge(firstMethod.getSignature(), source.getSignature()));
+        Assert.assertEquals(2, mapped.outDegree(sourceId));
+        Assert.assertEquals(2, mapped.inDegree(firstId));
+        Assert.assertEquals(0, mapped.outDegree(firstId));
+
+        // signatures are compared as UTF-8 bytes but sorted as Strings, which order U+FF21 and U+1D400 differently
+        CallGraph unicodeCG = new CallGraph("Unicode");
+        for (String name : new String[]{"m\u00e9", "m\uff21", "m\ud835\udc00", "mz", "m\u4e2d"}) {
+            SootMethod method = new SootMethod(name, null, BooleanType.v());
+            testClass.addMethod(method);
+            unicodeCG.addNode(method);
+        }
+        Path unicodeFile = folder.getRoot().toPath().resolve("unicode.bin");
+        CallGraphFile.write(unicodeCG, unicodeFile, hash);
+        MappedCallGraph unicodeMapped = CallGraphFile.load(unicodeFile);
+        for (SootMethod method : unicodeCG.nodes())
+            Assert.assertEquals(method.getSignature(), unicodeMapped.signatureAt(unicodeMapped.idOf(method.getSignature())));
+        Assert.assertEquals(-1, unicodeMapped.idOf("<TestClass: boolean m\ud835\udc01()>"));
+
+        Assert.assertFalse(mapped.isStale(CallGraphFile.hashClasspath(classes.toString())));
+        Files.write(classes.resolve("A.class"), "second".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(mapped.isStale(CallGraphFile.hashClasspath(classes.toString())));
+
+        Path garbage = folder.newFile("garbage.bin").toPath();
+        Files.write(garbage, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        thrown.expect(IOException.class);
+        CallGraphFile.load(garbage);
+    }
+
+    @Test
+    public void callGraphCondensation() {
+        // main -> a <-> b -> leaf, main -> c -> leaf, c -> c
+        SootClass testClass = new SootClass("TestClass");
+        SootMethod main = new SootMethod("main", null, BooleanType.v());
+        SootMethod a = new SootMethod("a", null, BooleanType.v());
+        SootMethod b = new SootMethod("b", null, BooleanType.v());
+        SootMethod c = new SootMethod("c", null, BooleanType.v());
+        SootMethod leaf = new SootMethod("leaf", null, BooleanType.v());
+        CallGraph testCG = new CallGraph("Test");
+        for (SootMethod method : Arrays.asList(main, a, b, c, leaf)) {
+            testClass.addMethod(method);
+            testCG.addNode(method);
+        }
+        testCG.addEdge(main, a);
+        testCG.addEdge(a, b);
+        testCG.addEdge(b, a);
+        testCG.addEdge(b, leaf);
+        testCG.addEdge(main, c);
+        testCG.addEdge(c, c);
+        testCG.addEdge(c, leaf);
+
+        CallGraphCondensation condensation = new CallGraphCondensation(testCG);
+        Assert.assertEquals(4, condensation.componentCount());
+        Assert.assertEquals(condensation.componentOf(a), condensation.componentOf(b));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b)), new HashSet<>(condensation.members(condensation.componentOf(a))));
+        Assert.assertTrue(condensation.isRecursive(condensation.componentOf(a)));
+        Assert.assertTrue(condensation.isRecursive(condensation.componentOf(c)));
+        Assert.assertFalse(condensation.isRecursive(condensation.componentOf(main)));
+        Assert.assertEquals(0, condensation.calleeCount(condensation.componentOf(leaf)));
+        Assert.assertEquals(2, condensation.callerCount(condensation.componentOf(leaf)));
+        Assert.assertEquals(2, condensation.calleeCount(condensation.componentOf(main)));
+        Assert.assertEquals(3, condensation.criticalPathLength());
+        for (int component = 0; component < condensation.componentCount(); component++) {
+            for (int i = 0; i < condensation.calleeCount(component); i++)
+                Assert.assertTrue(condensation.callee(component, i) < component);
+        }
+
+        for (int parallelism : new int[]{1, 4}) {
+            Set<SootMethod> done = ConcurrentHashMap.newKeySet();
+            BottomUpScheduler.Report report = new BottomUpScheduler(parallelism).run(condensation, scc -> {
+                for (SootMethod method : scc) {
+                    for (SootMethod callee : testCG.edgesOutOf(method))
+                        Assert.assertTrue(scc.contains(callee) || done.contains(callee));
+                }
+                done.addAll(scc);
+            });
+            Assert.assertEquals(5, done.size());
+            Assert.assertEquals(4, report.componentCount());
+            Assert.assertEquals(3, report.criticalPathLength());
+            Assert.assertTrue(report.criticalPathNanos() <= report.totalTaskNanos());
+        }
+
+        thrown.expect(IllegalStateException.class);
+        new BottomUpScheduler(2).run(condensation, scc -> {
+            throw new UnsupportedOperationException();
+        });
+    }
+
+    @Test
+    public void reachabilityIndex() {
+        // random graph with cycles, checked against plain traversals
+        SootClass testClass = new SootClass("TestClass");
+        CallGraph testCG = new CallGraph("Test");
+        List<SootMethod> methods = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            SootMethod method = new SootMethod("m" + i, null, BooleanType.v());
+            testClass.addMethod(method);
+            testCG.addNode(method);
+            methods.add(method);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 180; i++) {
+            SootMethod source = methods.get(random.nextInt(methods.size()));
+            SootMethod target = methods.get(random.nextInt(methods.size()));
+            if (!testCG.hasEdge(source, target))
+                testCG.addEdge(source, target);
+        }
+
+        CompactCallGraph compact = testCG.compact();
+        for (int labelCount : new int[]{1, 3}) {
+            ReachabilityIndex index = new ReachabilityIndex(compact, labelCount);
+            List<SootMethod> sources = new ArrayList<>();
+            List<SootMethod> targets = new ArrayList<>();
+            for (SootMethod source : methods) {
+                BitSet reachable = index.forwardReachable(Collections.singleton(source));
+                Assert.assertSame(index.reachableFrom(source), index.reachableFrom(source));
+                Assert.assertEquals(reachable, index.reachableFrom(source));
+                for (SootMethod target : methods) {
+                    Assert.assertEquals(reachable.get(compact.idOf(target)), index.isReachable(source, target));
+                    Assert.assertEquals(reachable.get(compact.idOf(target)),
+                            index.backwardReachable(Collections.singleton(target)).get(compact.idOf(source)));
+                    sources.add(source);
+                    targets.add(target);
+                }
+            }
+
+            boolean[] batch = index.areReachable(sources, targets, 4);
+            for (int i = 0; i < batch.length; i++)
+                Assert.assertEquals(index.isReachable(sources.get(i), targets.get(i)), batch[i]);
+        }
+
+        ReachabilityIndex index = new ReachabilityIndex(testCG);
+        List<SootMethod> entryPoints = methods.subList(0, 5);
+        index.precompute(entryPoints, 2);
+        SootMethod sink = methods.get(100);
+        Set<SootMethod> reaching = index.entryPointsReaching(entryPoints, sink);
+        for (SootMethod entryPoint : entryPoints)
+            Assert.assertEquals(index.isReachable(entryPoint, sink), reaching.contains(entryPoint));
+        Assert.assertEquals(!reaching.isEmpty(), index.isReachableFromAny(entryPoints, sink));
+        Assert.assertEquals(index.reachableFrom(methods.get(0)).cardinality(), index.methodsOf(index.reachableFrom(methods.get(0))).size());
+    }
+
+    @Test
+    public void graphExport() throws IOException {
+        SootClass testClass = new SootClass("pkg.sub.TestClass");
+        SootClass otherClass = new SootClass("other.OtherClass");
+        SootMethod source = new SootMethod("source", null, BooleanType.v());
+        SootMethod target = new SootMethod("target", null, BooleanType.v());
+        SootMethod library = new SootMethod("library", null, BooleanType.v());
+        testClass.addMethod(source);
+        testClass.addMethod(target);
+        otherClass.addMethod(library);
+
+        CallGraph testCG = new CallGraph("Test");
+        testCG.addNode(source);
+        testCG.addNode(target);
+        testCG.addNode(library);
+        testCG.addEdge(source, target);
+        testCG.addEdge(source, library);
+
+        String dot = export(testCG, GraphWriter.Format.DOT, CallGraph.inPackages("pkg"));
+        Assert.assertTrue(dot.startsWith("digraph \"Test\" {\n"));
+        Assert.assertTrue(dot.contains("\"<pkg.sub.TestClass: boolean source()>\" -> \"<pkg.sub.TestClass: boolean target()>\";"));
+        Assert.assertFalse(dot.contains("library"));
+        Assert.assertTrue(dot.endsWith("}\n"));
+
+        String graphml = export(testCG, GraphWriter.Format.GRAPHML, m -> true);
+        Assert.assertTrue(graphml.contains("<node id=\"&lt;other.OtherClass: boolean library()&gt;\">"));
+        Assert.assertTrue(graphml.contains("source=\"&lt;pkg.sub.TestClass: boolean source()&gt;\" target=\"&lt;other.OtherClass: boolean library()&gt;\""));
+        Assert.assertTrue(graphml.endsWith("</graphml>\n"));
+
+        String csv = export(testCG, GraphWriter.Format.CSV, CallGraph.inPackages("pkg.sub", "other"));
+        Assert.assertEquals(3, csv.split("\n").length);
+        Assert.assertTrue(csv.contains("\"<pkg.sub.TestClass: boolean source()>\",\"<other.OtherClass: boolean library()>\"\n"));
+        Assert.assertEquals("source,target\n", export(testCG, GraphWriter.Format.CSV, CallGraph.inPackages("pkg.s")));
+
+        TypeAssignmentGraph tag = new TypeAssignmentGraph();
+        Local a = Jimple.v().newLocal("a", BooleanType.v());
+        Local b = Jimple.v().newLocal("b\"", BooleanType.v());
+        tag.addNode(a);
+        tag.addNode(b);
+        tag.addEdge(a, b);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphWriter writer = new GraphWriter(Channels.newChannel(out), GraphWriter.Format.DOT, "tag");
+        tag.export(writer, node -> true);
+        writer.finish();
+        String tagDot = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(tagDot.contains("  1 [label=\"b\\\"\"];\n"));
+        Assert.assertTrue(tagDot.contains("  0 -> 1;\n"));
+        Assert.assertEquals(1, writer.edgeCount());
+
+        // extreme ids and control characters
+        out.reset();
+        writer = new GraphWriter(Channels.newChannel(out), GraphWriter.Format.CSV, "ids");
+        writer.edge(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        writer.finish();
+        Assert.assertEquals("source,target\n-2147483648,2147483647\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out.reset();
+        writer = new GraphWriter(Channels.newChannel(out), GraphWriter.Format.GRAPHML, "control");
+        writer.node("a\u0001b", "c\rd\te");
+        writer.finish();
+        Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8)
+                .contains("<node id=\"a?b\"><data key=\"label\">c&#13;d&#9;e</data></node>"));
+
+        out.reset();
+        writer = new GraphWriter(Channels.newChannel(out), GraphWriter.Format.DOT, "control");
+        writer.node("a\r\nb", "c\u0007");
+        writer.finish();
+        Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("  \"a\\r\\nb\" [label=\"c?\"];\n"));
+    }
+
+    private static String export(CallGraph cg, GraphWriter.Format format, Predicate<SootMethod> filter) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphWriter writer = new GraphWriter(Channels.newChannel(out), format, cg.algorithm);
+        cg.export(writer, filter);
+        writer.finish();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void programGenerator() throws IOException {
+        Path first = folder.newFolder("first").toPath();
+        Path second = folder.newFolder("second").toPath();
+        Path other = folder.newFolder("other").toPath();
+        ProgramGenerator.Summary summary = generator(42).writeSources(first);
+        generator(42).writeSources(second);
+        generator(43).writeSources(other);
+
+        // 1 Node, 3 interfaces, 40 classes, Main, HttpServletRequest and 4 taint paths
+        Assert.assertEquals(50, summary.classCount());
+        Assert.assertEquals(2, summary.leakingTaintPaths());
+        Assert.assertEquals(sources(first), sources(second));
+        Assert.assertNotEquals(sources(first), sources(other));
+        String taint = new String(Files.readAllBytes(first.resolve("gen/Taint0.java")), StandardCharsets.UTF_8);
+        Assert.assertTrue(taint.contains("request.getParameter(\"p0\")"));
+        Assert.assertTrue(taint.contains("st.executeQuery("));
+
+        Path classes = folder.newFolder("generated-classes").toPath();
+        ProgramGenerator.compile(first, classes);
+        Assert.assertTrue(Files.exists(classes.resolve("gen/Main.class")));
+        Assert.assertTrue(Files.exists(classes.resolve("gen/C39.class")));
+
+        thrown.expect(IllegalArgumentException.class);
+        generator(42).setRecursionRate(1.5);
+    }
+
+    private static ProgramGenerator generator(long seed) {
+        ProgramGenerator generator = new ProgramGenerator(seed);
+        generator.setPackageName("gen");
+        generator.setClassCount(40);
+        generator.setInterfaceCount(3);
+        generator.setCallDepth(4);
+        generator.setOverrideRate(0.5);
+        generator.setRecursionRate(0.2);
+        generator.setTaintPaths(4);
+        return generator;
+    }
+
+    private static List<String> sources(Path dir) throws IOException {
+        List<String> contents = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()))
+                contents.add(dir.relativize(file) + "\n" + new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        return contents;
+    }
+
+    @Test
+    public void typeHierarchy() {
+        SootClass object = new SootClass("java.lang.Object");
+        SootClass base = subclass("Base", object, 0);
+        SootClass left = subclass("Left", base, Modifier.ABSTRACT);
+        SootClass leftLeaf = subclass("LeftLeaf", left, 0);
+        SootClass right = subclass("Right", base, 0);
+        SootClass iface = subclass("Iface", object, Modifier.INTERFACE);
+        SootClass subIface = subclass("SubIface", object, Modifier.INTERFACE);
+        subIface.addInterface(iface);
+        SootClass other = subclass("Other", object, 0);
+        other.addInterface(subIface);
+        SootClass otherLeaf = subclass("OtherLeaf", other, 0);
+        right.addInterface(iface);
+        List<SootClass> classes = Arrays.asList(otherLeaf, iface, leftLeaf, base, right, object, subIface, left, other);
+        TypeHierarchy hierarchy = new TypeHierarchy(classes);
+
+        Assert.assertEquals(classes.size(), hierarchy.typeCount());
+        for (SootClass cls : classes)
+            Assert.assertEquals(cls, hierarchy.typeAt(hierarchy.idOf(cls)));
+        Assert.assertTrue(hierarchy.isSubtype(leftLeaf, base));
+        Assert.assertTrue(hierarchy.isSubtype(leftLeaf, object));
+        Assert.assertTrue(hierarchy.isSubtype(iface, object));
+        Assert.assertFalse(hierarchy.isSubtype(right, left));
+        Assert.assertFalse(hierarchy.isSubtype(base, leftLeaf));
+        Assert.assertTrue(hierarchy.isSubtype(otherLeaf, iface));
+        Assert.assertTrue(hierarchy.isSubtype(subIface, iface));
+        Assert.assertFalse(hierarchy.isSubtype(leftLeaf, iface));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(base, leftLeaf, right)), hierarchy.typesOf(hierarchy.concreteSubtypeIds(base)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(right, other, otherLeaf)), hierarchy.typesOf(hierarchy.concreteSubtypeIds(iface)));
+        Assert.assertSame(hierarchy.concreteSubtypeIds(iface), hierarchy.concreteSubtypeIds(iface));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(other, otherLeaf)), hierarchy.implementersOf(subIface));
+
+        // classes created after the index was built fall back to walking their supertypes
+        SootClass late = subclass("Late", right, 0);
+        Assert.assertEquals(-1, hierarchy.idOf(late));
+        Assert.assertTrue(hierarchy.isSubtype(late, iface));
+        Assert.assertTrue(hierarchy.concreteSubtypeIds(late).isEmpty());
+
+        Assert.assertTrue(hierarchy.canStoreType(leftLeaf.getType(), base.getType()));
+        Assert.assertFalse(hierarchy.canStoreType(base.getType(), leftLeaf.getType()));
+        Assert.assertTrue(hierarchy.canStoreType(NullType.v(), iface.getType()));
+        Assert.assertTrue(hierarchy.canStoreType(ArrayType.v(leftLeaf.getType(), 1), ArrayType.v(base.getType(), 1)));
+        Assert.assertTrue(hierarchy.canStoreType(ArrayType.v(leftLeaf.getType(), 2), ArrayType.v(object.getType(), 1)));
+        Assert.assertFalse(hierarchy.canStoreType(ArrayType.v(right.getType(), 1), ArrayType.v(left.getType(), 1)));
+        Assert.assertTrue(hierarchy.canStoreType(ArrayType.v(BooleanType.v(), 1), object.getType()));
+
+        thrown.expect(IllegalArgumentException.class);
+        hierarchy.implementersOf(base);
+    }
+
+    private static SootClass subclass(String name, SootClass superclass, int modifiers) {
+        SootClass cls = new SootClass(name, modifiers | Modifier.PUBLIC);
+        cls.setSuperclass(superclass);
+        return cls;
+    }
+
+    @Test
+    public void callSiteEdges() {
+        SootMethod source = new SootMethod("sourceMethod", null, BooleanType.v());
+        SootMethod target = new SootMethod("targetMethod", null, BooleanType.v());
+        SootMethod firstMethod = new SootMethod("firstMethod", null, BooleanType.v());
+        SootClass testClass = new SootClass("TestClass");
+        testClass.addMethod(source);
+        testClass.addMethod(target);
+        testClass.addMethod(firstMethod);
+
+        Unit firstCallSite = Jimple.v().newNopStmt();
+        Unit secondCallSite = Jimple.v().newNopStmt();
+
+        CallGraph testCG = new CallGraph("Test");
+        testCG.addNode(source);
+        testCG.addNode(target);
+        testCG.addNode(firstMethod);
+        testCG.addEdge(source, firstCallSite, target);
+        testCG.addEdge(source, firstCallSite, firstMethod);
+        testCG.addEdge(source, secondCallSite, target);
+
+        Assert.assertTrue(testCG.hasEdge(source, target));
+        Assert.assertTrue(testCG.hasEdge(source, firstMethod));
+        Assert.assertTrue(testCG.hasEdge(source, secondCallSite, target));
+        Assert.assertFalse(testCG.hasEdge(source, secondCallSite, firstMethod));
+
+        Assert.assertEquals(2, testCG.edgesOutOf(source).size());
+        Assert.assertEquals(2, testCG.edgesOutOf(firstCallSite).size());
+        Assert.assertArrayEquals(new SootMethod[] {target}, testCG.edgesOutOf(secondCallSite).toArray());
+        Assert.assertEquals(2, testCG.callSitesIn(source).size());
+        Assert.assertEquals(2, testCG.callSitesInto(target).size());
+        Assert.assertArrayEquals(new Unit[] {firstCallSite}, testCG.callSitesInto(firstMethod).toArray());
+
+        // a call site of another caller does not count, even if source calls the same target elsewhere
+        Unit targetCallSite = Jimple.v().newNopStmt();
+        testCG.addEdge(target, targetCallSite, firstMethod);
+        Assert.assertTrue(testCG.hasEdge(target, targetCallSite, firstMethod));
+        Assert.assertFalse(testCG.hasEdge(source, targetCallSite, firstMethod));
+
+        thrown.expect(IllegalArgumentException.class);
+        testCG.addEdge(source, secondCallSite, target);
+    }
+
+    @Test
+    public void typeAssignmentGraph() {
+        SootClass leafClass = new SootClass("LeafClass");
+        Local a = Jimple.v().newLocal("a", BooleanType.v());
+        Local b = Jimple.v().newLocal("b", BooleanType.v());
+        Local c = Jimple.v().newLocal("c", BooleanType.v());
+        Local sameNameAsA = Jimple.v().newLocal("a", BooleanType.v());
+
+        TypeAssignmentGraph tag = new TypeAssignmentGraph();
+        int nodeA = tag.addNode(a);
+        Assert.assertEquals(nodeA, tag.addNode(a));
+        tag.addNode(b);
+        tag.addNode(c);
+        Assert.assertFalse(tag.containsNode(sameNameAsA));
+
+        tag.addEdge(a, b);
+        tag.addEdge(a, b);
+        tag.addEdge(b, a);
+        tag.addEdge(b, c);
+        Assert.assertEquals(3, tag.edgeCount());
+        Assert.assertEquals(1, tag.outDegree(nodeA));
+
+        tag.tagNode(a, leafClass);
+        Assert.assertEquals(Collections.singleton(leafClass), tag.getNodeTags(a));
+        Assert.assertTrue(tag.getNodeTags(c).isEmpty());
+
+        tag.annotateScc();
+        Assert.assertEquals(tag.getSccIndex(a), tag.getSccIndex(b));
+        Assert.assertTrue(tag.getSccIndex(c) < tag.getSccIndex(a));
+        Assert.assertEquals(-1, tag.getSccIndex(sameNameAsA));
+
+        // collapsed SCCs, pushed in topological order
+        tag.propagateTypes();
+        Assert.assertEquals(Collections.singleton(leafClass), tag.getNodeTags(b));
+        Assert.assertEquals(Collections.singleton(leafClass), tag.getNodeTags(c));
+        Assert.assertSame(tag.getNodeTypes(tag.nodeOf(a)), tag.getNodeTypes(tag.nodeOf(c)));
+
+        // edges added after annotateScc fall back to delta propagation
+        SootClass otherClass = new SootClass("OtherClass");
+        tag.addNode(sameNameAsA);
+        tag.addEdge(c, sameNameAsA);
+        tag.addEdge(sameNameAsA, b);
+        tag.tagNode(c, otherClass);
+        tag.propagateTypes();
+        Assert.assertEquals(2, tag.getNodeTags(a).size());
+        Assert.assertEquals(2, tag.getNodeTags(sameNameAsA).size());
+        Assert.assertSame(tag.getNodeTypes(tag.nodeOf(a)), tag.getNodeTypes(tag.nodeOf(sameNameAsA)));
+    }
+
+    @Test
+    public void typeSetStore() {
+        TypeSetStore store = new TypeSetStore();
+        TypeSetStore.TypeSet one = store.with(store.empty(), 1);
+        TypeSetStore.TypeSet two = store.with(store.empty(), 2);
+        TypeSetStore.TypeSet both = store.union(one, two);
+        Assert.assertSame(both, store.union(two, one));
+        Assert.assertSame(both, store.with(one, 2));
+        Assert.assertSame(one, store.union(one, store.empty()));
+        Assert.assertSame(one, store.union(one, one));
+        Assert.assertEquals(1, store.unionCacheHits());
+
+        BitSet bits = new BitSet();
+        bits.set(1);
+        bits.set(2);
+        Assert.assertSame(both, store.of(bits));
+        bits.set(3);
+        Assert.assertEquals(2, both.size());
+        Assert.assertFalse(both.contains(3));
+        Assert.assertEquals(4, store.size());
+        Assert.assertEquals(2, both.nextType(2));
+        Assert.assertEquals(-1, both.nextType(3));
+    }
+
+    @Test
+    public void pointsToSet() {
+        PointsToSet set = new PointsToSet();
+        Assert.assertTrue(set.add(6));
+        Assert.assertFalse(set.add(6));
+        Assert.assertTrue(set.contains(6));
+        Assert.assertFalse(set.isDense());
+
+        PointsToSet other = new PointsToSet();
+        for (int i = 0; i < 40; i++)
+            other.add(i * 3);
+        Assert.assertTrue(other.isDense());
+        Assert.assertEquals(40, other.size());
+
+        // the delta holds exactly the elements that were missing
+        PointsToSet delta = set.addAllNew(other);
+        Assert.assertEquals(39, delta.size());
+        Assert.assertFalse(delta.contains(6));
+        Assert.assertTrue(delta.contains(117));
+        Assert.assertEquals(40, set.size());
+        Assert.assertNull(set.addAllNew(other));
+
+        // dense into dense merges word by word
+        PointsToSet wide = new PointsToSet();
+        for (int i = 0; i < 20; i++)
+            wide.add(200 + i);
+        delta = other.addAllNew(wide);
+        Assert.assertEquals(20, delta.size());
+        Assert.assertEquals(60, other.size());
+        Assert.assertTrue(other.contains(219));
+        Assert.assertFalse(other.contains(220));
+    }
+
+    @Test
+    public void pointerAssignmentGraphMerges() {
+        PointerAssignmentGraph pag = new PointerAssignmentGraph();
+        int[] nodes = new int[6];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = pag.pointerNode("p" + i);
+        int alloc = pag.allocNode("site", NullType.v());
+        pag.pointsTo(nodes[0]).add(alloc);
+
+        // three two-node cycles, then the chain p0 -> p2 -> p4 of their representatives
+        for (int i = 0; i < nodes.length; i += 2)
+            pag.mergeInto(nodes[i + 1], nodes[i]);
+        pag.mergeInto(nodes[0], nodes[2]);
+        pag.mergeInto(nodes[2], nodes[4]);
+        for (int node : nodes)
+            Assert.assertEquals(nodes[4], pag.representative(node));
+
+        // sets added to the last representative are seen from the first cycle
+        int later = pag.allocNode("later", NullType.v());
+        pag.pointsTo(nodes[4]).add(later);
+        for (int node : nodes) {
+            Assert.assertSame(pag.pointsTo(nodes[4]), pag.pointsTo(node));
+            Assert.assertTrue(pag.pointsTo(node).contains(alloc));
+            Assert.assertTrue(pag.pointsTo(node).contains(later));
+        }
+
+        thrown.expect(IllegalArgumentException.class);
+        pag.mergeInto(nodes[0], nodes[4]);
+    }
 }
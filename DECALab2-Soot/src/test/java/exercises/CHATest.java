@@ -1,18 +1,32 @@
 package exercises;
 
 import analysis.CallGraph;
+import analysis.CompactCallGraph;
+import analysis.EntryPointIndex;
 import analysis.exercise1.CHAAlgorithm;
 import base.TestSetup;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import soot.Modifier;
+import soot.RefType;
 import soot.Scene;
 import soot.SceneTransformer;
+import soot.SootClass;
 import soot.SootMethod;
 import soot.Transformer;
-
+import soot.Unit;
+import soot.VoidType;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.Stmt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public class CHATest extends TestSetup {
 
@@ -89,4 +103,138 @@ public class CHATest extends TestSetup {
 		Assert.assertTrue(calledMethods.contains(exampleUpdate));
 	}
 
+	@Test
+	public void transitiveImplementers() {
+		// interface call site resolved through implementers and all of their subclasses
+		SootMethod starterMain = scene.getMethod("<target.exercise2.Starter: void main(java.lang.String[])>");
+		Set<SootMethod> calledMethods = cg.edgesOutOf(starterMain);
+		assertCallExists(calledMethods, "<target.exercise2.SomeInterface: void doSomething()>");
+		assertCallExists(calledMethods, "<target.exercise2.Subclass: void doSomething()>");
+		assertCallExists(calledMethods, "<target.exercise2.ThirdLeafClass: void doSomething()>");
+		assertCallExists(calledMethods, "<target.exercise2.SixthLeafClass: void doSomething()>");
+	}
+
+	@Test
+	public void parallelConstruction() {
+		CompactCallGraph sequential = cg.compact();
+		for (int parallelism : new int[]{2, 4, 8}) {
+			CHAAlgorithm cha = new CHAAlgorithm();
+			cha.setParallelism(parallelism);
+			CallGraph parallelCg = cha.constructCallGraph(scene);
+			CompactCallGraph parallel = parallelCg.compact();
+
+			Assert.assertEquals(sequential.nodeCount(), parallel.nodeCount());
+			Assert.assertEquals(sequential.edgeCount(), parallel.edgeCount());
+			for (int i = 0; i < sequential.nodeCount(); i++) {
+				SootMethod method = sequential.methodAt(i);
+				Assert.assertEquals(sequential.edgesOutOf(method), parallel.edgesOutOf(method));
+				for (Unit callSite : cg.callSitesIn(method))
+					Assert.assertEquals(cg.edgesOutOf(callSite), parallelCg.edgesOutOf(callSite));
+			}
+		}
+	}
+
+	@Test
+	public void parallelConstructionWithSeveralEntryPoints() {
+		Map<String, Predicate<SootMethod>> patterns = new LinkedHashMap<>();
+		// leaf roots first: their tasks finish almost at once, before the roots after them are submitted
+		patterns.put("observable", EntryPointIndex.methodNamed("setChanged", "clearChanged", "addObserver"));
+		patterns.put("subject", EntryPointIndex.methodNamed("modify", "update"));
+		patterns.put("main", EntryPointIndex.MAIN_METHOD);
+		EntryPointIndex index = new EntryPointIndex(scene, patterns);
+		Assert.assertTrue(index.allEntryPoints().size() > 2);
+
+		CHAAlgorithm sequentialCha = new CHAAlgorithm();
+		sequentialCha.setEntryPointIndex(index);
+		CompactCallGraph sequential = sequentialCha.constructCallGraph(scene).compact();
+		for (int run = 0; run < 200; run++) {
+			CHAAlgorithm cha = new CHAAlgorithm();
+			cha.setEntryPointIndex(index);
+			cha.setParallelism(4);
+			CompactCallGraph parallel = cha.constructCallGraph(scene).compact();
+
+			Assert.assertEquals(sequential.nodeCount(), parallel.nodeCount());
+			Assert.assertEquals(sequential.edgeCount(), parallel.edgeCount());
+			for (int i = 0; i < sequential.nodeCount(); i++) {
+				SootMethod method = sequential.methodAt(i);
+				Assert.assertEquals(sequential.edgesOutOf(method), parallel.edgesOutOf(method));
+			}
+		}
+	}
+
+	@Test
+	public void entryPointIndex() {
+		Map<String, Predicate<SootMethod>> patterns = new LinkedHashMap<>();
+		patterns.put("main", EntryPointIndex.MAIN_METHOD);
+		patterns.put("modify", EntryPointIndex.methodNamed("modify"));
+		EntryPointIndex index = new EntryPointIndex(scene, patterns);
+
+		Assert.assertTrue(index.entryPoints("main").contains(exampleMain));
+		for (SootMethod method : index.entryPoints("main"))
+			Assert.assertEquals("void main(java.lang.String[])", method.getSubSignature());
+		Assert.assertEquals(Collections.singleton(exampleSubjectModify), index.entryPoints("modify"));
+		Assert.assertTrue(index.allEntryPoints().containsAll(index.entryPoints("main")));
+		Assert.assertTrue(index.allEntryPoints().contains(exampleSubjectModify));
+
+		// modify becomes a root, so the call graph reaches it without going through main
+		CHAAlgorithm cha = new CHAAlgorithm();
+		cha.setEntryPointIndex(new EntryPointIndex(scene, Collections.singletonMap("modify", EntryPointIndex.methodNamed("modify"))));
+		CallGraph modifyCg = cha.constructCallGraph(scene);
+		Assert.assertFalse(modifyCg.hasNode(exampleMain));
+		Assert.assertTrue(modifyCg.edgesOutOf(exampleSubjectModify).contains(observableNotifyObservers));
+	}
+
+	@Test
+	public void incrementalUpdate() {
+		CHAAlgorithm cha = new CHAAlgorithm();
+		CallGraph updated = cha.constructCallGraph(scene);
+
+		// a new Observer implementation becomes a target of the interface call in notifyObservers
+		SootClass observer = scene.getSootClass("target.exercise1.Observer");
+		SootClass logger = new SootClass("target.exercise1.LoggingObserver", Modifier.PUBLIC);
+		logger.setResolvingLevel(SootClass.BODIES);
+		logger.setSuperclass(scene.getSootClass("java.lang.Object"));
+		logger.addInterface(observer);
+		SootMethod loggerUpdate = new SootMethod("update",
+				Arrays.asList(RefType.v("target.exercise1.Observable"), RefType.v("java.lang.Object")), VoidType.v(), Modifier.PUBLIC);
+		logger.addMethod(loggerUpdate);
+		JimpleBody body = Jimple.v().newBody(loggerUpdate);
+		body.getUnits().add(Jimple.v().newReturnVoidStmt());
+		loggerUpdate.setActiveBody(body);
+		scene.addClass(logger);
+		logger.setApplicationClass();
+
+		updated = cha.updateCallGraph(scene, updated, Collections.singleton(logger));
+		Assert.assertTrue(updated.edgesOutOf(observableNotifyObserversSpecific).contains(loggerUpdate));
+		assertSameGraph(new CHAAlgorithm().constructCallGraph(scene), updated);
+
+		// dropping the only call to notifyObservers() makes it unreachable
+		Unit notifyCall = null;
+		for (Unit unit : exampleSubjectModify.getActiveBody().getUnits()) {
+			if (((Stmt) unit).containsInvokeExpr() && ((Stmt) unit).getInvokeExpr().getMethod().equals(observableNotifyObservers))
+				notifyCall = unit;
+		}
+		exampleSubjectModify.getActiveBody().getUnits().remove(notifyCall);
+
+		updated = cha.updateCallGraph(scene, updated, Collections.singleton(exampleSubjectModify.getDeclaringClass()));
+		Assert.assertFalse(updated.hasNode(observableNotifyObservers));
+		assertSameGraph(new CHAAlgorithm().constructCallGraph(scene), updated);
+
+		// removing the new class again drops its method
+		scene.removeClass(logger);
+		updated = cha.updateCallGraph(scene, updated, Collections.singleton(logger));
+		Assert.assertFalse(updated.hasNode(loggerUpdate));
+		assertSameGraph(new CHAAlgorithm().constructCallGraph(scene), updated);
+	}
+
+	private static void assertSameGraph(CallGraph expected, CallGraph actual) {
+		Assert.assertEquals(expected.nodes(), actual.nodes());
+		for (SootMethod method : expected.nodes()) {
+			Assert.assertEquals(expected.edgesOutOf(method), actual.edgesOutOf(method));
+			Assert.assertEquals(expected.callSitesIn(method), actual.callSitesIn(method));
+			for (Unit callSite : expected.callSitesIn(method))
+				Assert.assertEquals(expected.edgesOutOf(callSite), actual.edgesOutOf(callSite));
+		}
+	}
+
 }
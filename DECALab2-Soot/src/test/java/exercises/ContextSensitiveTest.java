@@ -0,0 +1,104 @@
+package exercises;
+
+import analysis.CallGraph;
+import analysis.exercise4.ContextSensitiveAlgorithm;
+import base.TestSetup;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import soot.Local;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootMethod;
+import soot.Transformer;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class ContextSensitiveTest extends TestSetup {
+    private static final String LEAF = "<target.exercise2.LeafClass: void doSomething()>";
+    private static final String OTHER_LEAF = "<target.exercise2.OtherLeafClass: void doSomething()>";
+    private static final String FIFTH_LEAF = "<target.exercise2.FifthLeafClass: void doSomething()>";
+    private static final String SIXTH_LEAF = "<target.exercise2.SixthLeafClass: void doSomething()>";
+
+    private Scene scene;
+    private SootMethod contextMain;
+
+    @Override
+    protected Transformer createAnalysisTransformer() {
+        return new SceneTransformer() {
+            @Override
+            protected void internalTransform(String phaseName, Map<String, String> options) {
+                scene = Scene.v();
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executeStaticAnalysis();
+        contextMain = scene.getMethod("<target.exercise4.ContextScenario: void main(java.lang.String[])>");
+    }
+
+    @Test
+    public void objectSensitivity() {
+        CallGraph insensitive = new ContextSensitiveAlgorithm(ContextSensitiveAlgorithm.Sensitivity.OBJECT, 0).constructCallGraph(scene);
+        assertSiteTargets(insensitive, "fromFirst", LEAF, OTHER_LEAF);
+
+        ContextSensitiveAlgorithm oneObject = new ContextSensitiveAlgorithm(ContextSensitiveAlgorithm.Sensitivity.OBJECT, 1);
+        CallGraph cg = oneObject.constructCallGraph(scene);
+        assertSiteTargets(cg, "fromFirst", LEAF);
+        // the static helper inherits the caller's context, so both arguments meet there
+        assertSiteTargets(cg, "fifth", FIFTH_LEAF, SIXTH_LEAF, LEAF);
+        Assert.assertTrue(oneObject.getContextTable().size() > 1);
+        Assert.assertEquals(Arrays.asList("start", "solve", "projection"), Arrays.asList(oneObject.getHeapUsage().keySet().toArray()));
+    }
+
+    @Test
+    public void callSiteSensitivity() {
+        CallGraph cg = new ContextSensitiveAlgorithm(ContextSensitiveAlgorithm.Sensitivity.CALL_SITE, 1).constructCallGraph(scene);
+        assertSiteTargets(cg, "fifth", FIFTH_LEAF);
+        assertSiteTargets(cg, "third", LEAF);
+        assertSiteTargets(cg, "fromFirst", LEAF);
+    }
+
+    @Test
+    public void contextCap() {
+        // identity keeps its first context, the two later calls share the empty context
+        CallGraph cg = new ContextSensitiveAlgorithm(ContextSensitiveAlgorithm.Sensitivity.CALL_SITE, 2, 1).constructCallGraph(scene);
+        assertSiteTargets(cg, "fifth", FIFTH_LEAF);
+        assertSiteTargets(cg, "third", LEAF, SIXTH_LEAF);
+    }
+
+    @Test
+    public void projection() {
+        CallGraph cg = new ContextSensitiveAlgorithm(ContextSensitiveAlgorithm.Sensitivity.OBJECT, 2).constructCallGraph(scene);
+        Set<SootMethod> callsFromMain = cg.edgesOutOf(scene.getMethod("<target.exercise3.SimpleScenario: void main(java.lang.String[])>"));
+        assertCallExists(callsFromMain, LEAF);
+        assertCallExists(callsFromMain, FIFTH_LEAF);
+        assertCallExists(callsFromMain, SIXTH_LEAF);
+        assertCallMissing(callsFromMain, OTHER_LEAF);
+    }
+
+    private void assertSiteTargets(CallGraph cg, String receiverName, String... methodSignatures) {
+        Set<SootMethod> expected = new HashSet<>();
+        for (String signature : methodSignatures)
+            expected.add(scene.getMethod(signature));
+
+        for (Unit unit : contextMain.getActiveBody().getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr() && stmt.getInvokeExpr() instanceof InstanceInvokeExpr
+                    && ((Local) ((InstanceInvokeExpr) stmt.getInvokeExpr()).getBase()).getName().equals(receiverName)
+                    && stmt.getInvokeExpr().getMethod().getName().equals("doSomething")) {
+                Assert.assertEquals(expected, cg.edgesOutOf(unit));
+                return;
+            }
+        }
+        Assert.fail("No call on " + receiverName);
+    }
+}
@@ -0,0 +1,114 @@
+package exercises;
+
+import analysis.CallGraph;
+import analysis.DispatchCache;
+import analysis.TypeHierarchy;
+import analysis.exercise1.CHAAlgorithm;
+import analysis.exercise4.DemandPointsTo;
+import base.TestSetup;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import soot.Local;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootMethod;
+import soot.Transformer;
+import soot.Type;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+public class DemandPointsToTest extends TestSetup {
+    private Scene scene;
+    private CallGraph chaCallGraph;
+    private DispatchCache dispatchCache;
+
+    @Override
+    protected Transformer createAnalysisTransformer() {
+        return new SceneTransformer() {
+            @Override
+            protected void internalTransform(String phaseName, Map<String, String> options) {
+                scene = Scene.v();
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executeStaticAnalysis();
+
+        dispatchCache = new DispatchCache(new TypeHierarchy(scene));
+        CHAAlgorithm cha = new CHAAlgorithm();
+        cha.setDispatchCache(dispatchCache);
+        chaCallGraph = cha.constructCallGraph(scene);
+    }
+
+    @Test
+    public void receiverQueries() {
+        DemandPointsTo demand = new DemandPointsTo(scene, chaCallGraph, dispatchCache, 10000);
+        SootMethod scenarioMain = scene.getMethod("<target.exercise3.SimpleScenario: void main(java.lang.String[])>");
+
+        assertTypes(demand, scenarioMain, "fourthLeaf", "target.exercise2.FifthLeafClass");
+        assertTypes(demand, scenarioMain, "newStuff", "target.exercise2.SixthLeafClass");
+        Assert.assertEquals(Collections.singleton(scene.getMethod("<target.exercise2.LeafClass: void doSomething()>")),
+                demand.callTargets(scenarioMain, callOn(scenarioMain, "aliasLeaf")));
+
+        SootMethod fieldMain = scene.getMethod("<target.exercise4.FieldScenario: void main(java.lang.String[])>");
+        assertTypes(demand, fieldMain, "fromLeafBox", "target.exercise2.LeafClass");
+        assertTypes(demand, fieldMain, "fromArray", "target.exercise2.Subclass");
+        assertTypes(demand, fieldMain, "fromGetter", "target.exercise2.FifthLeafClass");
+
+        // answers of finished queries are cached
+        Local fourthLeaf = local(scenarioMain, "fourthLeaf");
+        Assert.assertSame(demand.pointsTo(scenarioMain, fourthLeaf), demand.pointsTo(scenarioMain, fourthLeaf));
+    }
+
+    @Test
+    public void budgetFallback() {
+        DemandPointsTo demand = new DemandPointsTo(scene, chaCallGraph, dispatchCache, 1);
+        SootMethod fieldMain = scene.getMethod("<target.exercise4.FieldScenario: void main(java.lang.String[])>");
+
+        DemandPointsTo.Result result = demand.pointsTo(fieldMain, local(fieldMain, "fromGetter"));
+        Assert.assertFalse(result.complete);
+        Assert.assertTrue(result.types.contains(scene.getRefType("target.exercise2.LeafClass")));
+
+        Unit callSite = callOn(fieldMain, "fromGetter");
+        Assert.assertEquals(chaCallGraph.edgesOutOf(callSite), demand.callTargets(fieldMain, callSite));
+
+        // partial work is kept, so repeating the query eventually finishes
+        for (int i = 0; i < 10000 && !result.complete; i++)
+            result = demand.pointsTo(fieldMain, local(fieldMain, "fromGetter"));
+        Assert.assertTrue(result.complete);
+        Assert.assertEquals(Collections.singleton(scene.getRefType("target.exercise2.FifthLeafClass")), result.types);
+    }
+
+    private void assertTypes(DemandPointsTo demand, SootMethod method, String localName, String className) {
+        DemandPointsTo.Result result = demand.pointsTo(method, local(method, localName));
+        Assert.assertTrue(result.complete);
+        Set<Type> expected = Collections.singleton(scene.getRefType(className));
+        Assert.assertEquals(expected, result.types);
+    }
+
+    private static Local local(SootMethod method, String name) {
+        for (Local local : method.getActiveBody().getLocals()) {
+            if (local.getName().equals(name))
+                return local;
+        }
+        throw new AssertionError("No local " + name);
+    }
+
+    private static Unit callOn(SootMethod method, String receiverName) {
+        for (Unit unit : method.getActiveBody().getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr() && stmt.getInvokeExpr() instanceof InstanceInvokeExpr
+                    && ((Local) ((InstanceInvokeExpr) stmt.getInvokeExpr()).getBase()).getName().equals(receiverName))
+                return unit;
+        }
+        throw new AssertionError("No call on " + receiverName);
+    }
+}
@@ -0,0 +1,164 @@
+package exercises;
+
+import analysis.CallGraph;
+import analysis.CallGraphAlgorithm;
+import analysis.CallGraphFile;
+import analysis.EntryPointIndex;
+import analysis.LibrarySummaries;
+import analysis.exercise1.CHAAlgorithm;
+import analysis.exercise2.RTAAlgorithm;
+import analysis.exercise3.VTAAlgorithm;
+import base.TestSetup;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootMethod;
+import soot.Transformer;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+public class LibrarySummariesTest extends TestSetup {
+    private static final String RUN = "java.lang.Object run(java.lang.Object)";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Scene scene;
+    private LibrarySummaries summaries;
+    private SootMethod client;
+
+    @Override
+    protected Transformer createAnalysisTransformer() {
+        return new SceneTransformer() {
+            @Override
+            protected void internalTransform(String phaseName, Map<String, String> options) {
+                scene = Scene.v();
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executeStaticAnalysis();
+
+        summaries = LibrarySummaries.compute(scene, c -> c.getName().equals("target.summaries.Library"), new byte[]{1});
+        client = scene.getMethod("<target.summaries.Client: void libraryClient()>");
+    }
+
+    @Test
+    public void transitiveSummaries() {
+        Assert.assertEquals(4 + 1, summaries.size()); // the four methods and the constructor
+
+        LibrarySummaries.Summary applyTwice = summaries.summaryOf(method("java.lang.Object applyTwice(target.summaries.Task,java.lang.Object)"));
+        Assert.assertEquals(Collections.singleton(new LibrarySummaries.Callback(0, "target.summaries.Task", RUN)), applyTwice.callbacks());
+        Assert.assertTrue(applyTwice.returnsUnknown());
+
+        LibrarySummaries.Summary identity = summaries.summaryOf(method("java.lang.Object identity(java.lang.Object)"));
+        Assert.assertTrue(identity.flowsToReturn(0));
+        Assert.assertFalse(identity.returnsUnknown());
+        Assert.assertTrue(identity.callbacks().isEmpty());
+
+        LibrarySummaries.Summary create = summaries.summaryOf(method("target.summaries.Task create()"));
+        Assert.assertEquals(Collections.singleton("target.summaries.Tripler"), create.returnedTypes());
+        Assert.assertFalse(create.returnsUnknown());
+
+        Assert.assertNull(summaries.summaryOf(client));
+    }
+
+    @Test
+    public void cacheRoundTrip() throws Exception {
+        File library = folder.newFile("library.jar");
+        Files.write(library.toPath(), new byte[]{1, 2, 3});
+        Path cache = folder.getRoot().toPath().resolve("cache").resolve("summaries.tsv");
+        LibrarySummaries computed = LibrarySummaries.loadOrCompute(cache, scene,
+                c -> c.getName().equals("target.summaries.Library"), library.getPath());
+        Assert.assertTrue(Files.exists(cache));
+
+        LibrarySummaries loaded = LibrarySummaries.load(cache);
+        Assert.assertFalse(loaded.isStale(computed.classpathHash()));
+        Assert.assertEquals(computed.size(), loaded.size());
+        SootMethod applyTwice = method("java.lang.Object applyTwice(target.summaries.Task,java.lang.Object)");
+        Assert.assertEquals(computed.summaryOf(applyTwice).callbacks(), loaded.summaryOf(applyTwice).callbacks());
+        SootMethod create = method("target.summaries.Task create()");
+        Assert.assertEquals(computed.summaryOf(create).returnedTypes(), loaded.summaryOf(create).returnedTypes());
+        Assert.assertTrue(loaded.summaryOf(method("java.lang.Object identity(java.lang.Object)")).flowsToReturn(0));
+
+        // a changed library invalidates the cache
+        Files.write(library.toPath(), new byte[]{4});
+        Assert.assertTrue(loaded.isStale(CallGraphFile.hashClasspath(library.getPath())));
+    }
+
+    @Test
+    public void chaSkipsSummarizedBodies() {
+        SootMethod applyTwice = method("java.lang.Object applyTwice(target.summaries.Task,java.lang.Object)");
+        SootMethod apply = method("java.lang.Object apply(target.summaries.Task,java.lang.Object)");
+
+        CallGraph traversed = construct(new CHAAlgorithm(), null);
+        Assert.assertTrue(traversed.hasEdge(applyTwice, apply));
+
+        CallGraph cg = construct(new CHAAlgorithm(), summaries);
+        Assert.assertFalse(cg.hasNode(apply));
+        assertCallExists(cg.edgesOutOf(applyTwice), "<target.summaries.Doubler: " + RUN + ">");
+        assertCallExists(cg.edgesOutOf(applyTwice), "<target.summaries.Tripler: " + RUN + ">");
+
+        CHAAlgorithm parallel = new CHAAlgorithm();
+        parallel.setParallelism(4);
+        CallGraph parallelCg = construct(parallel, summaries);
+        Assert.assertEquals(cg.edgesOutOf(applyTwice), parallelCg.edgesOutOf(applyTwice));
+    }
+
+    @Test
+    public void rtaInstantiatesReturnedTypes() {
+        CallGraph cg = construct(new RTAAlgorithm(), summaries);
+
+        // Tripler is only allocated inside the library
+        Assert.assertTrue(cg.edgesOutOf(method("target.summaries.Task create()")).isEmpty());
+        assertCallExists(cg.edgesOutOf(callOn("created")), "<target.summaries.Tripler: " + RUN + ">");
+        assertCallExists(cg.edgesOutOf(method("java.lang.Object applyTwice(target.summaries.Task,java.lang.Object)")),
+                "<target.summaries.Doubler: " + RUN + ">");
+    }
+
+    @Test
+    public void vtaFollowsSummarizedFlows() {
+        CallGraph cg = construct(new VTAAlgorithm(), summaries);
+
+        Assert.assertEquals(Collections.singleton(scene.getMethod("<target.summaries.Doubler: " + RUN + ">")),
+                cg.edgesOutOf(callOn("same")));
+        Assert.assertEquals(Collections.singleton(scene.getMethod("<target.summaries.Tripler: " + RUN + ">")),
+                cg.edgesOutOf(callOn("created")));
+        assertCallExists(cg.edgesOutOf(method("java.lang.Object applyTwice(target.summaries.Task,java.lang.Object)")),
+                "<target.summaries.Doubler: " + RUN + ">");
+    }
+
+    private CallGraph construct(CallGraphAlgorithm algorithm, LibrarySummaries librarySummaries) {
+        algorithm.setEntryPointIndex(new EntryPointIndex(scene,
+                Collections.singletonMap("client", EntryPointIndex.methodNamed("libraryClient"))));
+        algorithm.setLibrarySummaries(librarySummaries);
+        return algorithm.constructCallGraph(scene);
+    }
+
+    private SootMethod method(String subSignature) {
+        return scene.getMethod("<target.summaries.Library: " + subSignature + ">");
+    }
+
+    private Unit callOn(String local) {
+        for (Unit unit : client.getActiveBody().getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr() && stmt.getInvokeExpr() instanceof InstanceInvokeExpr
+                    && ((InstanceInvokeExpr) stmt.getInvokeExpr()).getBase().toString().equals(local))
+                return unit;
+        }
+        throw new AssertionError("No call on " + local);
+    }
+}
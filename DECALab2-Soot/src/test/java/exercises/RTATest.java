@@ -76,4 +76,17 @@ public class RTATest extends TestSetup {
         Assert.assertFalse(callsFromMain.contains(fourthLeafMethod));
     }
 
+    @Test
+    public void instantiationInCallee() {
+        SootMethod scenarioMain = scene.getMethod("<target.exercise3.SimpleScenario: void main(java.lang.String[])>");
+        Set<SootMethod> callsFromMain = cg.edgesOutOf(scenarioMain);
+
+        // allocated in a static helper that main calls, not in main itself
+        assertCallExists(callsFromMain, "<target.exercise2.FifthLeafClass: void doSomething()>");
+        assertCallExists(callsFromMain, "<target.exercise2.SixthLeafClass: void doSomething()>");
+
+        assertCallMissing(callsFromMain, "<target.exercise2.ThirdLeafClass: void doSomething()>");
+        assertCallMissing(callsFromMain, "<target.exercise2.FourthLeafClass: void doSomething()>");
+    }
+
 }
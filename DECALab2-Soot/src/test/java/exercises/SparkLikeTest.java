@@ -0,0 +1,130 @@
+package exercises;
+
+import analysis.CallGraph;
+import analysis.CompactCallGraph;
+import analysis.exercise4.PointerAssignmentGraph;
+import analysis.exercise4.SparkLikeAlgorithm;
+import base.TestSetup;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import soot.Local;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootMethod;
+import soot.Transformer;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class SparkLikeTest extends TestSetup {
+    private Scene scene;
+    private CallGraph cg;
+
+    @Override
+    protected Transformer createAnalysisTransformer() {
+        return new SceneTransformer() {
+            @Override
+            protected void internalTransform(String phaseName, Map<String, String> options) {
+                scene = Scene.v();
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executeStaticAnalysis();
+
+        SparkLikeAlgorithm sparkLike = new SparkLikeAlgorithm();
+        cg = sparkLike.constructCallGraph(scene);
+    }
+
+    @Test
+    public void testScenario() {
+        SootMethod scenarioMain = scene.getMethod("<target.exercise3.SimpleScenario: void main(java.lang.String[])>");
+        assertSiteTargets(scenarioMain, "aliasLeaf", "<target.exercise2.LeafClass: void doSomething()>");
+        assertSiteTargets(scenarioMain, "fourthLeaf", "<target.exercise2.FifthLeafClass: void doSomething()>");
+        assertSiteTargets(scenarioMain, "newStuff", "<target.exercise2.SixthLeafClass: void doSomething()>");
+    }
+
+    @Test
+    public void genericCall() {
+        Set<SootMethod> callsFromMain = cg.edgesOutOf(scene.getMethod("<target.exercise2.Starter: void main(java.lang.String[])>"));
+        assertCallExists(callsFromMain, "<target.exercise2.LeafClass: void doSomething()>");
+        assertCallExists(callsFromMain, "<target.exercise2.OtherLeafClass: void doSomething()>");
+        assertCallExists(callsFromMain, "<target.exercise2.Specialization: void doSomething()>");
+        assertCallExists(callsFromMain, "<target.exercise2.Subclass: void doSomething()>");
+
+        assertCallMissing(callsFromMain, "<target.exercise2.ThirdLeafClass: void doSomething()>");
+        assertCallMissing(callsFromMain, "<target.exercise2.FourthLeafClass: void doSomething()>");
+    }
+
+    @Test
+    public void recursiveReturns() {
+        Set<SootMethod> callsFromMain = cg.edgesOutOf(scene.getMethod("<target.exercise3.RecursiveScenario: void main(java.lang.String[])>"));
+        assertCallExists(callsFromMain, "<target.exercise2.OtherLeafClass: void doSomething()>");
+
+        assertCallMissing(callsFromMain, "<target.exercise2.LeafClass: void doSomething()>");
+        assertCallMissing(callsFromMain, "<target.exercise2.Subclass: void doSomething()>");
+    }
+
+    @Test
+    public void fieldsAndArrays() {
+        SootMethod fieldMain = scene.getMethod("<target.exercise4.FieldScenario: void main(java.lang.String[])>");
+        assertSiteTargets(fieldMain, "fromLeafBox", "<target.exercise2.LeafClass: void doSomething()>");
+        assertSiteTargets(fieldMain, "fromArray", "<target.exercise2.Subclass: void doSomething()>");
+        assertSiteTargets(fieldMain, "fromGetter", "<target.exercise2.FifthLeafClass: void doSomething()>");
+    }
+
+    @Test
+    public void propagationStrategies() {
+        SparkLikeAlgorithm worklist = new SparkLikeAlgorithm(SparkLikeAlgorithm.Propagation.WORKLIST);
+        CompactCallGraph expected = worklist.constructCallGraph(scene).compact();
+        Assert.assertEquals(0, worklist.getCollapsedNodeCount());
+
+        for (SparkLikeAlgorithm.Propagation propagation : new SparkLikeAlgorithm.Propagation[]{
+                SparkLikeAlgorithm.Propagation.LAZY_CYCLE_DETECTION, SparkLikeAlgorithm.Propagation.WAVE}) {
+            SparkLikeAlgorithm sparkLike = new SparkLikeAlgorithm(propagation);
+            CompactCallGraph actual = sparkLike.constructCallGraph(scene).compact();
+            Assert.assertTrue(propagation + " should collapse the getter/setter cycle", sparkLike.getCollapsedNodeCount() > 0);
+
+            Assert.assertEquals(expected.nodeCount(), actual.nodeCount());
+            Assert.assertEquals(expected.edgeCount(), actual.edgeCount());
+            for (int i = 0; i < expected.nodeCount(); i++) {
+                SootMethod method = expected.methodAt(i);
+                Assert.assertEquals(expected.edgesOutOf(method), actual.edgesOutOf(method));
+                if (!method.hasActiveBody())
+                    continue;
+                for (Local local : method.getActiveBody().getLocals())
+                    Assert.assertEquals(allocSites(worklist, local), allocSites(sparkLike, local));
+            }
+        }
+    }
+
+    private static Set<Object> allocSites(SparkLikeAlgorithm sparkLike, Local local) {
+        PointerAssignmentGraph pag = sparkLike.getPointerAssignmentGraph();
+        int node = pag.findPointerNode(local);
+        Set<Object> sites = new HashSet<>();
+        if (node != -1)
+            pag.pointsTo(node).forEach(alloc -> sites.add(pag.allocSite(alloc)));
+        return sites;
+    }
+
+    private void assertSiteTargets(SootMethod method, String receiverName, String methodSignature) {
+        for (Unit unit : method.getActiveBody().getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr() && stmt.getInvokeExpr() instanceof InstanceInvokeExpr
+                    && ((Local) ((InstanceInvokeExpr) stmt.getInvokeExpr()).getBase()).getName().equals(receiverName)
+                    && stmt.getInvokeExpr().getMethod().getName().equals("doSomething")) {
+                Assert.assertEquals(Collections.singleton(scene.getMethod(methodSignature)), cg.edgesOutOf(unit));
+                return;
+            }
+        }
+        Assert.fail("No call on " + receiverName);
+    }
+}
@@ -6,11 +6,16 @@ import base.TestSetup;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import soot.Local;
 import soot.Scene;
 import soot.SceneTransformer;
 import soot.SootMethod;
 import soot.Transformer;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.Stmt;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
@@ -58,4 +63,35 @@ public class VTATest extends TestSetup {
         assertCallMissing(callsFromMain, "<target.exercise2.Subclass: void doSomething()>");
         assertCallMissing(callsFromMain, "<target.exercise2.Superclass: void doSomething()>");
     }
+
+    @Test
+    public void perCallSiteTargets() {
+        assertSiteTargets("aliasLeaf", "<target.exercise2.LeafClass: void doSomething()>");
+        assertSiteTargets("fourthLeaf", "<target.exercise2.FifthLeafClass: void doSomething()>");
+        assertSiteTargets("newStuff", "<target.exercise2.SixthLeafClass: void doSomething()>");
+    }
+
+    @Test
+    public void recursiveReturnTypes() {
+        SootMethod recursiveMain = scene.getMethod("<target.exercise3.RecursiveScenario: void main(java.lang.String[])>");
+        Set<SootMethod> callsFromMain = cg.edgesOutOf(recursiveMain);
+        assertCallExists(callsFromMain, "<target.exercise2.OtherLeafClass: void doSomething()>");
+
+        assertCallMissing(callsFromMain, "<target.exercise2.SomeInterface: void doSomething()>");
+        assertCallMissing(callsFromMain, "<target.exercise2.LeafClass: void doSomething()>");
+        assertCallMissing(callsFromMain, "<target.exercise2.Subclass: void doSomething()>");
+    }
+
+    private void assertSiteTargets(String receiverName, String methodSignature) {
+        for (Unit unit : scenarioMain.getActiveBody().getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr() && stmt.getInvokeExpr() instanceof InstanceInvokeExpr
+                    && ((Local) ((InstanceInvokeExpr) stmt.getInvokeExpr()).getBase()).getName().equals(receiverName)
+                    && stmt.getInvokeExpr().getMethod().getName().equals("doSomething")) {
+                Assert.assertEquals(Collections.singleton(scene.getMethod(methodSignature)), cg.edgesOutOf(unit));
+                return;
+            }
+        }
+        Assert.fail("No call on " + receiverName);
+    }
 }
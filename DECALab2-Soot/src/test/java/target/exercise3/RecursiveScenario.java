@@ -0,0 +1,23 @@
+package target.exercise3;
+
+import target.exercise2.*;
+
+public class RecursiveScenario {
+
+    public static void main(String[] args) {
+        SomeInterface built = build(args.length);
+
+        built.doSomething();
+    }
+
+    private static SomeInterface build(int depth) {
+        if (depth <= 0)
+            return new OtherLeafClass();
+        return wrap(depth - 1);
+    }
+
+    private static SomeInterface wrap(int depth) {
+        return build(depth);
+    }
+
+}
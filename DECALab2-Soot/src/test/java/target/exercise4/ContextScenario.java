@@ -0,0 +1,27 @@
+package target.exercise4;
+
+import target.exercise2.*;
+
+public class ContextScenario {
+
+    public static void main(String[] args) {
+        Holder first = new Holder();
+        Holder second = new Holder();
+        first.set(new LeafClass());
+        second.set(new OtherLeafClass());
+
+        SomeInterface fromFirst = first.get();
+        fromFirst.doSomething();
+
+        SomeInterface fifth = identity(new FifthLeafClass());
+        SomeInterface sixth = identity(new SixthLeafClass());
+        SomeInterface third = identity(new LeafClass());
+        fifth.doSomething();
+        third.doSomething();
+    }
+
+    private static SomeInterface identity(SomeInterface value) {
+        return value;
+    }
+
+}
@@ -0,0 +1,29 @@
+package target.exercise4;
+
+import target.exercise2.*;
+
+public class FieldScenario {
+
+    public static void main(String[] args) {
+        Box leafBox = new Box();
+        Box otherBox = new Box();
+        leafBox.content = new LeafClass();
+        otherBox.content = new OtherLeafClass();
+
+        SomeInterface fromLeafBox = leafBox.content;
+        fromLeafBox.doSomething();
+
+        SomeInterface[] elements = new SomeInterface[1];
+        elements[0] = new Subclass();
+        SomeInterface fromArray = elements[0];
+        fromArray.doSomething();
+
+        // getter and setter round trip, a copy cycle through the content field
+        Box shared = new Box();
+        shared.set(new FifthLeafClass());
+        shared.set(shared.get());
+        SomeInterface fromGetter = shared.get();
+        fromGetter.doSomething();
+    }
+
+}
@@ -0,0 +1,17 @@
+package target.exercise4;
+
+import target.exercise2.SomeInterface;
+
+public class Holder {
+
+    private SomeInterface content;
+
+    public void set(SomeInterface content) {
+        this.content = content;
+    }
+
+    public SomeInterface get() {
+        return content;
+    }
+
+}
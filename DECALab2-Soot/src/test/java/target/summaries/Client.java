@@ -0,0 +1,15 @@
+package target.summaries;
+
+public class Client {
+
+    public static void libraryClient() {
+        Task doubler = new Doubler();
+        Library.applyTwice(doubler, "x");
+
+        Task created = Library.create();
+        created.run("y");
+
+        Task same = (Task) Library.identity(doubler);
+        same.run("z");
+    }
+}
@@ -0,0 +1,24 @@
+package target.summaries;
+
+/**
+ * Stands in for a library: tests summarize this class and let the call graph algorithms skip its bodies.
+ */
+public class Library {
+
+    public static Object apply(Task task, Object input) {
+        return task.run(input);
+    }
+
+    public static Object applyTwice(Task task, Object input) {
+        return apply(task, apply(task, input));
+    }
+
+    public static Object identity(Object value) {
+        Object copy = value;
+        return copy;
+    }
+
+    public static Task create() {
+        return new Tripler();
+    }
+}
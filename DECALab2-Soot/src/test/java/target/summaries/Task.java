@@ -0,0 +1,5 @@
+package target.summaries;
+
+public interface Task {
+    Object run(Object input);
+}
@@ -0,0 +1,7 @@
+package target.summaries;
+
+public class Tripler implements Task {
+    public Object run(Object input) {
+        return input;
+    }
+}
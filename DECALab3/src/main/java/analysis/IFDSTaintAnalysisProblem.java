@@ -10,7 +10,6 @@ import analysis.fact.DataFlowFact;
 import heros.FlowFunctions;
 import heros.InterproceduralCFG;
 import soot.Scene;
-import soot.SootClass;
 import soot.SootMethod;
 import soot.Unit;
 import soot.jimple.toolkits.ide.DefaultJimpleIFDSTabulationProblem;
@@ -18,25 +17,31 @@ import soot.jimple.toolkits.ide.DefaultJimpleIFDSTabulationProblem;
 public class IFDSTaintAnalysisProblem extends DefaultJimpleIFDSTabulationProblem<DataFlowFact,InterproceduralCFG<Unit, SootMethod>>{
 
 
+	/** Name of the servlet handler pattern the seeds are read from. */
+	public static final String SERVLET_PATTERN = "servlet";
+
 	private final TaintAnalysisFlowFunctions flowFunctions;
 
+	private final EntryPointIndex entryPointIndex;
+
 	public IFDSTaintAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg, TaintAnalysisFlowFunctions flowFunctions) {
+		this(icfg, flowFunctions, new EntryPointIndex(Scene.v(), Collections.singletonMap(SERVLET_PATTERN, EntryPointIndex.SERVLET_HANDLERS)));
+	}
+
+	/**
+	 * Seeds the analysis from a shared index, which must define {@link #SERVLET_PATTERN}.
+	 */
+	public IFDSTaintAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg, TaintAnalysisFlowFunctions flowFunctions, EntryPointIndex entryPointIndex) {
 		super(icfg);
 		this.flowFunctions = flowFunctions;
+		this.entryPointIndex = entryPointIndex;
 	}
 
 	@Override
 	public Map<Unit, Set<DataFlowFact>> initialSeeds() {
 		Map<Unit,Set<DataFlowFact>> res = Maps.newHashMap();
-		for(SootClass c : Scene.v().getApplicationClasses()){
-			for(SootMethod m : c.getMethods()){
-				if(!m.hasActiveBody()){
-					continue;
-				}
-				if(m.getName().equals("doGet")){
-					res.put(m.getActiveBody().getUnits().getFirst(),Collections.singleton(zeroValue()));
-				}
-			}
+		for(SootMethod m : entryPointIndex.entryPoints(SERVLET_PATTERN)){
+			res.put(m.getActiveBody().getUnits().getFirst(),Collections.singleton(zeroValue()));
 		}
 		return res;
 	}
@@ -29,9 +29,20 @@ public class IDELinearConstantAnalysisProblem extends DefaultJimpleIDETabulation
 
     protected InterproceduralCFG<Unit, SootMethod> icfg;
 
+    private final EntryPointIndex entryPointIndex;
+
     public IDELinearConstantAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg) {
+        this(icfg, IFDSLinearConstantAnalysisProblem.entryPointIndex(Scene.v()));
+    }
+
+    /**
+     * Seeds the analysis from a shared index, which must define
+     * {@link IFDSLinearConstantAnalysisProblem#ENTRY_POINT_PATTERN}.
+     */
+    public IDELinearConstantAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg, EntryPointIndex entryPointIndex) {
         super(icfg);
         this.icfg = icfg;
+        this.entryPointIndex = entryPointIndex;
     }
 
     @Override
@@ -337,17 +348,11 @@ public class IDELinearConstantAnalysisProblem extends DefaultJimpleIDETabulation
 
     @Override
     public Map<Unit, Set<Local>> initialSeeds() {
-        for (SootClass c : Scene.v().getApplicationClasses()) {
-            for (SootMethod m : c.getMethods()) {
-                if (!m.hasActiveBody()) {
-                    continue;
-                }
-                if (m.getName().equals("entryPoint")) {
-                    return DefaultSeeds.make(Collections.singleton(m.getActiveBody().getUnits().getFirst()), zeroValue());
-                }
-            }
-        }
-        throw new IllegalStateException("scene does not contain 'entryPoint'");
+        Set<SootMethod> entryPoints = entryPointIndex.entryPoints(IFDSLinearConstantAnalysisProblem.ENTRY_POINT_PATTERN);
+        if (entryPoints.isEmpty())
+            throw new IllegalStateException("scene does not contain 'entryPoint'");
+        SootMethod m = entryPoints.iterator().next();
+        return DefaultSeeds.make(Collections.singleton(m.getActiveBody().getUnits().getFirst()), zeroValue());
     }
 }
 
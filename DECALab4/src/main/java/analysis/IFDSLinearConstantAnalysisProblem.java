@@ -20,26 +20,40 @@ public class IFDSLinearConstantAnalysisProblem extends DefaultJimpleIFDSTabulati
 
     protected final static int UPPER_BOUND = 1000;
 
+    /** Name of the entry point pattern both linear constant problems seed from. */
+    public static final String ENTRY_POINT_PATTERN = "entryPoint";
+
     protected InterproceduralCFG<Unit, SootMethod> icfg;
 
+    private final EntryPointIndex entryPointIndex;
+
     public IFDSLinearConstantAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg) {
+        this(icfg, entryPointIndex(Scene.v()));
+    }
+
+    /**
+     * Seeds the analysis from a shared index, which must define {@link #ENTRY_POINT_PATTERN}.
+     */
+    public IFDSLinearConstantAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg, EntryPointIndex entryPointIndex) {
         super(icfg);
         this.icfg = icfg;
+        this.entryPointIndex = entryPointIndex;
+    }
+
+    /**
+     * Indexes the methods named entryPoint of scene under {@link #ENTRY_POINT_PATTERN}, for sharing between problems.
+     */
+    public static EntryPointIndex entryPointIndex(Scene scene) {
+        return new EntryPointIndex(scene, Collections.singletonMap(ENTRY_POINT_PATTERN, EntryPointIndex.methodNamed("entryPoint")));
     }
 
     @Override
     public Map<Unit, Set<Pair<Local, Integer>>> initialSeeds() {
-        for (SootClass c : Scene.v().getApplicationClasses()) {
-            for (SootMethod m : c.getMethods()) {
-                if (!m.hasActiveBody()) {
-                    continue;
-                }
-                if (m.getName().equals("entryPoint")) {
-                    return DefaultSeeds.make(Collections.singleton(m.getActiveBody().getUnits().getFirst()), zeroValue());
-                }
-            }
-        }
-        throw new IllegalStateException("scene does not contain 'entryPoint'");
+        Set<SootMethod> entryPoints = entryPointIndex.entryPoints(ENTRY_POINT_PATTERN);
+        if (entryPoints.isEmpty())
+            throw new IllegalStateException("scene does not contain 'entryPoint'");
+        SootMethod m = entryPoints.iterator().next();
+        return DefaultSeeds.make(Collections.singleton(m.getActiveBody().getUnits().getFirst()), zeroValue());
     }
 
     private boolean evalIfConditionIfPossible(IfStmt ifStmt, Pair<Local, Integer> fact) {